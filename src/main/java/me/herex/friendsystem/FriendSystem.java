@@ -12,16 +12,29 @@ import me.herex.friendsystem.cmd.ReplyCommand;
 import me.herex.friendsystem.cmd.ReplyCommandTabCompleter;
 import me.herex.friendsystem.listener.FriendListener;
 import me.herex.friendsystem.manager.BlockManager;
+import me.herex.friendsystem.manager.BackupManager;
+import me.herex.friendsystem.manager.ConsistencyChecker;
+import me.herex.friendsystem.manager.DataCompactor;
 import me.herex.friendsystem.manager.DataManager;
 import me.herex.friendsystem.manager.FriendManager;
 import me.herex.friendsystem.manager.MessageManager;
 import me.herex.friendsystem.manager.RequestManager;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import me.herex.friendsystem.placeholders.FriendPlaceholders;
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.TabCompleter;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.Listener;
 import org.bukkit.plugin.Plugin;
@@ -35,9 +48,13 @@ public class FriendSystem
     private RequestManager requestManager;
     private MessageManager messageManager;
     private BlockManager blockManager;
+    private DataCompactor dataCompactor;
+    private ConsistencyChecker consistencyChecker;
+    private BackupManager backupManager;
     private BlockCommand blockCommand;
     private List<String> allowedWorlds;
     private List<String> allowedServers;
+    private volatile FileConfiguration reloadedConfig;
 
     public void onEnable() {
         instance = this;
@@ -53,9 +70,20 @@ public class FriendSystem
         // Initialize managers
         this.initializeManagers();
 
-        // Load all player data and requests
+        // Open storage; players are loaded as they join, so only those already online are read now
         this.dataManager.loadAllData();
-        this.requestManager.loadAllPendingRequests();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            try {
+                this.dataManager.prefetch(player.getUniqueId());
+            }
+            catch (UncheckedIOException e) {
+                player.kickPlayer(ChatColor.RED + "Your friend data could not be loaded. Please rejoin in a moment.");
+            }
+        }
+        this.requestManager.startExpiryTimer();
+        this.dataManager.startWriteBehind();
+        this.dataCompactor.schedule();
+        this.backupManager.schedule();
 
         // Register commands and event listeners
         this.registerCommands();
@@ -78,7 +106,7 @@ public class FriendSystem
 
     public void onDisable() {
         if (this.dataManager != null) {
-            this.dataManager.saveAllData();
+            this.dataManager.shutdown();
         }
         this.getLogger().info("FriendSystem has been disabled!");
     }
@@ -89,6 +117,9 @@ public class FriendSystem
         this.requestManager = new RequestManager(this);
         this.messageManager = new MessageManager(this);
         this.blockManager = new BlockManager(this);
+        this.dataCompactor = new DataCompactor(this);
+        this.consistencyChecker = new ConsistencyChecker(this);
+        this.backupManager = new BackupManager(this);
         this.blockCommand = new BlockCommand(this);
     }
 
@@ -136,6 +167,85 @@ public class FriendSystem
         return this.blockManager;
     }
 
+    public DataCompactor getDataCompactor() {
+        return this.dataCompactor;
+    }
+
+    public ConsistencyChecker getConsistencyChecker() {
+        return this.consistencyChecker;
+    }
+
+    public BackupManager getBackupManager() {
+        return this.backupManager;
+    }
+
+    @Override
+    public FileConfiguration getConfig() {
+        FileConfiguration reloaded = this.reloadedConfig;
+        return reloaded != null ? reloaded : super.getConfig();
+    }
+
+    @Override
+    public void reloadConfig() {
+        super.reloadConfig();
+        this.reloadedConfig = null;
+    }
+
+    /**
+     * Reads config.yml with the bundled defaults, like {@link #reloadConfig()}, but without
+     * installing it. Safe to call off the main thread.
+     */
+    public FileConfiguration readConfig() {
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(this.getDataFolder(), "config.yml"));
+        InputStream defaults = this.getResource("config.yml");
+        if (defaults != null) {
+            config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
+        }
+        return config;
+    }
+
+    /**
+     * Reloads the config and player data without stalling the server. The new state is prepared
+     * on the IO thread while commands keep working against the current one, then swapped in by a
+     * single main-thread task. The returned future completes on the main thread once the swap is
+     * done, or with the error that left the current state in place. Friend requests are left as
+     * they are: the request table is their only copy in memory.
+     */
+    public CompletableFuture<DataManager.PreparedState> reload() {
+        CompletableFuture<DataManager.PreparedState> reloaded = new CompletableFuture<DataManager.PreparedState>();
+        CompletableFuture<DataManager.PreparedState> prepared;
+        try {
+            prepared = this.dataManager.prepareReload(this::readConfig);
+        }
+        catch (IllegalStateException e) {
+            // Refused before anything changed, so the reload that is running must not be aborted.
+            reloaded.completeExceptionally(e);
+            return reloaded;
+        }
+        prepared.whenComplete((state, error) -> Bukkit.getScheduler().runTask(this, () -> {
+            if (error != null) {
+                this.dataManager.abortReload();
+                this.dataManager.startWriteBehind();
+                reloaded.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            try {
+                this.dataManager.swapState(state);
+                this.reloadedConfig = state.getConfig();
+                this.loadGuiConfig();
+                this.backupManager.schedule();
+                reloaded.complete(state);
+            }
+            catch (IllegalStateException e) {
+                reloaded.completeExceptionally(e);
+            }
+            finally {
+                this.dataManager.startWriteBehind();
+            }
+        }));
+        return reloaded;
+    }
+
     public void loadGuiConfig() {
         this.allowedWorlds = this.getConfig().getStringList("gui.lobby_worlds");
         this.allowedServers = this.getConfig().getStringList("gui.lobby_servers");
@@ -11,12 +11,10 @@
 package me.herex.friendsystem.cmd;
 
 import me.herex.friendsystem.FriendSystem;
-import me.herex.friendsystem.model.PlayerData;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -53,10 +51,9 @@ implements TabCompleter {
                 }
                 FriendSystem plugin = FriendSystem.getInstance();
                 if (plugin != null) {
-                    for (UUID uuid : plugin.getDataManager().getAllKnownUUIDs()) {
-                        PlayerData pd;
-                        if (uuid.equals(player.getUniqueId()) || (pd = plugin.getDataManager().getPlayerData(uuid)) == null) continue;
-                        allNames.add(pd.getPlayerName());
+                    for (String name : plugin.getDataManager().getKnownNames()) {
+                        if (name.equalsIgnoreCase(player.getName())) continue;
+                        allNames.add(name);
                     }
                 }
                 for (String name : allNames) {
@@ -30,11 +30,13 @@ import me.herex.friendsystem.model.PlayerData;
 import me.herex.friendsystem.model.PlayerSettings;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import net.luckperms.api.LuckPerms;
 import net.luckperms.api.LuckPermsProvider;
 import net.luckperms.api.model.user.User;
@@ -73,6 +75,10 @@ implements CommandExecutor {
             return true;
         }
         String subCommand = args[0].toLowerCase();
+        String targetName = this.getTargetName(subCommand, args);
+        if (targetName != null && this.deferUntilLoaded(player, targetName, () -> this.onCommand(sender, command, label, args))) {
+            return true;
+        }
         if ((label.equalsIgnoreCase("f") || label.equalsIgnoreCase("friend")) && args.length == 1 && !this.isKnownSubCommand(subCommand)) {
             this.handleAdd(player, args);
             return true;
@@ -169,10 +175,9 @@ implements CommandExecutor {
                             if (p.getUniqueId().equals(player.getUniqueId())) continue;
                             allNames.add(p.getName());
                         }
-                        for (UUID uuid : this.plugin.getDataManager().getAllKnownUUIDs()) {
-                            PlayerData pd;
-                            if (uuid.equals(player.getUniqueId()) || (pd = this.plugin.getDataManager().getPlayerData(uuid)) == null) continue;
-                            allNames.add(pd.getPlayerName());
+                        for (String name : this.plugin.getDataManager().getKnownNames()) {
+                            if (name.equalsIgnoreCase(player.getName())) continue;
+                            allNames.add(name);
                         }
                         for (String name : allNames) {
                             if (!name.toLowerCase().startsWith(args[1].toLowerCase())) continue;
@@ -181,9 +186,9 @@ implements CommandExecutor {
                         break block11;
                     }
                     if (!sub.equals("accept") && !sub.equals("deny")) break block14;
-                    for (UUID req : playerData.getIncomingRequests().keySet()) {
+                    for (UUID req : this.plugin.getRequestManager().getIncomingRequests(playerData.getPlayerUUID()).keySet()) {
                         String name;
-                        PlayerData pd = this.plugin.getDataManager().getPlayerData(req);
+                        PlayerData pd = this.plugin.getDataManager().peekPlayerData(req);
                         if (pd == null || !(name = pd.getPlayerName()).toLowerCase().startsWith(args[1].toLowerCase())) continue;
                         completions.add(name);
                     }
@@ -269,17 +274,81 @@ implements CommandExecutor {
         }
     }
 
+    /**
+     * @return the player a subcommand acts on, as typed, or {@code null} if it has none
+     */
+    private String getTargetName(String subCommand, String[] args) {
+        if (!this.isKnownSubCommand(subCommand)) {
+            return args[0];
+        }
+        switch (subCommand) {
+            case "add":
+            case "remove":
+            case "accept":
+            case "deny":
+            case "nickname":
+            case "best": {
+                return args.length > 1 ? args[1] : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a target that is not in memory on the IO thread and runs {@code command} again on
+     * the main thread once it is cached, so the command never waits on storage.
+     *
+     * @return whether the command was deferred
+     */
+    private boolean deferUntilLoaded(Player player, String targetName, Runnable command) {
+        UUID targetUUID = this.findPlayerUUID(targetName);
+        if (targetUUID == null || this.plugin.getDataManager().isLoaded(targetUUID)) {
+            return false;
+        }
+        this.plugin.getDataManager().getPlayerDataAsync(targetUUID).whenComplete((data, error) -> {
+            if (!player.isOnline()) {
+                return;
+            }
+            if (error != null) {
+                this.sendBorderedMessage(player, "&cCould not load the data of " + targetName + "&c, please try again later.");
+                return;
+            }
+            command.run();
+        });
+        return true;
+    }
+
+    /**
+     * Reads the players of a page that are not in memory in one batch on the IO thread and runs
+     * {@code command} again on the main thread once they are cached, so listing a page never
+     * reads its entries one by one on the main thread.
+     *
+     * @return whether the command was deferred
+     */
+    private boolean deferUntilCached(Player player, Collection<UUID> playerUUIDs, Runnable command) {
+        CompletableFuture<Void> loaded = this.plugin.getDataManager().cacheAsync(playerUUIDs);
+        if (loaded.isDone() && !loaded.isCompletedExceptionally()) {
+            return false;
+        }
+        loaded.whenComplete((ignored, error) -> {
+            if (!player.isOnline()) {
+                return;
+            }
+            if (error != null) {
+                this.sendBorderedMessage(player, "&cCould not load your friends' data, please try again later.");
+                return;
+            }
+            command.run();
+        });
+        return true;
+    }
+
     private UUID findPlayerUUID(String playerName) {
         Player onlinePlayer = VersionHandler.getOnlinePlayer(playerName);
         if (onlinePlayer != null) {
             return onlinePlayer.getUniqueId();
         }
-        for (Map.Entry<UUID, PlayerData> entry : this.plugin.getDataManager().getAllPlayerData().entrySet()) {
-            PlayerData playerData = entry.getValue();
-            if (!playerData.getPlayerName().equalsIgnoreCase(playerName)) continue;
-            return entry.getKey();
-        }
-        return null;
+        return this.plugin.getDataManager().findUUIDByName(playerName);
     }
 
     private void handleRemove(Player player, String[] args) {
@@ -342,7 +411,7 @@ implements CommandExecutor {
             page = 1;
         }
         PlayerData playerData = this.plugin.getDataManager().getPlayerData(player.getUniqueId());
-        ArrayList<UUID> allFriends = bestOnly ? new ArrayList<UUID>(playerData.getBestFriends()) : new ArrayList<UUID>(this.plugin.getFriendManager().getFriends(player.getUniqueId()));
+        ArrayList<UUID> allFriends = bestOnly ? new ArrayList<UUID>(playerData.getBestFriendsView()) : new ArrayList<UUID>(this.plugin.getFriendManager().getFriends(player.getUniqueId()));
         int totalFriends = allFriends.size();
         int maxPage = Math.max(1, (int)Math.ceil((double)totalFriends / (double)friendsPerPage));
         if (page > maxPage) {
@@ -350,6 +419,9 @@ implements CommandExecutor {
         }
         int start = (page - 1) * friendsPerPage;
         int end = Math.min(start + friendsPerPage, totalFriends);
+        if (this.deferUntilCached(player, allFriends.subList(start, end), () -> this.handleList(player, args))) {
+            return;
+        }
         player.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
         if (maxPage > 1) {
             TextComponent header = new TextComponent("");
@@ -376,7 +448,10 @@ implements CommandExecutor {
             for (int i = start; i < end; ++i) {
                 String statusMsg;
                 UUID friendUUID = (UUID)allFriends.get(i);
-                PlayerData friendData = this.plugin.getDataManager().getPlayerData(friendUUID);
+                PlayerData friendData = this.plugin.getDataManager().peekPlayerData(friendUUID);
+                if (friendData == null) {
+                    friendData = new PlayerData(friendUUID);
+                }
                 String colorPart = friendData.getLastKnownColor();
                 if (VersionHandler.getOnlinePlayer(friendUUID) != null) {
                     colorPart = FriendCommand.getRankColor(friendUUID, friendData);
@@ -503,6 +578,13 @@ implements CommandExecutor {
         int start = (page - 1) * requestsPerPage;
         int end = Math.min(start + requestsPerPage, totalRequests);
         ArrayList<Map.Entry<UUID, FriendRequest>> requestList = new ArrayList<Map.Entry<UUID, FriendRequest>>(incomingRequests.entrySet());
+        ArrayList<UUID> senders = new ArrayList<UUID>(end - start);
+        for (int i = start; i < end; ++i) {
+            senders.add(requestList.get(i).getKey());
+        }
+        if (this.deferUntilCached(player, senders, () -> this.handleRequests(player, args))) {
+            return;
+        }
         player.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&8&m-----------------------------------------------------"));
         player.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)("&6Friend Requests (Page " + page + " of " + maxPage + ")")));
         PlayerData playerData = this.plugin.getDataManager().getPlayerData(player.getUniqueId());
@@ -510,7 +592,8 @@ implements CommandExecutor {
             Map.Entry entry = (Map.Entry)requestList.get(i);
             UUID fromUUID = (UUID)entry.getKey();
             String display = FriendCommand.getDisplayName(fromUUID, playerData, false, true);
-            String realName = this.plugin.getDataManager().getPlayerData(fromUUID).getPlayerName();
+            PlayerData fromData = this.plugin.getDataManager().peekPlayerData(fromUUID);
+            String realName = fromData == null ? "" : fromData.getPlayerName();
             TextComponent line = new TextComponent(ChatColor.translateAlternateColorCodes((char)'&', (String)("&b" + (i - start + 1) + ". " + display + " &7- ")));
             TextComponent accept = new TextComponent(ChatColor.translateAlternateColorCodes((char)'&', (String)"&a&l[ACCEPT]"));
             accept.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/friend accept " + realName));
@@ -644,9 +727,9 @@ implements CommandExecutor {
         }
         PlayerData playerData = this.plugin.getDataManager().getPlayerData(player.getUniqueId());
         String senderDisplay = FriendCommand.getDisplayName(player.getUniqueId(), playerData, false, true);
-        Set<UUID> bestFriends = playerData.getBestFriends();
+        Set<UUID> bestFriends = playerData.getBestFriendsView();
         int removedCount = 0;
-        for (UUID friendUUID : new HashSet<UUID>(friends)) {
+        for (UUID friendUUID : friends) {
             if (bestFriends.contains(friendUUID)) continue;
             this.plugin.getFriendManager().removeFriend(player.getUniqueId(), friendUUID);
             ++removedCount;
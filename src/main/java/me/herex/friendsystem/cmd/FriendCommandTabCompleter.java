@@ -12,6 +12,7 @@ package me.herex.friendsystem.cmd;
 
 import me.herex.friendsystem.FriendSystem;
 import me.herex.friendsystem.model.FriendRequest;
+import me.herex.friendsystem.model.PlayerData;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -61,7 +62,8 @@ implements TabCompleter {
             } else if (sub.equals("accept") || sub.equals("deny")) {
                 Map<UUID, FriendRequest> incoming = this.plugin.getRequestManager().getIncomingRequests(player.getUniqueId());
                 for (Map.Entry<UUID, FriendRequest> entry : incoming.entrySet()) {
-                    String name = this.plugin.getDataManager().getPlayerData(entry.getKey()).getPlayerName();
+                    PlayerData senderData = this.plugin.getDataManager().peekPlayerData(entry.getKey());
+                    String name = senderData == null ? null : senderData.getPlayerName();
                     if (name == null || !name.toLowerCase().startsWith(args[1].toLowerCase())) continue;
                     completions.add(name);
                 }
@@ -12,9 +12,13 @@
 package me.herex.friendsystem.cmd;
 
 import me.herex.friendsystem.FriendSystem;
-import me.herex.friendsystem.model.PlayerData;
-import java.util.Map;
+import me.herex.friendsystem.manager.BackupManager;
+import me.herex.friendsystem.manager.ConsistencyChecker;
+import me.herex.friendsystem.manager.DataCompactor;
+import java.io.File;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
@@ -45,6 +49,18 @@ implements CommandExecutor {
                 this.handleClearData(sender, args);
                 break;
             }
+            case "gc": {
+                this.handleGc(sender);
+                break;
+            }
+            case "check": {
+                this.handleCheck(sender, args);
+                break;
+            }
+            case "backup": {
+                this.handleBackup(sender, args);
+                break;
+            }
             default: {
                 this.sendHelp(sender);
             }
@@ -57,15 +73,115 @@ implements CommandExecutor {
             sender.sendMessage(ChatColor.RED + "You do not have permission to use this command.");
             return;
         }
-        sender.sendMessage(ChatColor.YELLOW + "Saving current data...");
-        this.plugin.getDataManager().saveAllData();
-        sender.sendMessage(ChatColor.YELLOW + "Reloading configuration...");
-        this.plugin.reloadConfig();
-        sender.sendMessage(ChatColor.YELLOW + "Reloading player data...");
-        this.plugin.getDataManager().loadAllData();
-        sender.sendMessage(ChatColor.YELLOW + "Reloading friend requests...");
-        this.plugin.getRequestManager().loadAllPendingRequests();
-        sender.sendMessage(ChatColor.GREEN + "FriendSystem has been reloaded successfully.");
+        sender.sendMessage(ChatColor.YELLOW + "Saving current data and reloading in the background...");
+        this.plugin.reload().whenComplete((state, error) -> {
+            if (error != null) {
+                sender.sendMessage(ChatColor.RED + "Reload failed, the previous configuration and data stay in use: " + error.getMessage());
+                return;
+            }
+            sender.sendMessage(ChatColor.GRAY + "Prepared " + state.getCache().size() + " players in " + state.getBuildMillis() + "ms.");
+            sender.sendMessage(ChatColor.GREEN + "FriendSystem has been reloaded successfully.");
+        });
+    }
+
+    private void handleGc(CommandSender sender) {
+        if (!sender.hasPermission("friendsystem.admin.gc")) {
+            sender.sendMessage(ChatColor.RED + "You do not have permission to use this command.");
+            return;
+        }
+        CompletableFuture<DataCompactor.Report> collection = this.plugin.getDataCompactor().run();
+        if (collection == null) {
+            sender.sendMessage(ChatColor.RED + "A stale player collection is already running.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Collecting stale player data in the background...");
+        collection.whenComplete((report, error) -> {
+            if (error != null) {
+                sender.sendMessage(ChatColor.RED + "Stale player collection failed: " + error.getMessage());
+                return;
+            }
+            sender.sendMessage(ChatColor.GREEN + report.describe());
+        });
+    }
+
+    private void handleCheck(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("friendsystem.admin.check")) {
+            sender.sendMessage(ChatColor.RED + "You do not have permission to use this command.");
+            return;
+        }
+        ConsistencyChecker checker = this.plugin.getConsistencyChecker();
+        if (args.length >= 2 && args[1].equalsIgnoreCase("status")) {
+            sender.sendMessage(ChatColor.YELLOW + checker.describeProgress());
+            return;
+        }
+        boolean repair = args.length >= 2 && args[1].equalsIgnoreCase("repair");
+        CompletableFuture<ConsistencyChecker.Report> check = checker.start(repair);
+        if (check == null) {
+            sender.sendMessage(ChatColor.RED + "A consistency check is already running. " + checker.describeProgress());
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + (repair ? "Checking and repairing" : "Checking") + " friend data in the background. Use /friendsystem check status to follow it.");
+        check.whenComplete((report, error) -> {
+            if (error != null) {
+                sender.sendMessage(ChatColor.RED + "Consistency check failed: " + error.getMessage());
+                return;
+            }
+            sender.sendMessage((report.getIssueCount() == 0 ? ChatColor.GREEN : ChatColor.YELLOW) + "Consistency check: " + report.describe());
+        });
+    }
+
+    private void handleBackup(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("friendsystem.admin.backup")) {
+            sender.sendMessage(ChatColor.RED + "You do not have permission to use this command.");
+            return;
+        }
+        BackupManager backupManager = this.plugin.getBackupManager();
+        if (args.length >= 2 && args[1].equalsIgnoreCase("list")) {
+            List<File> backups = backupManager.listBackups();
+            if (backups.isEmpty()) {
+                sender.sendMessage(ChatColor.YELLOW + "There are no backups yet.");
+                return;
+            }
+            sender.sendMessage(ChatColor.GOLD + "Backups (newest first):");
+            for (File backup : backups) {
+                sender.sendMessage(ChatColor.YELLOW + backup.getName() + ChatColor.GRAY + " (" + backup.length() / 1024L + " KiB)");
+            }
+            return;
+        }
+        if (args.length >= 2 && args[1].equalsIgnoreCase("restore")) {
+            if (args.length < 4 || !args[3].equalsIgnoreCase("confirm")) {
+                sender.sendMessage(ChatColor.YELLOW + "Restoring replaces all current player data with the backup.");
+                sender.sendMessage(ChatColor.YELLOW + "To confirm, please use: /friendsystem backup restore <name|latest> confirm");
+                return;
+            }
+            CompletableFuture<Integer> restore = backupManager.restore(args[2]);
+            if (restore == null) {
+                sender.sendMessage(ChatColor.RED + "A backup or restore is already running.");
+                return;
+            }
+            sender.sendMessage(ChatColor.YELLOW + "Restoring backup '" + args[2] + "' in the background...");
+            restore.whenComplete((restored, error) -> {
+                if (error != null) {
+                    sender.sendMessage(ChatColor.RED + "Restore failed: " + error.getMessage());
+                    return;
+                }
+                sender.sendMessage(ChatColor.GREEN + "Restored " + restored + " players from backup '" + args[2] + "'.");
+            });
+            return;
+        }
+        CompletableFuture<File> backup = backupManager.backup();
+        if (backup == null) {
+            sender.sendMessage(ChatColor.RED + "A backup or restore is already running.");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Backing up player data in the background...");
+        backup.whenComplete((file, error) -> {
+            if (error != null) {
+                sender.sendMessage(ChatColor.RED + "Backup failed: " + error.getMessage());
+                return;
+            }
+            sender.sendMessage(ChatColor.GREEN + "Player data has been backed up to " + file.getName() + ".");
+        });
     }
 
     private void handleClearData(CommandSender sender, String[] args) {
@@ -85,7 +201,7 @@ implements CommandExecutor {
                 return;
             }
             this.plugin.getDataManager().clearAllPlayerData();
-            this.plugin.getDataManager().saveAllData();
+            this.plugin.getDataManager().saveAllDataAsync();
             sender.sendMessage(ChatColor.GREEN + "All FriendSystem player data has been cleared.");
         } else {
             UUID targetUUID = this.findPlayerUUID(target);
@@ -94,7 +210,7 @@ implements CommandExecutor {
                 return;
             }
             this.plugin.getDataManager().removePlayerData(targetUUID);
-            this.plugin.getDataManager().saveAllData();
+            this.plugin.getDataManager().saveAllDataAsync();
             sender.sendMessage(ChatColor.GREEN + "Data for '" + args[1] + "' has been cleared.");
         }
     }
@@ -105,6 +221,10 @@ implements CommandExecutor {
         sender.sendMessage(ChatColor.YELLOW + "/friendsystem reload" + ChatColor.GRAY + " - Reloads the plugin config and data.");
         sender.sendMessage(ChatColor.YELLOW + "/friendsystem cleardata <player>" + ChatColor.GRAY + " - Clears a specific player's data.");
         sender.sendMessage(ChatColor.YELLOW + "/friendsystem cleardata all confirm" + ChatColor.GRAY + " - Clears all player data.");
+        sender.sendMessage(ChatColor.YELLOW + "/friendsystem gc" + ChatColor.GRAY + " - Removes stale players and dangling references.");
+        sender.sendMessage(ChatColor.YELLOW + "/friendsystem check [repair|status]" + ChatColor.GRAY + " - Checks friend and request data for one-sided entries.");
+        sender.sendMessage(ChatColor.YELLOW + "/friendsystem backup [list]" + ChatColor.GRAY + " - Backs up all player data, or lists the backups.");
+        sender.sendMessage(ChatColor.YELLOW + "/friendsystem backup restore <name|latest> confirm" + ChatColor.GRAY + " - Restores a backup.");
         sender.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
     }
 
@@ -113,9 +233,9 @@ implements CommandExecutor {
         if (onlinePlayer != null) {
             return onlinePlayer.getUniqueId();
         }
-        for (Map.Entry<UUID, PlayerData> entry : this.plugin.getDataManager().getAllPlayerData().entrySet()) {
-            if (!entry.getValue().getPlayerName().equalsIgnoreCase(playerName)) continue;
-            return entry.getKey();
+        UUID knownUUID = this.plugin.getDataManager().findUUIDByName(playerName);
+        if (knownUUID != null) {
+            return knownUUID;
         }
         return Bukkit.getOfflinePlayer((String)playerName).getUniqueId();
     }
@@ -10,6 +10,8 @@
  */
 package me.herex.friendsystem.cmd;
 
+import me.herex.friendsystem.FriendSystem;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,8 +32,47 @@ implements TabCompleter {
             if ("cleardata".startsWith(args[0].toLowerCase())) {
                 completions.add("cleardata");
             }
+            if ("gc".startsWith(args[0].toLowerCase())) {
+                completions.add("gc");
+            }
+            if ("check".startsWith(args[0].toLowerCase())) {
+                completions.add("check");
+            }
+            if ("backup".startsWith(args[0].toLowerCase())) {
+                completions.add("backup");
+            }
+            return completions;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("check")) {
+            ArrayList<String> completions = new ArrayList<String>();
+            for (String option : new String[]{"repair", "status"}) {
+                if (!option.startsWith(args[1].toLowerCase())) continue;
+                completions.add(option);
+            }
+            return completions;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("backup")) {
+            ArrayList<String> completions = new ArrayList<String>();
+            for (String option : new String[]{"list", "restore"}) {
+                if (!option.startsWith(args[1].toLowerCase())) continue;
+                completions.add(option);
+            }
             return completions;
         }
+        if (args.length == 3 && args[0].equalsIgnoreCase("backup") && args[1].equalsIgnoreCase("restore")) {
+            ArrayList<String> completions = new ArrayList<String>();
+            if ("latest".startsWith(args[2].toLowerCase())) {
+                completions.add("latest");
+            }
+            for (File backup : FriendSystem.getInstance().getBackupManager().listBackups()) {
+                if (!backup.getName().toLowerCase().startsWith(args[2].toLowerCase())) continue;
+                completions.add(backup.getName());
+            }
+            return completions;
+        }
+        if (args.length == 4 && args[0].equalsIgnoreCase("backup") && args[1].equalsIgnoreCase("restore") && "confirm".startsWith(args[3].toLowerCase())) {
+            return Collections.singletonList("confirm");
+        }
         if (args.length == 2 && args[0].equalsIgnoreCase("cleardata")) {
             ArrayList<String> completions = new ArrayList<String>();
             completions.add("all");
@@ -40,10 +40,18 @@ public class FriendSettingsGUI implements Listener {
        ========================= */
 
     public void open() {
-        inventory = Bukkit.createInventory(null, GUI_SIZE, GUI_TITLE);
-        Bukkit.getPluginManager().registerEvents(this, plugin);
-        updateItems();
-        player.openInventory(inventory);
+        // Normally cached since login; otherwise read off the main thread before the GUI opens
+        plugin.getDataManager().getPlayerDataAsync(uuid).whenComplete((data, error) -> {
+            if (!player.isOnline()) return;
+            if (error != null) {
+                player.sendMessage(ChatColor.RED + "Your settings could not be loaded. Please try again later.");
+                return;
+            }
+            inventory = Bukkit.createInventory(null, GUI_SIZE, GUI_TITLE);
+            Bukkit.getPluginManager().registerEvents(this, plugin);
+            updateItems();
+            player.openInventory(inventory);
+        });
     }
 
     private void updateItems() {
@@ -16,10 +16,12 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.io.UncheckedIOException;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -38,6 +40,19 @@ public class FriendListener implements Listener {
        PLAYER JOIN / QUIT
        ========================= */
 
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onAsyncPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+
+        // Runs off the main thread, so the join below finds everything in memory
+        try {
+            plugin.getDataManager().prefetch(event.getUniqueId());
+        } catch (UncheckedIOException e) {
+            // Letting them in would start them on an empty record that the join then saves
+            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER, ChatColor.RED + "Your friend data could not be loaded. Please try again in a moment.");
+        }
+    }
+
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
@@ -65,13 +80,12 @@ public class FriendListener implements Listener {
     private void handlePlayerJoin(Player player) {
         UUID uuid = player.getUniqueId();
 
-        plugin.getRequestManager().activateRequestsFor(uuid);
-        plugin.getRequestManager().clearExpiredRequests();
-        plugin.getDataManager().clearExpiredRequests();
-
+        // Already cached by the pre-login prefetch
         PlayerData data = plugin.getDataManager().getPlayerData(uuid);
         data.setPlayerName(player.getName());
 
+        plugin.getRequestManager().activateRequestsFor(uuid);
+
         // LuckPerms prefix handling
         try {
             LuckPerms lp = LuckPermsProvider.get();
@@ -0,0 +1,176 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.FriendSystem;
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.BackupArchive;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bukkit.Bukkit;
+
+/**
+ * Backups of all player data into the backups folder, see {@link BackupArchive}.
+ * <p>
+ * A backup queues a save of the dirty players and changed requests, which copies just those on
+ * the main thread, and right behind it a {@link StoreSnapshot} of the whole store, requests
+ * included. The snapshot is read in chunks on the IO thread, so saves queued meanwhile run
+ * between chunks, and it still holds exactly the state at the time of the command.
+ * Compression and the file write happen on an async worker, off the IO thread. A backup holds
+ * {@link DataManager#beginMaintenance()} while it reads, so a reload cannot swap the store.
+ */
+public class BackupManager {
+    private final FriendSystem plugin;
+    private final BackupArchive archive;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private int scheduleTaskId = -1;
+
+    public BackupManager(FriendSystem plugin) {
+        this.plugin = plugin;
+        this.archive = new BackupArchive(new File(plugin.getDataFolder(), "backups"));
+    }
+
+    /**
+     * Takes a backup every {@code backup.interval_minutes}; 0 disables it.
+     */
+    public void schedule() {
+        this.cancel();
+        long minutes = this.plugin.getConfig().getLong("backup.interval_minutes", 360L);
+        if (minutes <= 0L) {
+            return;
+        }
+        long intervalTicks = minutes * 1200L;
+        this.scheduleTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(this.plugin, () -> {
+            CompletableFuture<File> backup = this.backup();
+            if (backup == null) {
+                return;
+            }
+            backup.exceptionally(error -> null);
+        }, intervalTicks, intervalTicks);
+    }
+
+    public void cancel() {
+        if (this.scheduleTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(this.scheduleTaskId);
+            this.scheduleTaskId = -1;
+        }
+    }
+
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * @return the backup files, newest first
+     */
+    public List<File> listBackups() {
+        return this.archive.list();
+    }
+
+    /**
+     * Starts a backup. The returned future completes on the main thread with the new file, or
+     * is {@code null} if a backup or restore is already running.
+     */
+    public CompletableFuture<File> backup() {
+        if (!this.running.compareAndSet(false, true)) {
+            return null;
+        }
+        CompletableFuture<File> result = new CompletableFuture<File>();
+        long created = System.currentTimeMillis();
+        long start = System.nanoTime();
+        int level = this.plugin.getConfig().getInt("backup.compression_level", 6);
+        int generations = this.plugin.getConfig().getInt("backup.generations", 7);
+        DataManager dataManager = this.plugin.getDataManager();
+        if (!dataManager.beginMaintenance()) {
+            this.finish(result, null, new IllegalStateException("A reload is in progress."));
+            return result;
+        }
+        CompletableFuture<Void> saved = dataManager.saveAllDataAsync();
+        CompletableFuture<StoreSnapshot> read = dataManager.snapshotStoreAsync();
+        read.whenComplete((snapshot, error) -> dataManager.endMaintenance());
+        saved.thenCombine(read, (ignored, snapshot) -> snapshot).whenComplete((snapshot, error) -> {
+            if (error != null) {
+                this.finish(result, null, error);
+                return;
+            }
+            Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+                try {
+                    File file = this.archive.write(created, snapshot.getRecords(), snapshot.getRequests(), level);
+                    int rotated = this.archive.rotate(generations);
+                    this.plugin.getLogger().info("Backed up " + snapshot.getRecords().size() + " players to " + file.getName() + " (" + file.length() / 1024L + " KiB) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms" + (rotated > 0 ? ", removed " + rotated + " old backups" : ""));
+                    this.finish(result, file, null);
+                }
+                catch (IOException | RuntimeException e) {
+                    this.finish(result, null, e);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Replaces all player data and friend requests with a backup, see
+     * {@link DataManager#restoreAll(List, Map)}. The file is read on an async worker; the swap
+     * happens in one main-thread task. The returned future completes on the main thread with the number of
+     * restored players once the store holds them, or is {@code null} if a backup or restore is
+     * already running.
+     *
+     * @param name a backup file name, or {@code latest}
+     */
+    public CompletableFuture<Integer> restore(String name) {
+        if (!this.running.compareAndSet(false, true)) {
+            return null;
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+        File file = this.archive.find(name);
+        if (file == null) {
+            this.finish(result, null, new IOException("No backup named " + name));
+            return result;
+        }
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            BackupArchive.Contents contents;
+            try {
+                contents = BackupArchive.read(file);
+            }
+            catch (IOException | RuntimeException e) {
+                this.finish(result, null, e);
+                return;
+            }
+            List<PlayerData> records = contents.getRecords();
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                CompletableFuture<Void> stored;
+                try {
+                    stored = this.plugin.getDataManager().restoreAll(records, contents.getRequests());
+                }
+                catch (IllegalStateException e) {
+                    this.finish(result, null, e);
+                    return;
+                }
+                stored.whenComplete((ignored, error) -> {
+                    if (error == null) {
+                        this.plugin.getLogger().info("Restored " + records.size() + " players from " + file.getName());
+                    }
+                    this.finish(result, records.size(), error);
+                });
+            });
+        });
+        return result;
+    }
+
+    private <T> void finish(CompletableFuture<T> result, T value, Throwable error) {
+        Bukkit.getScheduler().runTask(this.plugin, () -> {
+            this.running.set(false);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                this.plugin.getLogger().severe("Backup operation failed: " + cause.getMessage());
+                result.completeExceptionally(cause);
+                return;
+            }
+            result.complete(value);
+        });
+    }
+}
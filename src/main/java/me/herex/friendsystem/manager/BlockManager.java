@@ -5,6 +5,8 @@ package me.herex.friendsystem.manager;
 
 import me.herex.friendsystem.FriendSystem;
 import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.Mutation;
+import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
 
@@ -19,43 +21,44 @@ public class BlockManager {
         if (blocker.equals(toBlock)) {
             return false;
         }
-        PlayerData data = this.plugin.getDataManager().getPlayerData(blocker);
+        PlayerData data = this.plugin.getDataManager().getOrCreatePlayerData(blocker);
         if (data.isBlocked(toBlock)) {
             return false;
         }
         data.blockPlayer(toBlock);
-        this.plugin.getDataManager().savePlayerData(data);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.BLOCK, blocker, toBlock);
         return true;
     }
 
     public boolean unblockPlayer(UUID blocker, UUID toUnblock) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(blocker);
+        PlayerData data = this.plugin.getDataManager().getOrCreatePlayerData(blocker);
         if (!data.isBlocked(toUnblock)) {
             return false;
         }
         data.unblockPlayer(toUnblock);
-        this.plugin.getDataManager().savePlayerData(data);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.UNBLOCK, blocker, toUnblock);
         return true;
     }
 
     public void unblockAll(UUID blocker) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(blocker);
+        PlayerData data = this.plugin.getDataManager().getOrCreatePlayerData(blocker);
         data.unblockAll();
-        this.plugin.getDataManager().savePlayerData(data);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.UNBLOCK_ALL, blocker, blocker);
     }
 
     public boolean isBlocked(UUID blocker, UUID target) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(blocker);
-        return data.isBlocked(target);
+        PlayerData data = this.plugin.getDataManager().peekPlayerData(blocker);
+        return data != null && data.isBlocked(target);
     }
 
     public Set<UUID> getBlockedPlayers(UUID blocker) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(blocker);
-        return data.getBlockedPlayers();
+        PlayerData data = this.plugin.getDataManager().peekPlayerData(blocker);
+        return data == null ? Collections.emptySet() : data.getBlockedPlayersView();
     }
 
     public int getBlockedCount(UUID blocker) {
-        return this.getBlockedPlayers(blocker).size();
+        PlayerData data = this.plugin.getDataManager().peekPlayerData(blocker);
+        return data == null ? 0 : data.getBlockedCount();
     }
 }
 
@@ -0,0 +1,235 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.FriendSystem;
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.GraphAudit;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bukkit.Bukkit;
+
+/**
+ * Runs {@link GraphAudit} against the live store and optionally repairs what it finds.
+ * <p>
+ * Pending changes are flushed first so the store matches memory, then the store is scanned on
+ * an async thread. Repairs are worked off on the main thread in slices of
+ * {@code maintenance.tick_budget_ms} per tick: issues involving a cached player are re-checked
+ * and fixed on the cached records, the rest are fixed in the store on the IO thread.
+ */
+public class ConsistencyChecker {
+    private static final int IO_CHUNK_SIZE = 500;
+    private final FriendSystem plugin;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile GraphAudit.Progress progress;
+    private volatile String phase = "idle";
+    private volatile int found;
+    private volatile int handled;
+    private volatile Report lastReport;
+
+    public ConsistencyChecker(FriendSystem plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Starts a check. The returned future completes on the main thread with the report, fails
+     * right away if a reload is in progress, or is {@code null} if a check is already running.
+     */
+    public CompletableFuture<Report> start(boolean repair) {
+        if (!this.running.compareAndSet(false, true)) {
+            return null;
+        }
+        CompletableFuture<Report> result = new CompletableFuture<Report>();
+        if (!this.plugin.getDataManager().beginMaintenance()) {
+            this.running.set(false);
+            result.completeExceptionally(new IllegalStateException("A reload is in progress."));
+            return result;
+        }
+        long start = System.nanoTime();
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, this.plugin.getConfig().getLong("maintenance.tick_budget_ms", 2L)));
+        GraphAudit.Progress scanProgress = new GraphAudit.Progress();
+        this.progress = scanProgress;
+        this.found = 0;
+        this.handled = 0;
+        this.phase = "flushing";
+        this.plugin.getDataManager().saveAllDataAsync().whenComplete((ignored, saveError) -> Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            if (saveError != null) {
+                // The store would not match memory, so the scan would report and repair changes that are only unsaved.
+                Bukkit.getScheduler().runTask(this.plugin, () -> this.fail(result, new IOException("Could not flush pending changes before scanning: " + saveError.getMessage(), saveError)));
+                return;
+            }
+            List<GraphAudit.Issue> issues;
+            try {
+                this.phase = "scanning";
+                issues = GraphAudit.scan(this.plugin.getDataManager().getStore(), scanProgress);
+            }
+            catch (Exception e) {
+                Bukkit.getScheduler().runTask(this.plugin, () -> this.fail(result, e));
+                return;
+            }
+            this.found = issues.size();
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                if (!repair || issues.isEmpty()) {
+                    this.complete(result, new Report(issues, 0, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                    return;
+                }
+                this.phase = "repairing";
+                new RepairPass(issues, start, budgetNanos, result).start();
+            });
+        }));
+        return result;
+    }
+
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * @return a one-line description of the running check, or of the last one
+     */
+    public String describeProgress() {
+        if (!this.running.get()) {
+            Report report = this.lastReport;
+            return report == null ? "No consistency check has run yet." : "Last check: " + report.describe();
+        }
+        GraphAudit.Progress scanProgress = this.progress;
+        switch (this.phase) {
+            case "scanning": {
+                return "Scanning pass " + Math.max(1, scanProgress.getPass()) + "/2: " + scanProgress.getProcessed() + "/" + scanProgress.getTotal() + " players.";
+            }
+            case "repairing": {
+                return "Repairing: " + this.handled + "/" + this.found + " issues handled.";
+            }
+        }
+        return "Flushing pending changes before scanning.";
+    }
+
+    private void fail(CompletableFuture<Report> result, Throwable error) {
+        this.phase = "idle";
+        this.plugin.getDataManager().endMaintenance();
+        this.running.set(false);
+        this.plugin.getLogger().severe("Consistency check failed: " + error.getMessage());
+        result.completeExceptionally(error);
+    }
+
+    private void complete(CompletableFuture<Report> result, Report report) {
+        this.phase = "idle";
+        this.lastReport = report;
+        this.plugin.getDataManager().endMaintenance();
+        this.running.set(false);
+        this.plugin.getLogger().info("Consistency check: " + report.describe());
+        result.complete(report);
+    }
+
+    private class RepairPass implements Runnable {
+        private final List<GraphAudit.Issue> issues;
+        private final ArrayDeque<GraphAudit.Issue> queue;
+        private final long start;
+        private final long budgetNanos;
+        private final CompletableFuture<Report> result;
+        private final List<CompletableFuture<Integer>> writes = new ArrayList<CompletableFuture<Integer>>();
+        private ArrayList<GraphAudit.Issue> storeChunk = new ArrayList<GraphAudit.Issue>();
+        private int repaired;
+        private int taskId = -1;
+
+        private RepairPass(List<GraphAudit.Issue> issues, long start, long budgetNanos, CompletableFuture<Report> result) {
+            this.issues = issues;
+            this.queue = new ArrayDeque<GraphAudit.Issue>(issues);
+            this.start = start;
+            this.budgetNanos = budgetNanos;
+            this.result = result;
+        }
+
+        private void start() {
+            this.taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(ConsistencyChecker.this.plugin, this, 1L, 1L);
+        }
+
+        @Override
+        public void run() {
+            long until = System.nanoTime() + this.budgetNanos;
+            while (System.nanoTime() < until) {
+                GraphAudit.Issue issue = this.queue.poll();
+                if (issue == null) {
+                    this.finish();
+                    return;
+                }
+                this.handle(issue);
+                ++ConsistencyChecker.this.handled;
+            }
+        }
+
+        private void handle(GraphAudit.Issue issue) {
+            DataManager dataManager = ConsistencyChecker.this.plugin.getDataManager();
+            if (!dataManager.isLoaded(issue.getPlayer()) && !dataManager.isLoaded(issue.getOther())) {
+                this.storeChunk.add(issue);
+                if (this.storeChunk.size() >= IO_CHUNK_SIZE) {
+                    this.submitChunk();
+                }
+                return;
+            }
+            PlayerData player = dataManager.getPlayerData(issue.getPlayer());
+            if (!GraphAudit.repair(issue, player, dataManager.peekPlayerData(issue.getOther()))) {
+                return;
+            }
+            ++this.repaired;
+            dataManager.savePlayerData(player);
+        }
+
+        private void submitChunk() {
+            if (this.storeChunk.isEmpty()) {
+                return;
+            }
+            ArrayList<GraphAudit.Issue> chunk = this.storeChunk;
+            this.storeChunk = new ArrayList<GraphAudit.Issue>();
+            this.writes.add(ConsistencyChecker.this.plugin.getDataManager().submitStoreTask(store -> GraphAudit.repairStored(store, chunk)));
+        }
+
+        private void finish() {
+            Bukkit.getScheduler().cancelTask(this.taskId);
+            this.submitChunk();
+            CompletableFuture.allOf(this.writes.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> Bukkit.getScheduler().runTask(ConsistencyChecker.this.plugin, () -> {
+                if (error != null) {
+                    ConsistencyChecker.this.fail(this.result, error);
+                    return;
+                }
+                for (CompletableFuture<Integer> write : this.writes) {
+                    this.repaired += write.join().intValue();
+                }
+                ConsistencyChecker.this.complete(this.result, new Report(this.issues, this.repaired, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start)));
+            }));
+        }
+    }
+
+    public static class Report {
+        private final Map<GraphAudit.IssueType, Integer> counts;
+        private final int issues;
+        private final int repaired;
+        private final long millis;
+
+        private Report(List<GraphAudit.Issue> issues, int repaired, long millis) {
+            this.counts = GraphAudit.countByType(issues);
+            this.issues = issues.size();
+            this.repaired = repaired;
+            this.millis = millis;
+        }
+
+        public int getIssueCount() {
+            return this.issues;
+        }
+
+        public int getRepairedCount() {
+            return this.repaired;
+        }
+
+        public String describe() {
+            if (this.issues == 0) {
+                return "no issues found (" + this.millis + "ms).";
+            }
+            return this.issues + " issues " + this.counts + ", " + this.repaired + " records repaired (" + this.millis + "ms).";
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.FriendSystem;
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import me.herex.friendsystem.storage.BinaryRecordCodec;
+import me.herex.friendsystem.storage.PlayerStore;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.bukkit.Bukkit;
+
+/**
+ * Garbage collection of stored players. A record is stale when it has no friends, blocks,
+ * best friends or nicknames, the player has no pending request, and either was never seen logging out with non-default
+ * settings (the empty records {@link DataManager#getPlayerData} leaves behind for looked-up
+ * players) or last logged out more than {@code maintenance.gc_idle_days} ago. Stale records
+ * are deleted, and friend, best friend and nickname entries pointing at players that no longer
+ * exist are removed from the remaining records.
+ * <p>
+ * The store is scanned on an async thread. The results are then worked off on the main thread
+ * in slices of {@code maintenance.tick_budget_ms} per tick: cached players are repaired in
+ * place, everything else is handed to the IO thread in chunks.
+ */
+public class DataCompactor {
+    private static final int IO_CHUNK_SIZE = 1000;
+    private final FriendSystem plugin;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private int scheduleTaskId = -1;
+
+    public DataCompactor(FriendSystem plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Runs a collection every {@code maintenance.gc_interval_hours}; 0 disables it.
+     */
+    public void schedule() {
+        this.cancel();
+        long hours = this.plugin.getConfig().getLong("maintenance.gc_interval_hours", 24L);
+        if (hours <= 0L) {
+            return;
+        }
+        long intervalTicks = hours * 72000L;
+        this.scheduleTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(this.plugin, () -> this.run(), intervalTicks, intervalTicks);
+    }
+
+    public void cancel() {
+        if (this.scheduleTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(this.scheduleTaskId);
+            this.scheduleTaskId = -1;
+        }
+    }
+
+    public boolean isRunning() {
+        return this.running.get();
+    }
+
+    /**
+     * Starts a collection. The returned future completes on the main thread with the report,
+     * fails right away if a reload is in progress, or is {@code null} if a collection is already
+     * running.
+     */
+    public CompletableFuture<Report> run() {
+        if (!this.running.compareAndSet(false, true)) {
+            return null;
+        }
+        CompletableFuture<Report> result = new CompletableFuture<Report>();
+        if (!this.plugin.getDataManager().beginMaintenance()) {
+            this.running.set(false);
+            result.completeExceptionally(new IllegalStateException("A reload is in progress."));
+            return result;
+        }
+        long start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Math.max(1L, this.plugin.getConfig().getLong("maintenance.gc_idle_days", 90L)));
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, this.plugin.getConfig().getLong("maintenance.tick_budget_ms", 2L)));
+        PlayerStore store = this.plugin.getDataManager().getStore();
+        Bukkit.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                Scan scan = DataCompactor.scan(store, cutoff);
+                Bukkit.getScheduler().runTask(this.plugin, () -> new Pass(scan, start, budgetNanos, result).start());
+            }
+            catch (IOException | RuntimeException e) {
+                Bukkit.getScheduler().runTask(this.plugin, () -> {
+                    this.plugin.getDataManager().endMaintenance();
+                    this.running.set(false);
+                    this.plugin.getLogger().severe("Stale player collection failed: " + e.getMessage());
+                    result.completeExceptionally(e);
+                });
+            }
+        });
+        return result;
+    }
+
+    private static Scan scan(PlayerStore store, long cutoff) throws IOException {
+        Scan scan = new Scan();
+        Set<UUID> known = store.keys();
+        store.iterate(record -> {
+            ++scan.scanned;
+            if (!DataCompactor.isStale(record, cutoff)) {
+                return;
+            }
+            scan.stale.put(record.getPlayerUUID(), BinaryRecordCodec.encode(record).length);
+        });
+        known.removeAll(scan.stale.keySet());
+        // Second pass: references to the stale players are only known to dangle once the first pass is done.
+        store.iterate(record -> {
+            if (scan.stale.containsKey(record.getPlayerUUID())) {
+                return;
+            }
+            HashSet<UUID> missing = new HashSet<UUID>();
+            for (UUID friendUUID : record.getFriendsView()) {
+                if (known.contains(friendUUID)) continue;
+                missing.add(friendUUID);
+            }
+            for (UUID bestUUID : record.getBestFriendsView()) {
+                if (known.contains(bestUUID)) continue;
+                missing.add(bestUUID);
+            }
+            for (UUID nicknamedUUID : record.getNicknamesView().keySet()) {
+                if (known.contains(nicknamedUUID)) continue;
+                missing.add(nicknamedUUID);
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+            scan.dangling.put(record.getPlayerUUID(), missing);
+        });
+        return scan;
+    }
+
+    static boolean isStale(PlayerData record, long cutoff) {
+        if (record.getFriendCount() > 0 || record.getBlockedCount() > 0 || record.getBestFriendCount() > 0 || !record.getNicknamesView().isEmpty()) {
+            return false;
+        }
+        if (record.getLastLogoutTime() > 0L) {
+            return record.getLastLogoutTime() < cutoff;
+        }
+        PlayerSettings settings = record.getSettings();
+        PlayerSettings defaults = new PlayerSettings();
+        return settings.isAllowRequests() == defaults.isAllowRequests() && settings.isAppearOffline() == defaults.isAppearOffline() && settings.isNotifyOnline() == defaults.isNotifyOnline() && settings.isAllowJoin() == defaults.isAllowJoin() && settings.isNotifyJoin() == defaults.isNotifyJoin() && settings.getMessagePrivacy() == defaults.getMessagePrivacy();
+    }
+
+    /**
+     * @return the number of friend, best friend and nickname entries removed
+     */
+    private static int strip(PlayerData data, Set<UUID> gone) {
+        int removed = 0;
+        for (UUID uuid : gone) {
+            if (data.isFriend(uuid)) {
+                data.removeFriend(uuid);
+                ++removed;
+            }
+            if (data.isBestFriend(uuid)) {
+                data.removeBestFriend(uuid);
+                ++removed;
+            }
+            if (data.getNickname(uuid) != null) {
+                data.removeNickname(uuid);
+                ++removed;
+            }
+        }
+        return removed;
+    }
+
+    private static class Scan {
+        private int scanned;
+        private final Map<UUID, Integer> stale = new HashMap<UUID, Integer>();
+        private final Map<UUID, Set<UUID>> dangling = new HashMap<UUID, Set<UUID>>();
+    }
+
+    /**
+     * Main-thread half of a collection, run a budgeted slice per tick.
+     */
+    private class Pass implements Runnable {
+        private final Scan scan;
+        private final long start;
+        private final long budgetNanos;
+        private final CompletableFuture<Report> result;
+        private final ArrayDeque<UUID> staleQueue;
+        private final ArrayDeque<Map.Entry<UUID, Set<UUID>>> danglingQueue;
+        private final Set<UUID> deleted = new HashSet<UUID>();
+        private final Set<UUID> kept = new HashSet<UUID>();
+        private final List<CompletableFuture<Integer>> writes = new ArrayList<CompletableFuture<Integer>>();
+        private ArrayList<UUID> deleteChunk = new ArrayList<UUID>();
+        private HashMap<UUID, Set<UUID>> repairChunk = new HashMap<UUID, Set<UUID>>();
+        private long reclaimedBytes;
+        private int removedReferences;
+        private int taskId = -1;
+
+        private Pass(Scan scan, long start, long budgetNanos, CompletableFuture<Report> result) {
+            this.scan = scan;
+            this.start = start;
+            this.budgetNanos = budgetNanos;
+            this.result = result;
+            this.staleQueue = new ArrayDeque<UUID>(scan.stale.keySet());
+            this.danglingQueue = new ArrayDeque<Map.Entry<UUID, Set<UUID>>>(scan.dangling.entrySet());
+        }
+
+        private void start() {
+            this.taskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(DataCompactor.this.plugin, this, 1L, 1L);
+        }
+
+        @Override
+        public void run() {
+            long until = System.nanoTime() + this.budgetNanos;
+            while (System.nanoTime() < until) {
+                UUID staleUUID = this.staleQueue.poll();
+                if (staleUUID != null) {
+                    this.collect(staleUUID);
+                    continue;
+                }
+                Map.Entry<UUID, Set<UUID>> entry = this.danglingQueue.poll();
+                if (entry == null) {
+                    this.finish();
+                    return;
+                }
+                this.repair(entry.getKey(), entry.getValue());
+            }
+        }
+
+        private void collect(UUID playerUUID) {
+            DataManager dataManager = DataCompactor.this.plugin.getDataManager();
+            if (dataManager.isLoaded(playerUUID) || Bukkit.getPlayer((UUID)playerUUID) != null || DataCompactor.this.plugin.getRequestManager().hasRequests(playerUUID)) {
+                this.kept.add(playerUUID);
+                return;
+            }
+            this.deleted.add(playerUUID);
+            this.deleteChunk.add(playerUUID);
+            this.reclaimedBytes += (long)this.scan.stale.get(playerUUID).intValue();
+            if (this.deleteChunk.size() >= IO_CHUNK_SIZE) {
+                this.submitChunk();
+            }
+        }
+
+        private void repair(UUID playerUUID, Set<UUID> missing) {
+            DataManager dataManager = DataCompactor.this.plugin.getDataManager();
+            missing.removeIf(uuid -> this.kept.contains(uuid) || !this.deleted.contains(uuid) && dataManager.hasPlayerData(uuid));
+            if (missing.isEmpty()) {
+                return;
+            }
+            if (dataManager.isLoaded(playerUUID)) {
+                PlayerData playerData = dataManager.getPlayerData(playerUUID);
+                int removed = DataCompactor.strip(playerData, missing);
+                if (removed > 0) {
+                    this.removedReferences += removed;
+                    dataManager.savePlayerData(playerData);
+                }
+                return;
+            }
+            this.repairChunk.put(playerUUID, missing);
+            if (this.repairChunk.size() >= IO_CHUNK_SIZE) {
+                this.submitChunk();
+            }
+        }
+
+        private void submitChunk() {
+            if (this.deleteChunk.isEmpty() && this.repairChunk.isEmpty()) {
+                return;
+            }
+            ArrayList<UUID> deletes = this.deleteChunk;
+            HashMap<UUID, Set<UUID>> repairs = this.repairChunk;
+            this.deleteChunk = new ArrayList<UUID>();
+            this.repairChunk = new HashMap<UUID, Set<UUID>>();
+            DataManager dataManager = DataCompactor.this.plugin.getDataManager();
+            dataManager.forgetPlayers(new HashSet<UUID>(deletes));
+            this.writes.add(dataManager.submitStoreTask(store -> {
+                for (UUID playerUUID : deletes) {
+                    store.delete(playerUUID);
+                }
+                ArrayList<PlayerData> repaired = new ArrayList<PlayerData>();
+                int removed = 0;
+                for (Map.Entry<UUID, Set<UUID>> entry : repairs.entrySet()) {
+                    PlayerData record = store.load(entry.getKey());
+                    if (record == null) continue;
+                    int stripped = DataCompactor.strip(record, entry.getValue());
+                    if (stripped == 0) continue;
+                    removed += stripped;
+                    repaired.add(record);
+                }
+                // Also persists the deletes for stores that only apply them on the next save.
+                store.saveBatch(repaired);
+                return removed;
+            }));
+        }
+
+        private void finish() {
+            Bukkit.getScheduler().cancelTask(this.taskId);
+            this.submitChunk();
+            CompletableFuture.allOf(this.writes.toArray(new CompletableFuture[0])).whenComplete((ignored, error) -> Bukkit.getScheduler().runTask(DataCompactor.this.plugin, () -> {
+                DataCompactor.this.plugin.getDataManager().endMaintenance();
+                DataCompactor.this.running.set(false);
+                if (error != null) {
+                    DataCompactor.this.plugin.getLogger().severe("Stale player collection failed while writing: " + error.getMessage());
+                    this.result.completeExceptionally(error);
+                    return;
+                }
+                for (CompletableFuture<Integer> write : this.writes) {
+                    this.removedReferences += write.join().intValue();
+                }
+                Report report = new Report(this.scan.scanned, this.deleted.size(), this.kept.size(), this.removedReferences, this.reclaimedBytes + (long)this.removedReferences * 16L, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start));
+                DataCompactor.this.plugin.getLogger().info(report.describe());
+                this.result.complete(report);
+            }));
+        }
+    }
+
+    public static class Report {
+        private final int scanned;
+        private final int removedRecords;
+        private final int keptInUse;
+        private final int removedReferences;
+        private final long reclaimedBytes;
+        private final long millis;
+
+        private Report(int scanned, int removedRecords, int keptInUse, int removedReferences, long reclaimedBytes, long millis) {
+            this.scanned = scanned;
+            this.removedRecords = removedRecords;
+            this.keptInUse = keptInUse;
+            this.removedReferences = removedReferences;
+            this.reclaimedBytes = reclaimedBytes;
+            this.millis = millis;
+        }
+
+        public int getRemovedRecords() {
+            return this.removedRecords;
+        }
+
+        public int getRemovedReferences() {
+            return this.removedReferences;
+        }
+
+        /**
+         * @return the encoded size of the removed records plus 16 bytes per removed reference
+         */
+        public long getReclaimedBytes() {
+            return this.reclaimedBytes;
+        }
+
+        public String describe() {
+            return "Scanned " + this.scanned + " players in " + this.millis + "ms: removed " + this.removedRecords + " stale records and " + this.removedReferences + " dangling references, reclaiming about " + (this.reclaimedBytes + 1023L) / 1024L + " KB" + (this.keptInUse > 0 ? " (" + this.keptInUse + " stale players are in use and were kept)" : "") + ".";
+        }
+    }
+}
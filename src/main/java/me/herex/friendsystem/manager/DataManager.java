@@ -2,79 +2,933 @@
  * Decompiled with CFR 0.152.
  * 
  * Could not load the following classes:
- *  org.bukkit.configuration.ConfigurationSection
- *  org.bukkit.configuration.file.FileConfiguration
- *  org.bukkit.configuration.file.YamlConfiguration
+ *  org.bukkit.Bukkit
  *  org.bukkit.entity.Player
  */
 package me.herex.friendsystem.manager;
 
 import me.herex.friendsystem.FriendSystem;
 import me.herex.friendsystem.model.PlayerData;
-import me.herex.friendsystem.model.PlayerSettings;
+import me.herex.friendsystem.storage.EmergencyJournal;
+import me.herex.friendsystem.storage.Mutation;
+import me.herex.friendsystem.storage.MutationJournal;
+import me.herex.friendsystem.storage.PlayerStore;
+import me.herex.friendsystem.storage.PlayerStores;
+import me.herex.friendsystem.storage.YamlPlayerStore;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import org.bukkit.configuration.ConfigurationSection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 
 public class DataManager {
     private final FriendSystem plugin;
-    private final Map<UUID, PlayerData> playerDataCache;
-    private final File dataFile;
-    private FileConfiguration dataConfig;
+    private volatile PlayerDataCache playerDataCache;
+    private final Set<UUID> dirtyPlayers;
+    private final Set<UUID> dirtyRequests;
+    private volatile Map<String, KnownName> nameIndex;
+    private final Map<UUID, Long> loginPins;
+    private final AtomicInteger savesInFlight;
+    private final Set<UUID> unknownPlayers;
+    private final AtomicInteger pendingClears;
+    private final AtomicInteger clearGeneration;
+    private final AtomicBoolean reloading;
+    private final AtomicInteger maintenanceJobs;
+    private volatile Set<UUID> reloadWrites;
+    private final ThreadPoolExecutor ioExecutor;
+    private final String storageType;
+    private volatile PlayerStore store;
+    private MutationJournal journal;
+    private final EmergencyJournal emergencyJournal;
+    // The snapshot being read by snapshotStoreAsync; only touched on the IO thread.
+    private StoreSnapshot storeSnapshot;
+    private static final long LOGIN_PIN_MILLIS = 60000L;
+    private static final int SHUTDOWN_CHUNK_SIZE = 128;
+    private static final int SNAPSHOT_CHUNK_SIZE = 500;
+    private static final int UNKNOWN_PLAYER_CACHE_SIZE = 1024;
+    private int flushTaskId = -1;
+    private volatile long lastSaveNanos;
+    private volatile int lastSaveRecords;
 
     public DataManager(FriendSystem plugin) {
         this.plugin = plugin;
-        this.playerDataCache = new ConcurrentHashMap<UUID, PlayerData>();
-        this.dataFile = new File(plugin.getDataFolder(), "data.yml");
+        this.playerDataCache = new PlayerDataCache();
+        this.dirtyPlayers = ConcurrentHashMap.newKeySet();
+        this.dirtyRequests = ConcurrentHashMap.newKeySet();
+        this.nameIndex = new ConcurrentHashMap<String, KnownName>();
+        this.loginPins = new ConcurrentHashMap<UUID, Long>();
+        this.savesInFlight = new AtomicInteger();
+        this.unknownPlayers = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<UUID, Boolean>(16, 0.75f, true){
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Boolean> eldest) {
+                return this.size() > UNKNOWN_PLAYER_CACHE_SIZE;
+            }
+        }));
+        this.pendingClears = new AtomicInteger();
+        this.clearGeneration = new AtomicInteger();
+        this.reloading = new AtomicBoolean();
+        this.maintenanceJobs = new AtomicInteger();
+        // A plain single thread pool rather than newSingleThreadExecutor, so shutdown can drain its queue.
+        this.ioExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable, "FriendSystem-IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.storageType = plugin.getConfig().getString("storage.type", "YAML");
+        this.store = PlayerStores.create(this.storageType, plugin.getDataFolder(), plugin.getConfig().getConfigurationSection("storage"), plugin.getLogger());
+        this.journal = plugin.getConfig().getBoolean("storage.journal", true) ? new MutationJournal(new File(plugin.getDataFolder(), "journal"), plugin.getLogger()) : null;
+        this.emergencyJournal = new EmergencyJournal(new File(plugin.getDataFolder(), "emergency.dat"), plugin.getLogger());
     }
 
+    public PlayerStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Opens the store without reading any records; players are loaded on first access or
+     * prefetched at login (see {@link #prefetch(UUID)}). The stored friend requests are read in
+     * full, since the request table is their only copy in memory. Player names are indexed in
+     * the background so offline players can still be looked up by name.
+     */
     public void loadAllData() {
-        if (!this.dataFile.exists()) {
+        if (this.store instanceof YamlPlayerStore && !((YamlPlayerStore)this.store).getDataFile().exists()) {
             this.plugin.saveResource("data.yml", false);
         }
-        this.dataConfig = YamlConfiguration.loadConfiguration((File)this.dataFile);
-        ConfigurationSection playersSection = this.dataConfig.getConfigurationSection("players");
-        if (playersSection != null) {
-            for (String uuidString : playersSection.getKeys(false)) {
+        try {
+            this.store.open();
+            this.importLegacyData();
+            this.plugin.getRequestManager().installStoredRequests(this.store.loadRequests());
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().severe("Failed to load player data: " + e.getMessage());
+        }
+        this.plugin.getLogger().info("Opened storage with " + this.store.keys().size() + " known players");
+        this.indexStoredNames();
+        this.recoverEmergencyRecords();
+        if (this.journal != null) {
+            try {
+                int replayed = this.journal.replay(this::applyMutation);
+                if (replayed > 0) {
+                    this.plugin.getLogger().info("Replayed " + replayed + " journal entries on top of stored data");
+                }
+                this.journal.open();
+            }
+            catch (IOException e) {
+                this.plugin.getLogger().severe("Failed to open the mutation journal: " + e.getMessage());
+            }
+            catch (UncheckedIOException e) {
+                // Deleting segments on the next save would lose the entries not yet replayed.
+                this.plugin.getLogger().severe("Failed to replay the mutation journal, journaling is off until the next start and its segments are kept: " + e.getMessage());
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * Puts back the records the last shutdown could not store in time, as unsaved changes, and
+     * deletes emergency.dat once they are stored.
+     */
+    private void recoverEmergencyRecords() {
+        if (!this.emergencyJournal.exists()) {
+            return;
+        }
+        List<PlayerData> records;
+        try {
+            records = this.emergencyJournal.read();
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().severe("Failed to read emergency.dat, leaving it in place: " + e.getMessage());
+            return;
+        }
+        for (PlayerData record : records) {
+            this.playerDataCache.replace(record);
+            this.dirtyPlayers.add(record.getPlayerUUID());
+            this.indexName(record);
+        }
+        this.plugin.getLogger().warning("Recovered " + records.size() + " players that were not stored before the last shutdown.");
+        this.saveAllDataAsync().thenRun(this.emergencyJournal::delete).exceptionally(error -> {
+            this.plugin.getLogger().severe("Failed to store recovered players, keeping emergency.dat: " + error.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * First half of a reload. Queues a save of all pending changes and then, on the IO thread,
+     * reads the config, opens a fresh instance of the store and loads the players currently in
+     * memory from it. Nothing the server is using is touched;
+     * the result is installed by {@link #swapState(PreparedState)} on the main thread, or
+     * discarded with {@link #abortReload()}.
+     *
+     * @throws IllegalStateException if a reload or a maintenance job is already running; there
+     * is nothing to abort then
+     */
+    public CompletableFuture<PreparedState> prepareReload(Supplier<FileConfiguration> configReader) {
+        if (!this.reloading.compareAndSet(false, true)) {
+            throw new IllegalStateException("A reload is already in progress.");
+        }
+        if (this.maintenanceJobs.get() > 0) {
+            this.reloading.set(false);
+            throw new IllegalStateException("A stale player collection or consistency check is running, reload once it is done.");
+        }
+        // No flushes or evictions until the swap, so the records being prepared cannot go stale unnoticed.
+        this.stopWriteBehind();
+        Set<UUID> cached = this.playerDataCache.keySet();
+        int generation = this.clearGeneration.get();
+        return this.saveAllDataAsync().thenApplyAsync(ignored -> {
+            try {
+                return this.buildState(configReader.get(), cached, generation);
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, this.ioExecutor);
+    }
+
+    private PreparedState buildState(FileConfiguration config, Set<UUID> cached, int generation) throws IOException {
+        long start = System.nanoTime();
+        this.reloadWrites = ConcurrentHashMap.newKeySet();
+        String type = config.getString("storage.type", "YAML");
+        if (!type.equalsIgnoreCase(this.storageType)) {
+            this.plugin.getLogger().warning("storage.type changed to " + type + "; " + this.storageType + " stays in use until the server restarts. Migrate the data with StorageConverter first.");
+            type = this.storageType;
+        }
+        PlayerStore nextStore = PlayerStores.create(type, this.plugin.getDataFolder(), config.getConfigurationSection("storage"), this.plugin.getLogger());
+        try {
+            nextStore.open();
+            PlayerDataCache nextCache = new PlayerDataCache();
+            for (PlayerData loaded : nextStore.loadBatch(cached).values()) {
+                nextCache.putIfAbsent(loaded);
+            }
+            ConcurrentHashMap<String, KnownName> nextIndex = new ConcurrentHashMap<String, KnownName>();
+            nextStore.iterate(record -> nextIndex.putIfAbsent(record.getPlayerName().toLowerCase(), new KnownName(record)));
+            return new PreparedState(config, nextStore, nextCache, nextIndex, generation, System.nanoTime() - start);
+        }
+        catch (IOException | RuntimeException e) {
+            this.closeQuietly(nextStore);
+            throw e;
+        }
+    }
+
+    /**
+     * Second half of a reload, run on the main thread: installs the prepared store, cache and
+     * name index in one step. Players that changed while the state was being prepared keep
+     * their in-memory record and are marked dirty so the new store receives them. The old store
+     * is closed once the IO thread is done with it.
+     *
+     * @throws IllegalStateException if all player data was cleared while the state was prepared
+     */
+    public void swapState(PreparedState state) {
+        Set<UUID> written = this.reloadWrites;
+        this.reloadWrites = null;
+        this.reloading.set(false);
+        if (this.clearGeneration.get() != state.clearGeneration) {
+            this.ioExecutor.execute(() -> this.closeQuietly(state.store));
+            throw new IllegalStateException("All player data was cleared during the reload, run it again.");
+        }
+        PlayerDataCache previous = this.playerDataCache;
+        HashSet<UUID> changed = new HashSet<UUID>(this.dirtyPlayers);
+        if (written != null) {
+            changed.addAll(written);
+        }
+        ArrayList<UUID> removed = new ArrayList<UUID>();
+        for (UUID uuid : changed) {
+            PlayerData current = previous.peek(uuid);
+            if (current != null) {
+                state.cache.put(current);
+                this.dirtyPlayers.add(uuid);
+                continue;
+            }
+            if (!this.unknownPlayers.contains(uuid)) continue;
+            state.cache.remove(uuid);
+            state.nameIndex.values().removeIf(known -> known.playerUUID.equals(uuid));
+            removed.add(uuid);
+        }
+        changed.removeAll(removed);
+        for (PlayerData current : previous.values()) {
+            if (!state.cache.putIfAbsent(current)) continue;
+            changed.add(current.getPlayerUUID());
+        }
+        for (UUID uuid : changed) {
+            PlayerData current = state.cache.peek(uuid);
+            if (current == null || current.getPlayerName().isEmpty()) continue;
+            state.nameIndex.put(current.getPlayerName().toLowerCase(), new KnownName(current));
+        }
+        PlayerStore previousStore = this.store;
+        this.store = state.store;
+        this.playerDataCache = state.cache;
+        this.nameIndex = state.nameIndex;
+        this.unknownPlayers.clear();
+        this.ioExecutor.execute(() -> {
+            for (UUID uuid : removed) {
                 try {
-                    UUID uuid = UUID.fromString(uuidString);
-                    PlayerData playerData = this.loadPlayerData(uuid);
-                    if (playerData == null) continue;
-                    this.playerDataCache.put(uuid, playerData);
+                    state.store.delete(uuid);
                 }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid UUID in data file: " + uuidString);
+                catch (IOException e) {
+                    this.plugin.getLogger().severe("Failed to remove data for player " + uuid + ": " + e.getMessage());
                 }
             }
+            this.closeQuietly(previousStore);
+        });
+        this.plugin.getLogger().info("Reloaded " + state.cache.size() + " cached players in " + state.getBuildMillis() + "ms (" + changed.size() + " kept from memory)");
+    }
+
+    /**
+     * Discards a reload whose preparation failed; the current state stays in use.
+     */
+    public void abortReload() {
+        this.reloadWrites = null;
+        this.reloading.set(false);
+    }
+
+    private void closeQuietly(PlayerStore store) {
+        try {
+            store.close();
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().warning("Failed to close player storage: " + e.getMessage());
         }
-        this.plugin.getLogger().info("Loaded data for " + this.playerDataCache.size() + " players");
     }
 
-    public void saveAllData() {
+    /**
+     * Records a friend, block or request change that the caller has already applied to the
+     * cached data or the request table. It is journaled right away and written with the next
+     * flush.
+     */
+    public void recordMutation(Mutation.Type type, UUID actor, UUID target) {
+        this.markChanged(type, actor, target);
+        if (this.journal != null) {
+            this.journal.append(new Mutation(type, actor, target, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * A request change only touches the request table, whose rows are stored per sender; a new
+     * friendship also removes the requests between the two players.
+     */
+    private void markChanged(Mutation.Type type, UUID actor, UUID target) {
+        switch (type) {
+            case REQUEST: 
+            case REQUEST_REMOVE: {
+                this.dirtyRequests.add(actor);
+                return;
+            }
+            case FRIEND_ADD: {
+                this.dirtyRequests.add(actor);
+                this.dirtyRequests.add(target);
+                break;
+            }
+        }
+        this.dirtyPlayers.add(actor);
+        this.dirtyPlayers.add(target);
+    }
+
+    private void indexStoredNames() {
+        this.ioExecutor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                this.store.iterate(record -> this.nameIndex.putIfAbsent(record.getPlayerName().toLowerCase(), new KnownName(record)));
+            }
+            catch (IOException e) {
+                this.plugin.getLogger().warning("Failed to index player names: " + e.getMessage());
+                return;
+            }
+            this.plugin.getLogger().info("Indexed " + this.nameIndex.size() + " player names in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        });
+    }
+
+    private void indexName(PlayerData playerData) {
+        if (!playerData.getPlayerName().isEmpty()) {
+            this.nameIndex.put(playerData.getPlayerName().toLowerCase(), new KnownName(playerData));
+        }
+    }
+
+    /**
+     * Loads a joining player's record, plus the records of their friends, into the cache. Meant for the async pre-login thread, so the join itself is served from
+     * memory.
+     *
+     * @throws UncheckedIOException if the player's own record could not be read; the login
+     * should then be refused rather than served an empty record
+     */
+    public void prefetch(UUID playerUUID) {
+        this.loginPins.put(playerUUID, System.currentTimeMillis());
+        PlayerData playerData;
+        try {
+            playerData = this.getOrCreatePlayerData(playerUUID);
+        }
+        catch (UncheckedIOException e) {
+            this.loginPins.remove(playerUUID);
+            throw e;
+        }
+        HashSet<UUID> related = new HashSet<UUID>(playerData.getFriendsView());
+        related.removeIf(this.playerDataCache::contains);
+        if (related.isEmpty()) {
+            return;
+        }
+        try {
+            for (PlayerData loaded : this.store.loadBatch(related).values()) {
+                if (!this.playerDataCache.putIfAbsent(loaded)) continue;
+                this.indexName(loaded);
+            }
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().warning("Failed to prefetch friends of " + playerUUID + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isLoaded(UUID playerUUID) {
+        return this.playerDataCache.contains(playerUUID);
+    }
+
+    /**
+     * @return the UUID last seen with this name (case-insensitive), or {@code null}
+     */
+    public UUID findUUIDByName(String playerName) {
+        KnownName known = this.nameIndex.get(playerName.toLowerCase());
+        return known == null ? null : known.playerUUID;
+    }
+
+    public Set<String> getKnownNames() {
+        HashSet<String> names = new HashSet<String>();
         for (PlayerData playerData : this.playerDataCache.values()) {
-            this.savePlayerData(playerData);
+            if (playerData.getPlayerName().isEmpty()) continue;
+            names.add(playerData.getPlayerName());
+        }
+        for (KnownName known : this.nameIndex.values()) {
+            if (known.name.isEmpty() || this.playerDataCache.contains(known.playerUUID)) continue;
+            names.add(known.name);
+        }
+        return names;
+    }
+
+    private void applyMutation(Mutation mutation) {
+        UUID actor = mutation.getActor();
+        UUID target = mutation.getTarget();
+        RequestManager requestManager = this.plugin.getRequestManager();
+        switch (mutation.getType()) {
+            case FRIEND_ADD: {
+                this.getOrCreatePlayerData(actor).addFriend(target);
+                this.getOrCreatePlayerData(target).addFriend(actor);
+                requestManager.removeRequestsBetween(actor, target);
+                break;
+            }
+            case FRIEND_REMOVE: {
+                this.getOrCreatePlayerData(actor).removeFriend(target);
+                this.getOrCreatePlayerData(target).removeFriend(actor);
+                break;
+            }
+            case BLOCK: {
+                this.getOrCreatePlayerData(actor).blockPlayer(target);
+                break;
+            }
+            case UNBLOCK: {
+                this.getOrCreatePlayerData(actor).unblockPlayer(target);
+                break;
+            }
+            case UNBLOCK_ALL: {
+                this.getOrCreatePlayerData(actor).unblockAll();
+                break;
+            }
+            case REQUEST: {
+                requestManager.restoreRequest(actor, target, mutation.getTimestamp());
+                break;
+            }
+            case REQUEST_REMOVE: {
+                requestManager.forgetRequest(actor, target);
+            }
+        }
+        this.markChanged(mutation.getType(), actor, target);
+    }
+
+    /**
+     * Copies players from data.yml into a freshly created non-YAML store, so switching
+     * {@code storage.type} does not start everyone over with an empty friend list.
+     */
+    private void importLegacyData() throws IOException {
+        File legacyFile = new File(this.plugin.getDataFolder(), "data.yml");
+        if (this.store instanceof YamlPlayerStore || !this.store.keys().isEmpty() || !legacyFile.isFile()) {
+            return;
+        }
+        YamlPlayerStore legacyStore = new YamlPlayerStore(legacyFile, this.plugin.getLogger());
+        legacyStore.open();
+        Map<UUID, PlayerData> legacyRecords = legacyStore.loadAll();
+        if (legacyRecords.isEmpty()) {
+            return;
+        }
+        this.store.saveBatch(legacyRecords.values());
+        this.store.replaceRequests(legacyStore.loadRequests());
+        this.plugin.getLogger().info("Imported " + legacyRecords.size() + " players from data.yml into the new storage.");
+    }
+
+    /**
+     * Saves all pending changes and blocks until the store has written them.
+     * Only used where the caller cannot continue without the data on disk, e.g. on disable.
+     */
+    public void saveAllData() {
+        try {
+            this.saveAllDataAsync().get();
+            this.plugin.getLogger().info("Saved data for " + this.lastSaveRecords + " changed players in " + this.getLastSaveMillis() + "ms");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.plugin.getLogger().severe("Interrupted while saving data file.");
+        }
+        catch (ExecutionException e) {
+            this.plugin.getLogger().severe("Failed to save data file: " + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Copies the dirty records and the changed senders' requests on the calling thread, which
+     * must be the main thread, then hands them to the store on the IO thread. The write is queued
+     * behind any earlier flush so an older snapshot can never overwrite it.
+     */
+    public CompletableFuture<Void> saveAllDataAsync() {
+        // Rotate before copying: every entry in a sealed segment is then covered by this snapshot.
+        List<File> sealedSegments = this.rotateJournal();
+        List<PlayerData> snapshots = this.drainDirtySnapshots();
+        Map<UUID, Map<UUID, Long>> requests = this.drainDirtyRequests();
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        this.savesInFlight.incrementAndGet();
+        this.ioExecutor.execute(() -> {
+            try {
+                if (!requests.isEmpty()) {
+                    this.store.saveRequests(requests);
+                }
+                this.writeSnapshots(snapshots);
+                if (this.journal != null) {
+                    this.journal.deleteSegments(sealedSegments);
+                }
+                this.savesInFlight.decrementAndGet();
+                future.complete(null);
+            }
+            catch (IOException e) {
+                this.requeue(snapshots);
+                this.dirtyRequests.addAll(requests.keySet());
+                this.savesInFlight.decrementAndGet();
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Schedules the write-behind flusher using {@code storage.flush_interval} (seconds).
+     * Calling it again, e.g. after a config reload, replaces the previous schedule.
+     */
+    public void startWriteBehind() {
+        this.stopWriteBehind();
+        long intervalTicks = Math.max(1L, this.plugin.getConfig().getLong("storage.flush_interval", 30L)) * 20L;
+        this.flushTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(this.plugin, this::flushDirtyData, intervalTicks, intervalTicks);
+    }
+
+    public void stopWriteBehind() {
+        if (this.flushTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(this.flushTaskId);
+            this.flushTaskId = -1;
+        }
+    }
+
+    /**
+     * Periodic write-behind step: saves whatever changed since the last flush, then trims the
+     * cache on the main thread once the save is done, so players who were dirty have been
+     * written back and can be evicted too.
+     */
+    public void flushDirtyData() {
+        if (this.dirtyPlayers.isEmpty() && this.dirtyRequests.isEmpty()) {
+            this.evictIfNeeded();
+            return;
+        }
+        this.saveAllDataAsync().whenComplete((ignored, error) -> {
+            if (error != null) {
+                this.plugin.getLogger().severe("Failed to flush player data: " + error.getMessage());
+            }
+            if (!this.plugin.isEnabled()) {
+                return;
+            }
+            Bukkit.getScheduler().runTask(this.plugin, this::evictIfNeeded);
+        });
+    }
+
+    /**
+     * Evicts offline players once the cache exceeds {@code storage.cache_weight}. Dirty players
+     * stay until a flush has written them back (see {@link #flushDirtyData()}), and nothing is
+     * evicted while a flush is still writing, since the store could then hand back a record older
+     * than the one just dropped.
+     */
+    public void evictIfNeeded() {
+        if (this.savesInFlight.get() > 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        this.loginPins.values().removeIf(pinned -> now - pinned > LOGIN_PIN_MILLIS);
+        long maxWeight = Math.max(1L, this.plugin.getConfig().getLong("storage.cache_weight", 100000L));
+        this.playerDataCache.evict(maxWeight, uuid -> this.dirtyPlayers.contains(uuid) || this.loginPins.containsKey(uuid) || Bukkit.getPlayer((UUID)uuid) != null);
+    }
+
+    public PlayerDataCache getCache() {
+        return this.playerDataCache;
+    }
+
+    /**
+     * Stores all pending changes within {@code storage.shutdown_timeout} seconds, so a restart is
+     * never held up by storage I/O. Stores that allow it are written by
+     * {@code storage.shutdown_threads} threads in parallel. Whatever is not stored by the deadline
+     * goes to emergency.dat instead and is restored on the next start. The store is only closed
+     * once no write is running; otherwise it is left to the daemon thread still using it.
+     */
+    public void shutdown() {
+        this.stopWriteBehind();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(Math.max(1L, this.plugin.getConfig().getLong("storage.shutdown_timeout", 10L)));
+        this.ioExecutor.shutdown();
+        boolean idle;
+        try {
+            idle = this.ioExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            idle = false;
+        }
+        List<File> sealedSegments = this.rotateJournal();
+        int stored = 0;
+        List<PlayerData> unwritten = new ArrayList<PlayerData>();
+        // Requests have no emergency copy; the journal segments are kept until they are stored.
+        boolean requestsStored = this.dirtyRequests.isEmpty();
+        if (idle) {
+            requestsStored = this.storeRequestsNow();
+            List<PlayerData> snapshots = this.drainDirtySnapshots();
+            idle = this.writeWithDeadline(snapshots, deadline, unwritten);
+            stored = snapshots.size() - unwritten.size();
+        } else {
+            // The task running now cannot be stopped safely, but nothing queued behind it may run after disable.
+            ArrayList<Runnable> dropped = new ArrayList<Runnable>();
+            this.ioExecutor.getQueue().drainTo(dropped);
+            // Writing next to a save that is still running could store an older snapshot last.
+            this.plugin.getLogger().warning("Storage is still busy with an earlier save, dropped " + dropped.size() + " queued storage tasks and writing every cached player to emergency.dat.");
+            for (PlayerData playerData : this.playerDataCache.values()) {
+                unwritten.add(playerData.copy());
+            }
+            this.dirtyPlayers.clear();
+        }
+        boolean covered = true;
+        if (unwritten.isEmpty()) {
+            this.emergencyJournal.delete();
+        } else {
+            try {
+                this.emergencyJournal.write(unwritten);
+                this.plugin.getLogger().warning("Wrote " + unwritten.size() + " players that could not be stored in time to emergency.dat; they are restored on the next start.");
+            }
+            catch (IOException e) {
+                covered = false;
+                this.plugin.getLogger().severe("Failed to write emergency.dat: " + e.getMessage());
+            }
+        }
+        if (this.journal != null) {
+            if (covered && requestsStored) {
+                this.journal.deleteSegments(sealedSegments);
+            }
+            this.journal.close();
+        }
+        if (!requestsStored) {
+            this.plugin.getLogger().warning("Friend requests changed since the last save were not stored" + (this.journal != null ? "; the journal replays them on the next start." : "."));
+        }
+        this.plugin.getLogger().info("Stored " + stored + " changed players in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms at shutdown");
+        if (!idle) {
+            // Closing the store under a running write could corrupt it; emergency.dat covers that write.
+            this.plugin.getLogger().warning("Leaving player storage open for a write that is still running.");
+            return;
+        }
+        try {
+            this.store.close();
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().severe("Failed to close player storage: " + e.getMessage());
+        }
+    }
+
+    private boolean storeRequestsNow() {
+        Map<UUID, Map<UUID, Long>> requests = this.drainDirtyRequests();
+        if (requests.isEmpty()) {
+            return true;
+        }
+        try {
+            this.store.saveRequests(requests);
+            return true;
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().severe("Failed to store friend requests at shutdown: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stores the snapshots, giving up at the deadline. Snapshots that were not stored by then or
+     * failed to store are added to {@code unwritten}.
+     *
+     * @return whether every write has stopped, so the store may be closed
+     */
+    private boolean writeWithDeadline(List<PlayerData> snapshots, long deadline, List<PlayerData> unwritten) {
+        if (snapshots.isEmpty()) {
+            return true;
+        }
+        PlayerStore target = this.store;
+        int threads = target.supportsConcurrentWrites() ? Math.max(1, this.plugin.getConfig().getInt("storage.shutdown_threads", 4)) : 1;
+        int chunkSize = threads == 1 ? snapshots.size() : SHUTDOWN_CHUNK_SIZE;
+        ExecutorService writers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "FriendSystem-Shutdown");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayList<List<PlayerData>> chunks = new ArrayList<List<PlayerData>>();
+        ArrayList<Future<Object>> writes = new ArrayList<Future<Object>>();
+        for (int from = 0; from < snapshots.size(); from += chunkSize) {
+            List<PlayerData> chunk = snapshots.subList(from, Math.min(snapshots.size(), from + chunkSize));
+            chunks.add(chunk);
+            writes.add(writers.submit(() -> {
+                target.saveBatch(chunk);
+                return null;
+            }));
+        }
+        // No shutdownNow: interrupting a FileChannel write closes the channel under the other writers.
+        writers.shutdown();
+        for (int i = 0; i < chunks.size(); ++i) {
+            try {
+                writes.get(i).get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e) {
+                writes.get(i).cancel(false);
+                unwritten.addAll(chunks.get(i));
+            }
+            catch (ExecutionException e) {
+                this.plugin.getLogger().severe("Failed to store " + chunks.get(i).size() + " players at shutdown: " + e.getCause().getMessage());
+                unwritten.addAll(chunks.get(i));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unwritten.addAll(chunks.get(i));
+            }
         }
         try {
-            this.dataConfig.save(this.dataFile);
-            this.plugin.getLogger().info("Saved data for " + this.playerDataCache.size() + " players");
+            return writers.awaitTermination(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private List<File> rotateJournal() {
+        if (this.journal == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return this.journal.rotate();
         }
         catch (IOException e) {
-            this.plugin.getLogger().severe("Failed to save data file: " + e.getMessage());
+            this.plugin.getLogger().severe("Failed to rotate the mutation journal: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private List<PlayerData> drainDirtySnapshots() {
+        List<PlayerData> snapshots = new ArrayList<PlayerData>(this.dirtyPlayers.size());
+        for (UUID uuid : this.dirtyPlayers) {
+            this.dirtyPlayers.remove(uuid);
+            PlayerData playerData = this.playerDataCache.peek(uuid);
+            if (playerData == null) continue;
+            snapshots.add(playerData.copy());
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return sender to receiver to sent time for every sender whose requests changed; senders
+     * with no requests left map to an empty map, so the store drops theirs
+     */
+    private Map<UUID, Map<UUID, Long>> drainDirtyRequests() {
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        RequestManager requestManager = this.plugin.getRequestManager();
+        for (UUID uuid : this.dirtyRequests) {
+            this.dirtyRequests.remove(uuid);
+            requests.put(uuid, requestManager.getStoredOutgoing(uuid));
+        }
+        return requests;
+    }
+
+    private void requeue(List<PlayerData> snapshots) {
+        for (PlayerData snapshot : snapshots) {
+            this.dirtyPlayers.add(snapshot.getPlayerUUID());
         }
     }
 
+    private void writeSnapshots(List<PlayerData> snapshots) throws IOException {
+        long start = System.nanoTime();
+        if (this.storeSnapshot != null) {
+            ArrayList<UUID> uuids = new ArrayList<UUID>(snapshots.size());
+            for (PlayerData snapshot : snapshots) {
+                uuids.add(snapshot.getPlayerUUID());
+            }
+            this.storeSnapshot.preserve(this.store, uuids);
+        }
+        this.store.saveBatch(snapshots);
+        Set<UUID> written = this.reloadWrites;
+        if (written != null) {
+            for (PlayerData snapshot : snapshots) {
+                written.add(snapshot.getPlayerUUID());
+            }
+        }
+        this.lastSaveNanos = System.nanoTime() - start;
+        this.lastSaveRecords = snapshots.size();
+    }
+
+    public long getLastSaveMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.lastSaveNanos);
+    }
+
+    public int getLastSaveRecordCount() {
+        return this.lastSaveRecords;
+    }
+
+    public boolean isDirty(UUID playerUUID) {
+        return this.dirtyPlayers.contains(playerUUID);
+    }
+
+    public int getDirtyCount() {
+        return this.dirtyPlayers.size();
+    }
+
+    /**
+     * @return the cached or stored record; for a player who was never stored, a new empty record
+     * that is not cached, so looking up unknown players fills neither the cache nor, through a
+     * later flush, the store. Saving the record with {@link #savePlayerData} caches it. Callers
+     * that change a record and report it through {@link #recordMutation} use
+     * {@link #getOrCreatePlayerData(UUID)} instead.
+     * @throws UncheckedIOException if the player is stored but could not be read
+     */
     public PlayerData getPlayerData(UUID playerUUID) {
-        return this.playerDataCache.computeIfAbsent(playerUUID, this::loadPlayerData);
+        PlayerData data = this.playerDataCache.get(playerUUID, this::loadStoredPlayerData);
+        return data != null ? data : new PlayerData(playerUUID);
+    }
+
+    /**
+     * @return the cached or stored record, or a new empty one that is cached right away, for
+     * players joining and for callers about to change the record
+     * @throws UncheckedIOException if the player is stored but could not be read
+     */
+    public PlayerData getOrCreatePlayerData(UUID playerUUID) {
+        PlayerData data = this.playerDataCache.get(playerUUID, this::loadStoredPlayerData);
+        if (data != null) {
+            return data;
+        }
+        this.unknownPlayers.remove(playerUUID);
+        return this.playerDataCache.put(new PlayerData(playerUUID));
+    }
+
+    /**
+     * Like {@link #getPlayerData(UUID)}, but a player that is not cached is read on the IO thread
+     * instead of the calling one. The future always completes on the main thread (right away if
+     * the player is cached), so callbacks may use the record and the Bukkit API directly.
+     */
+    public CompletableFuture<PlayerData> getPlayerDataAsync(UUID playerUUID) {
+        PlayerData cached = this.playerDataCache.peek(playerUUID);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<PlayerData> future = new CompletableFuture<PlayerData>();
+        int generation = this.clearGeneration.get();
+        this.ioExecutor.execute(() -> {
+            PlayerData stored;
+            try {
+                stored = this.unknownPlayers.contains(playerUUID) ? null : this.readStored(playerUUID);
+            }
+            catch (UncheckedIOException e) {
+                Bukkit.getScheduler().runTask(this.plugin, () -> future.completeExceptionally(e.getCause()));
+                return;
+            }
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                // Removed or cleared while it was read: fall back to what a synchronous lookup returns now.
+                boolean current = stored != null && generation == this.clearGeneration.get() && !this.unknownPlayers.contains(playerUUID);
+                try {
+                    future.complete(current ? this.playerDataCache.get(playerUUID, uuid -> stored) : this.getPlayerData(playerUUID));
+                }
+                catch (UncheckedIOException e) {
+                    future.completeExceptionally(e.getCause());
+                }
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Reads the players among {@code playerUUIDs} that are neither cached nor known to be missing
+     * with one {@link PlayerStore#loadBatch} call on the IO thread, and caches them. The future
+     * completes on the main thread, right away if there was nothing to read, so a listing can
+     * fetch a whole page at once instead of reading each entry on the main thread.
+     */
+    public CompletableFuture<Void> cacheAsync(Collection<UUID> playerUUIDs) {
+        HashSet<UUID> missing = new HashSet<UUID>();
+        for (UUID playerUUID : playerUUIDs) {
+            if (this.playerDataCache.contains(playerUUID) || this.unknownPlayers.contains(playerUUID)) continue;
+            missing.add(playerUUID);
+        }
+        if (missing.isEmpty() || this.pendingClears.get() > 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        int generation = this.clearGeneration.get();
+        this.ioExecutor.execute(() -> {
+            Map<UUID, PlayerData> loaded;
+            try {
+                loaded = this.store.loadBatch(missing);
+            }
+            catch (IOException e) {
+                this.plugin.getLogger().warning("Failed to load " + missing.size() + " players: " + e.getMessage());
+                Bukkit.getScheduler().runTask(this.plugin, () -> future.completeExceptionally(e));
+                return;
+            }
+            Bukkit.getScheduler().runTask(this.plugin, () -> {
+                if (generation == this.clearGeneration.get()) {
+                    for (UUID playerUUID : missing) {
+                        PlayerData stored = loaded.get(playerUUID);
+                        if (stored == null) {
+                            if (this.playerDataCache.contains(playerUUID)) continue;
+                            this.unknownPlayers.add(playerUUID);
+                            continue;
+                        }
+                        if (!this.playerDataCache.putIfAbsent(stored)) continue;
+                        this.indexName(stored);
+                    }
+                }
+                future.complete(null);
+            });
+        });
+        return future;
     }
 
     public PlayerData getPlayerData(Player player) {
@@ -82,197 +936,363 @@ public class DataManager {
     }
 
     public PlayerData createPlayerData(UUID playerUUID, String playerName) {
-        if (this.playerDataCache.containsKey(playerUUID)) {
-            return this.playerDataCache.get(playerUUID);
+        PlayerData cached = this.playerDataCache.peek(playerUUID);
+        if (cached != null) {
+            return cached;
         }
-        PlayerData newData = new PlayerData(playerUUID, playerName);
-        this.playerDataCache.put(playerUUID, newData);
+        PlayerData newData = this.playerDataCache.put(new PlayerData(playerUUID, playerName));
+        this.unknownPlayers.remove(playerUUID);
+        this.indexName(newData);
         this.plugin.getLogger().info("Created new data in memory for offline player " + playerName);
         return newData;
     }
 
     public void removePlayerData(UUID playerUUID) {
         this.playerDataCache.remove(playerUUID);
-        if (this.dataConfig.isConfigurationSection("players." + playerUUID.toString())) {
-            this.dataConfig.set("players." + playerUUID.toString(), null);
-            this.plugin.getLogger().info("Removed data for player " + playerUUID + " from data.yml.");
+        this.nameIndex.values().removeIf(known -> known.playerUUID.equals(playerUUID));
+        this.dirtyPlayers.remove(playerUUID);
+        this.unknownPlayers.add(playerUUID);
+        Set<UUID> written = this.reloadWrites;
+        if (written != null) {
+            written.add(playerUUID);
         }
+        // Queued behind pending flushes so an in-flight snapshot cannot write the record back.
+        this.ioExecutor.execute(() -> {
+            try {
+                if (this.storeSnapshot != null) {
+                    this.storeSnapshot.preserve(this.store, Collections.singletonList(playerUUID));
+                }
+                this.store.delete(playerUUID);
+                this.plugin.getLogger().info("Removed stored data for player " + playerUUID + ".");
+            }
+            catch (IOException e) {
+                this.plugin.getLogger().severe("Failed to remove data for player " + playerUUID + ": " + e.getMessage());
+            }
+        });
     }
 
-    public void clearAllPlayerData() {
-        this.playerDataCache.clear();
-        this.dataConfig.set("players", null);
-        this.plugin.getLogger().warning("Cleared all player data from cache and data.yml.");
+    /**
+     * Registers a maintenance job that writes through {@link #submitStoreTask}. Its writes go to
+     * the current store instance, which a reload replaces without carrying them over, so the two
+     * exclude each other: a reload is refused while a job is registered, and a job cannot start
+     * while a reload is in progress. Every successful call must be paired with
+     * {@link #endMaintenance()}.
+     *
+     * @return false if a reload is in progress
+     */
+    public boolean beginMaintenance() {
+        this.maintenanceJobs.incrementAndGet();
+        if (this.reloading.get()) {
+            this.maintenanceJobs.decrementAndGet();
+            return false;
+        }
+        return true;
     }
 
-    public void savePlayerData(PlayerData playerData) {
-        this.playerDataCache.put(playerData.getPlayerUUID(), playerData);
-        ConfigurationSection playerSection = this.dataConfig.createSection("players." + playerData.getPlayerUUID().toString());
-        playerSection.set("name", (Object)playerData.getPlayerName());
-        playerSection.set("friends",
-                playerData.getFriends().stream()
-                        .map(UUID::toString)
-                        .collect(java.util.stream.Collectors.toList()));
-
-        playerSection.set("blocked",
-                playerData.getBlockedPlayers().stream()
-                        .map(UUID::toString)
-                        .collect(java.util.stream.Collectors.toList()));
-
-        playerSection.set("best_friends",
-                playerData.getBestFriends().stream()
-                        .map(UUID::toString)
-                        .collect(java.util.stream.Collectors.toList()));
-        HashMap<String, String> nickMap = new HashMap<String, String>();
-        for (Map.Entry<UUID, String> entry : playerData.getNicknames().entrySet()) {
-            nickMap.put(entry.getKey().toString(), entry.getValue());
-        }
-        playerSection.createSection("nicknames", nickMap);
-        ConfigurationSection incomingSection = playerSection.createSection("incoming_requests");
-        for (Map.Entry<UUID, Long> entry : playerData.getIncomingRequests().entrySet()) {
-            incomingSection.set(entry.getKey().toString(), (Object)entry.getValue());
-        }
-        ConfigurationSection configurationSection = playerSection.createSection("outgoing_requests");
-        for (Map.Entry<UUID, Long> entry : playerData.getOutgoingRequests().entrySet()) {
-            configurationSection.set(entry.getKey().toString(), (Object)entry.getValue());
-        }
-        PlayerSettings playerSettings = playerData.getSettings();
-        ConfigurationSection configurationSection2 = playerSection.createSection("settings");
-        configurationSection2.set("allow_requests", (Object)playerSettings.isAllowRequests());
-        configurationSection2.set("appear_offline", (Object)playerSettings.isAppearOffline());
-        configurationSection2.set("notify_online", (Object)playerSettings.isNotifyOnline());
-        configurationSection2.set("allow_join", (Object)playerSettings.isAllowJoin());
-        configurationSection2.set("notify_join", (Object)playerSettings.isNotifyJoin());
-        configurationSection2.set("messagePrivacy", (Object)playerSettings.getMessagePrivacy().name());
-    }
-
-    private PlayerData loadPlayerData(UUID playerUUID) {
-        ConfigurationSection playerSection = this.dataConfig.getConfigurationSection("players." + playerUUID.toString());
-        if (playerSection == null) {
-            return new PlayerData(playerUUID);
-        }
-        String playerName = playerSection.getString("name", "");
-        HashSet<UUID> friends = new HashSet<UUID>();
-        if (playerSection.contains("friends")) {
-            for (Object friendUUID : playerSection.getStringList("friends")) {
-                try {
-                    friends.add(UUID.fromString((String)friendUUID));
-                }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid friend UUID: " + (String)friendUUID);
+    public void endMaintenance() {
+        this.maintenanceJobs.decrementAndGet();
+    }
+
+    /**
+     * Runs {@code task} with the current store on the IO thread, in order with saves and
+     * deletes. Callers must hold {@link #beginMaintenance()}. For maintenance jobs that read and rewrite stored records directly; they must
+     * leave players that are cached alone and go through the cache for those instead.
+     */
+    public <T> CompletableFuture<T> submitStoreTask(StoreTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        this.ioExecutor.execute(() -> {
+            try {
+                if (this.storeSnapshot != null) {
+                    // The task may write any stored player, so the snapshot reads the rest first.
+                    this.storeSnapshot.preserveAll(this.store);
                 }
+                future.complete(task.run(this.store));
             }
-        }
-        LinkedHashSet<UUID> blocked = new LinkedHashSet<UUID>();
-        if (playerSection.contains("blocked")) {
-            for (Object blockedUUID : playerSection.getStringList("blocked")) {
-                try {
-                    blocked.add(UUID.fromString((String)blockedUUID));
-                }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid blocked UUID: " + (String)blockedUUID);
-                }
+            catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
             }
-        }
-        HashSet<UUID> bestFriends = new HashSet<UUID>();
-        if (playerSection.contains("best_friends")) {
-            for (String bestUUID : playerSection.getStringList("best_friends")) {
-                try {
-                    bestFriends.add(UUID.fromString(bestUUID));
-                }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid best friend UUID: " + bestUUID);
-                }
+        });
+        return future;
+    }
+
+    /**
+     * Reads every stored record and request as of the time this runs on the IO thread, queued
+     * behind any earlier flush. The store is read {@link #SNAPSHOT_CHUNK_SIZE} players per IO
+     * task, and each chunk queues the next behind whatever was submitted meanwhile, so saves are
+     * held up by one chunk at most instead of the whole store; see {@link StoreSnapshot} for how
+     * their writes are kept out. A {@link #submitStoreTask} job, a clear or a restore arriving
+     * mid-read makes the snapshot read all remaining players first. Callers must hold
+     * {@link #beginMaintenance()}, so a reload cannot swap the store under the read.
+     * The returned future completes on the IO thread.
+     */
+    public CompletableFuture<StoreSnapshot> snapshotStoreAsync() {
+        CompletableFuture<StoreSnapshot> future = new CompletableFuture<StoreSnapshot>();
+        this.ioExecutor.execute(() -> {
+            try {
+                this.storeSnapshot = new StoreSnapshot(this.store);
             }
+            catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            this.readSnapshotChunk(this.storeSnapshot, future);
+        });
+        return future;
+    }
+
+    private void readSnapshotChunk(StoreSnapshot snapshot, CompletableFuture<StoreSnapshot> future) {
+        try {
+            if (!snapshot.readChunk(this.store, SNAPSHOT_CHUNK_SIZE)) {
+                this.ioExecutor.execute(() -> this.readSnapshotChunk(snapshot, future));
+                return;
+            }
+            this.storeSnapshot = null;
+            future.complete(snapshot);
         }
-        HashMap<UUID, String> nicknames = new HashMap<UUID, String>();
-        ConfigurationSection nickSection = playerSection.getConfigurationSection("nicknames");
-        if (nickSection != null) {
-            for (String uuidString : nickSection.getKeys(false)) {
-                try {
-                    UUID uuid = UUID.fromString(uuidString);
-                    String nick = nickSection.getString(uuidString, "");
-                    if (nick.isEmpty()) continue;
-                    nicknames.put(uuid, nick);
-                }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid nickname UUID: " + uuidString);
+        catch (IOException | RuntimeException e) {
+            this.storeSnapshot = null;
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Drops name index entries of players a maintenance job deleted from the store, and
+     * remembers them as unknown so lookups do not go back to the store for them.
+     */
+    public void forgetPlayers(Set<UUID> playerUUIDs) {
+        this.nameIndex.values().removeIf(known -> playerUUIDs.contains(known.playerUUID));
+        this.unknownPlayers.addAll(playerUUIDs);
+    }
+
+    public void clearAllPlayerData() {
+        this.playerDataCache.clear();
+        this.dirtyPlayers.clear();
+        this.dirtyRequests.clear();
+        this.plugin.getRequestManager().clear();
+        this.nameIndex.clear();
+        this.unknownPlayers.clear();
+        this.clearGeneration.incrementAndGet();
+        // Until the store is wiped, lookups must not read the old records back in.
+        this.pendingClears.incrementAndGet();
+        this.ioExecutor.execute(() -> {
+            try {
+                if (this.storeSnapshot != null) {
+                    this.storeSnapshot.preserveAll(this.store);
                 }
+                this.store.deleteAll();
+                this.store.replaceRequests(Collections.emptyMap());
+            }
+            catch (IOException e) {
+                this.plugin.getLogger().severe("Failed to clear player data: " + e.getMessage());
             }
+            finally {
+                this.pendingClears.decrementAndGet();
+            }
+        });
+        this.plugin.getLogger().warning("Cleared all player data from cache and storage.");
+    }
+
+    /**
+     * Replaces all player data and friend requests with the given ones, e.g. from a backup,
+     * without a restart. The records become the cache and the requests the request table right
+     * away; the store is replaced atomically on the IO thread, and until that is done nothing is
+     * evicted or read back from the old store. Journal entries from before the restore are
+     * dropped once the store holds the restored data.
+     *
+     * @throws IllegalStateException if a reload is in progress
+     */
+    public CompletableFuture<Void> restoreAll(List<PlayerData> records, Map<UUID, Map<UUID, Long>> requests) {
+        if (this.reloading.get()) {
+            throw new IllegalStateException("A reload is in progress.");
         }
-        HashMap<UUID, Long> incomingRequests = new HashMap<UUID, Long>();
-        ConfigurationSection incomingSection = playerSection.getConfigurationSection("incoming_requests");
-        if (incomingSection != null) {
-            for (String uuidString : incomingSection.getKeys(false)) {
-                try {
-                    UUID uuid = UUID.fromString(uuidString);
-                    long timestamp = incomingSection.getLong(uuidString);
-                    incomingRequests.put(uuid, timestamp);
+        this.clearGeneration.incrementAndGet();
+        this.pendingClears.incrementAndGet();
+        this.savesInFlight.incrementAndGet();
+        List<File> sealedSegments = this.rotateJournal();
+        PlayerDataCache restored = new PlayerDataCache();
+        ConcurrentHashMap<String, KnownName> restoredIndex = new ConcurrentHashMap<String, KnownName>();
+        for (PlayerData record : records) {
+            restored.put(record);
+            if (record.getPlayerName().isEmpty()) continue;
+            restoredIndex.putIfAbsent(record.getPlayerName().toLowerCase(), new KnownName(record));
+        }
+        this.dirtyPlayers.clear();
+        this.dirtyRequests.clear();
+        this.unknownPlayers.clear();
+        this.playerDataCache = restored;
+        this.nameIndex = restoredIndex;
+        this.plugin.getRequestManager().installStoredRequests(requests);
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        this.ioExecutor.execute(() -> {
+            try {
+                if (this.storeSnapshot != null) {
+                    this.storeSnapshot.preserveAll(this.store);
                 }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid incoming request UUID: " + uuidString);
+                this.store.replaceAll(records);
+                this.store.replaceRequests(requests);
+                if (this.journal != null) {
+                    this.journal.deleteSegments(sealedSegments);
                 }
+                future.complete(null);
             }
-        }
-        HashMap<UUID, Long> outgoingRequests = new HashMap<UUID, Long>();
-        ConfigurationSection outgoingSection = playerSection.getConfigurationSection("outgoing_requests");
-        if (outgoingSection != null) {
-            for (String uuidString : outgoingSection.getKeys(false)) {
-                try {
-                    UUID uuid = UUID.fromString(uuidString);
-                    long timestamp = outgoingSection.getLong(uuidString);
-                    outgoingRequests.put(uuid, timestamp);
-                }
-                catch (IllegalArgumentException e) {
-                    this.plugin.getLogger().warning("Invalid outgoing request UUID: " + uuidString);
+            catch (IOException | RuntimeException e) {
+                // The cache still holds every restored record; let the next flush retry them.
+                for (PlayerData record : records) {
+                    this.dirtyPlayers.add(record.getPlayerUUID());
                 }
+                this.dirtyRequests.addAll(requests.keySet());
+                future.completeExceptionally(e);
             }
-        }
-        PlayerSettings settings = new PlayerSettings();
-        ConfigurationSection settingsSection = playerSection.getConfigurationSection("settings");
-        if (settingsSection != null) {
-            settings.setAllowRequests(settingsSection.getBoolean("allow_requests", true));
-            settings.setAppearOffline(settingsSection.getBoolean("appear_offline", false));
-            settings.setNotifyOnline(settingsSection.getBoolean("notify_online", true));
-            settings.setAllowJoin(settingsSection.getBoolean("allow_join", true));
-            settings.setNotifyJoin(settingsSection.getBoolean("notify_join", true));
-            String privacy = settingsSection.getString("messagePrivacy", "HIGH");
-            try {
-                settings.setMessagePrivacy(PlayerSettings.MessagePrivacy.valueOf(privacy));
+            finally {
+                this.pendingClears.decrementAndGet();
+                this.savesInFlight.decrementAndGet();
             }
-            catch (IllegalArgumentException e) {
-                settings.setMessagePrivacy(PlayerSettings.MessagePrivacy.HIGH);
+        });
+        this.plugin.getLogger().warning("Restoring " + records.size() + " players, replacing all current player data.");
+        return future;
+    }
+
+    /**
+     * Marks the player as changed. The record is serialized by the next background flush
+     * (see {@link #startWriteBehind()}) instead of on the calling thread.
+     */
+    public void savePlayerData(PlayerData playerData) {
+        PlayerData cached = this.playerDataCache.put(playerData);
+        if (cached != playerData) {
+            this.plugin.getLogger().warning("Ignored a stale record of " + playerData.getPlayerUUID() + "; the cached record is saved instead");
+        }
+        this.dirtyPlayers.add(playerData.getPlayerUUID());
+        this.unknownPlayers.remove(playerData.getPlayerUUID());
+        this.indexName(cached);
+    }
+
+    /**
+     * Read-only lookup: returns the player's record if one is cached or stored, otherwise
+     * {@code null}. Unlike {@link #getPlayerData(UUID)} it never creates a record, and misses
+     * are remembered in a small negative cache so repeated lookups of unknown players stay
+     * off the disk. Use it wherever the caller only reads.
+     *
+     * @throws UncheckedIOException if the player is stored but could not be read
+     */
+    public PlayerData peekPlayerData(UUID playerUUID) {
+        PlayerData cached = this.playerDataCache.peek(playerUUID);
+        if (cached != null || this.unknownPlayers.contains(playerUUID)) {
+            return cached;
+        }
+        PlayerData stored = this.readStored(playerUUID);
+        if (stored == null) {
+            this.unknownPlayers.add(playerUUID);
+            return null;
+        }
+        return this.playerDataCache.get(playerUUID, uuid -> stored);
+    }
+
+    /**
+     * @return the stored record, or {@code null} if the player is known to be missing or is not
+     * stored, in which case the miss is remembered
+     */
+    private PlayerData loadStoredPlayerData(UUID playerUUID) {
+        if (this.unknownPlayers.contains(playerUUID)) {
+            return null;
+        }
+        PlayerData stored = this.readStored(playerUUID);
+        if (stored == null) {
+            this.unknownPlayers.add(playerUUID);
+        }
+        return stored;
+    }
+
+    /**
+     * @return the stored record, or {@code null} if the player is not stored
+     * @throws UncheckedIOException if the store failed to read it; nothing is cached then, so a
+     * later save cannot overwrite the stored record with an empty one
+     */
+    private PlayerData readStored(UUID playerUUID) {
+        if (this.pendingClears.get() > 0) {
+            return null;
+        }
+        try {
+            PlayerData stored = this.store.load(playerUUID);
+            if (stored != null) {
+                this.indexName(stored);
             }
+            return stored;
+        }
+        catch (IOException e) {
+            this.plugin.getLogger().severe("Failed to load data for player " + playerUUID + ": " + e.getMessage());
+            throw new UncheckedIOException("Failed to load data for player " + playerUUID, e);
         }
-        return new PlayerData(playerUUID, playerName, friends, incomingRequests, outgoingRequests, settings, blocked, bestFriends, nicknames);
     }
 
     public boolean hasPlayerData(UUID playerUUID) {
-        return this.playerDataCache.containsKey(playerUUID) || this.dataConfig.contains("players." + playerUUID.toString());
+        return this.playerDataCache.contains(playerUUID) || !this.unknownPlayers.contains(playerUUID) && this.pendingClears.get() == 0 && this.store.contains(playerUUID);
     }
 
+    /**
+     * @return the players currently in memory, not every stored player
+     */
     public Map<UUID, PlayerData> getAllPlayerData() {
-        return new HashMap<UUID, PlayerData>(this.playerDataCache);
-    }
-
-    public void clearExpiredRequests() {
-        long timeoutMinutes = 5L;
+        HashMap<UUID, PlayerData> players = new HashMap<UUID, PlayerData>();
         for (PlayerData playerData : this.playerDataCache.values()) {
-            playerData.clearExpiredRequests(timeoutMinutes);
+            players.put(playerData.getPlayerUUID(), playerData);
         }
+        return players;
     }
 
     public Set<UUID> getAllKnownUUIDs() {
-        HashSet<UUID> uuids = new HashSet<UUID>(this.playerDataCache.keySet());
-        if (this.dataConfig != null && this.dataConfig.isConfigurationSection("players")) {
-            for (String uuidString : this.dataConfig.getConfigurationSection("players").getKeys(false)) {
-                try {
-                    uuids.add(UUID.fromString(uuidString));
-                }
-                catch (IllegalArgumentException illegalArgumentException) {}
-            }
-        }
+        Set<UUID> uuids = this.playerDataCache.keySet();
+        uuids.addAll(this.store.keys());
         return uuids;
     }
-}
 
+    public interface StoreTask<T> {
+        T run(PlayerStore store) throws IOException;
+    }
+
+    /**
+     * A name index entry. The index is keyed by the lowercased name for lookups; this keeps the
+     * name as the player spells it, for completions.
+     */
+    private static class KnownName {
+        private final UUID playerUUID;
+        private final String name;
+
+        private KnownName(PlayerData playerData) {
+            this.playerUUID = playerData.getPlayerUUID();
+            this.name = playerData.getPlayerName();
+        }
+    }
+
+    /**
+     * Everything a reload replaces, built off the main thread by {@link #prepareReload}.
+     */
+    public static class PreparedState {
+        private final FileConfiguration config;
+        private final PlayerStore store;
+        private final PlayerDataCache cache;
+        private final Map<String, KnownName> nameIndex;
+        private final int clearGeneration;
+        private final long buildNanos;
+
+        private PreparedState(FileConfiguration config, PlayerStore store, PlayerDataCache cache, Map<String, KnownName> nameIndex, int clearGeneration, long buildNanos) {
+            this.config = config;
+            this.store = store;
+            this.cache = cache;
+            this.nameIndex = nameIndex;
+            this.clearGeneration = clearGeneration;
+            this.buildNanos = buildNanos;
+        }
+
+        public FileConfiguration getConfig() {
+            return this.config;
+        }
+
+        public PlayerDataCache getCache() {
+            return this.cache;
+        }
+
+        public long getBuildMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(this.buildNanos);
+        }
+    }
+}
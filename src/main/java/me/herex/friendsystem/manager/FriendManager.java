@@ -12,6 +12,8 @@ import me.herex.friendsystem.FriendSystem;
 import me.herex.friendsystem.VersionHandler;
 import me.herex.friendsystem.cmd.FriendCommand;
 import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.Mutation;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -30,10 +32,14 @@ public class FriendManager {
     }
 
     public boolean addFriend(UUID player1, UUID player2) {
-        PlayerData data1 = this.plugin.getDataManager().getPlayerData(player1);
-        PlayerData data2 = this.plugin.getDataManager().getPlayerData(player2);
-        if (data1.isFriend(player2)) {
-            return false;
+        PlayerData data1 = this.plugin.getDataManager().getOrCreatePlayerData(player1);
+        PlayerData data2 = this.plugin.getDataManager().getOrCreatePlayerData(player2);
+        if (data1.isFriend(player2) && data2.isFriend(player1)) {
+            // Already friends, e.g. through a second accept; only settle leftover requests.
+            if (this.plugin.getRequestManager().removeRequestsBetween(player1, player2)) {
+                this.plugin.getDataManager().recordMutation(Mutation.Type.FRIEND_ADD, player1, player2);
+            }
+            return true;
         }
         int maxFriends = 100;
         if (data1.getFriendCount() >= maxFriends || data2.getFriendCount() >= maxFriends) {
@@ -44,18 +50,14 @@ public class FriendManager {
         long now = System.currentTimeMillis();
         this.setFriendshipTimestamp(player1, player2, now);
         this.setFriendshipTimestamp(player2, player1, now);
-        data1.removeIncomingRequest(player2);
-        data1.removeOutgoingRequest(player2);
-        data2.removeIncomingRequest(player1);
-        data2.removeOutgoingRequest(player1);
-        this.plugin.getDataManager().savePlayerData(data1);
-        this.plugin.getDataManager().savePlayerData(data2);
+        this.plugin.getRequestManager().removeRequestsBetween(player1, player2);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.FRIEND_ADD, player1, player2);
         return true;
     }
 
     public boolean removeFriend(UUID player1, UUID player2) {
-        PlayerData data1 = this.plugin.getDataManager().getPlayerData(player1);
-        PlayerData data2 = this.plugin.getDataManager().getPlayerData(player2);
+        PlayerData data1 = this.plugin.getDataManager().getOrCreatePlayerData(player1);
+        PlayerData data2 = this.plugin.getDataManager().getOrCreatePlayerData(player2);
         if (!data1.isFriend(player2)) {
             return false;
         }
@@ -69,24 +71,26 @@ public class FriendManager {
             removedFriend.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)(removerDisplay + " &cremoved you from their friends list!")));
             removedFriend.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
         }
-        this.plugin.getDataManager().savePlayerData(data1);
-        this.plugin.getDataManager().savePlayerData(data2);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.FRIEND_REMOVE, player1, player2);
         return true;
     }
 
     public boolean areFriends(UUID player1, UUID player2) {
-        PlayerData data1 = this.plugin.getDataManager().getPlayerData(player1);
-        return data1.isFriend(player2);
+        PlayerData data1 = this.plugin.getDataManager().peekPlayerData(player1);
+        return data1 != null && data1.isFriend(player2);
     }
 
     public boolean isBestFriend(UUID player1, UUID player2) {
-        PlayerData data1 = this.plugin.getDataManager().getPlayerData(player1);
-        return data1.getBestFriends().contains(player2);
+        PlayerData data1 = this.plugin.getDataManager().peekPlayerData(player1);
+        return data1 != null && data1.isBestFriend(player2);
     }
 
+    /**
+     * @return an unmodifiable snapshot of the player's friends
+     */
     public Set<UUID> getFriends(UUID playerUUID) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(playerUUID);
-        return data.getFriends();
+        PlayerData data = this.plugin.getDataManager().peekPlayerData(playerUUID);
+        return data == null ? Collections.emptySet() : data.getFriendsView();
     }
 
     public Set<Player> getOnlineFriends(UUID playerUUID) {
@@ -111,8 +115,8 @@ public class FriendManager {
     }
 
     public int getFriendCount(UUID playerUUID) {
-        PlayerData data = this.plugin.getDataManager().getPlayerData(playerUUID);
-        return data.getFriendCount();
+        PlayerData data = this.plugin.getDataManager().peekPlayerData(playerUUID);
+        return data == null ? 0 : data.getFriendCount();
     }
 
     public int getOnlineFriendCount(UUID playerUUID) {
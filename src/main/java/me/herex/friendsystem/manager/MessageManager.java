@@ -41,7 +41,8 @@ public class MessageManager {
             this.sendBorderedError(VersionHandler.getOnlinePlayer(fromUUID), "&cYou cannot message this player as you have blocked them.");
             return false;
         }
-        PlayerSettings settings = this.plugin.getDataManager().getPlayerData(toUUID).getSettings();
+        PlayerData targetData = this.plugin.getDataManager().peekPlayerData(toUUID);
+        PlayerSettings settings = targetData == null ? new PlayerSettings() : targetData.getSettings();
         Player sender = VersionHandler.getOnlinePlayer(fromUUID);
         boolean canMessage = false;
         switch (settings.getMessagePrivacy()) {
@@ -150,7 +151,8 @@ public class MessageManager {
         if (this.plugin.getBlockManager().isBlocked(toUUID, fromUUID) || this.plugin.getBlockManager().isBlocked(fromUUID, toUUID)) {
             return false;
         }
-        PlayerSettings settings = this.plugin.getDataManager().getPlayerData(toUUID).getSettings();
+        PlayerData toData = this.plugin.getDataManager().peekPlayerData(toUUID);
+        PlayerSettings settings = toData == null ? new PlayerSettings() : toData.getSettings();
         Player sender = VersionHandler.getOnlinePlayer(fromUUID);
         switch (settings.getMessagePrivacy()) {
             case NONE: {
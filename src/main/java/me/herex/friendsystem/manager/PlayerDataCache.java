@@ -0,0 +1,223 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Player records held by {@link DataManager}, bounded by weight instead of entry count: a
+ * player costs one unit plus one per friend, block, request, best friend and nickname entry,
+ * so a handful of heavily connected players cannot hide behind a small entry count.
+ * <p>
+ * Lookups go through a concurrent map; an access-ordered {@link LinkedHashMap} beside it keeps
+ * the players from least to most recently used, and the total weight is kept up to date as
+ * records are cached, saved and dropped. Eviction therefore walks only the oldest players and
+ * costs nothing while the cache is within its bound. It only happens in {@link #evict}, which
+ * the caller runs from the main thread and tells which players must stay (online, dirty, about
+ * to join).
+ */
+public class PlayerDataCache {
+    private final Map<UUID, Node> entries = new ConcurrentHashMap<UUID, Node>();
+    private final LinkedHashMap<UUID, Node> recency = new LinkedHashMap<UUID, Node>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long weight;
+
+    /**
+     * Returns the cached record, or loads and caches it. The loader runs outside the map, so a
+     * slow store does not hold a map lock; if two threads load the same player, the first record
+     * cached is kept and returned to both. A loader returning {@code null} caches nothing.
+     */
+    public PlayerData get(UUID playerUUID, Function<UUID, PlayerData> loader) {
+        Node node = this.entries.get(playerUUID);
+        if (node != null) {
+            this.hits.increment();
+            this.touch(playerUUID);
+            return node.data;
+        }
+        this.misses.increment();
+        PlayerData loaded = loader.apply(playerUUID);
+        return loaded == null ? null : this.insert(loaded, false);
+    }
+
+    /**
+     * @return the cached record without loading it or counting a hit or miss, or {@code null}
+     */
+    public PlayerData peek(UUID playerUUID) {
+        Node node = this.entries.get(playerUUID);
+        return node == null ? null : node.data;
+    }
+
+    /**
+     * Caches the record, or marks the cached one as used and weighs it again after a change.
+     * If a different record of the same player is cached, the cached one is kept: it is the one
+     * the rest of the plugin holds and changes, and replacing it would drop those changes.
+     *
+     * @return the record that is cached now
+     */
+    public PlayerData put(PlayerData playerData) {
+        return this.insert(playerData, false);
+    }
+
+    /**
+     * Caches the record in place of whatever record of the player was cached, for records that
+     * are known to be newer, such as those recovered from emergency.dat.
+     */
+    public void replace(PlayerData playerData) {
+        this.insert(playerData, true);
+    }
+
+    /**
+     * @return false if the player was already cached, in which case the cached record is kept
+     */
+    public boolean putIfAbsent(PlayerData playerData) {
+        synchronized (this.recency) {
+            if (this.recency.containsKey(playerData.getPlayerUUID())) {
+                return false;
+            }
+            this.insert(playerData, false);
+            return true;
+        }
+    }
+
+    public boolean contains(UUID playerUUID) {
+        return this.entries.containsKey(playerUUID);
+    }
+
+    public void remove(UUID playerUUID) {
+        synchronized (this.recency) {
+            Node node = this.recency.remove(playerUUID);
+            if (node == null) {
+                return;
+            }
+            this.entries.remove(playerUUID);
+            this.weight -= (long)node.weight;
+        }
+    }
+
+    public void clear() {
+        synchronized (this.recency) {
+            this.recency.clear();
+            this.entries.clear();
+            this.weight = 0L;
+        }
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    public Set<UUID> keySet() {
+        return new HashSet<UUID>(this.entries.keySet());
+    }
+
+    public Collection<PlayerData> values() {
+        ArrayList<PlayerData> values = new ArrayList<PlayerData>(this.entries.size());
+        for (Node node : this.entries.values()) {
+            values.add(node.data);
+        }
+        return values;
+    }
+
+    /**
+     * Drops the least recently used players that {@code retained} does not protect until the
+     * total weight is back under 90% of {@code maxWeight}. Nothing happens while the cache is
+     * within {@code maxWeight}. Protected players are skipped, so the caller should write dirty
+     * players back before evicting for them to become evictable.
+     *
+     * @return the number of players evicted
+     */
+    public int evict(long maxWeight, Predicate<UUID> retained) {
+        int evicted = 0;
+        synchronized (this.recency) {
+            if (this.weight <= maxWeight) {
+                return 0;
+            }
+            long target = maxWeight - maxWeight / 10L;
+            Iterator<Map.Entry<UUID, Node>> iterator = this.recency.entrySet().iterator();
+            while (this.weight > target && iterator.hasNext()) {
+                Map.Entry<UUID, Node> candidate = iterator.next();
+                if (retained.test(candidate.getKey())) continue;
+                iterator.remove();
+                this.entries.remove(candidate.getKey());
+                this.weight -= (long)candidate.getValue().weight;
+                ++evicted;
+            }
+        }
+        this.evictions.add(evicted);
+        return evicted;
+    }
+
+    public static int weigh(PlayerData data) {
+        return 1 + data.getFriendCount() + data.getBlockedCount() + data.getBestFriendCount() + data.getNicknamesView().size();
+    }
+
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return the total weight, as of the last time each record was cached or saved
+     */
+    public long getWeight() {
+        synchronized (this.recency) {
+            return this.weight;
+        }
+    }
+
+    private void touch(UUID playerUUID) {
+        synchronized (this.recency) {
+            this.recency.get(playerUUID);
+        }
+    }
+
+    private PlayerData insert(PlayerData playerData, boolean replace) {
+        UUID playerUUID = playerData.getPlayerUUID();
+        int weight = PlayerDataCache.weigh(playerData);
+        synchronized (this.recency) {
+            Node node = this.recency.get(playerUUID);
+            if (node != null && node.data != playerData && !replace) {
+                return node.data;
+            }
+            if (node != null && node.data == playerData) {
+                this.weight += (long)(weight - node.weight);
+                node.weight = weight;
+                return playerData;
+            }
+            Node inserted = new Node(playerData, weight);
+            this.recency.put(playerUUID, inserted);
+            this.entries.put(playerUUID, inserted);
+            this.weight += (long)weight - (node == null ? 0L : (long)node.weight);
+            return playerData;
+        }
+    }
+
+    private static class Node {
+        private final PlayerData data;
+        private int weight;
+
+        private Node(PlayerData data, int weight) {
+            this.data = data;
+            this.weight = weight;
+        }
+    }
+}
@@ -14,23 +14,31 @@ import me.herex.friendsystem.cmd.FriendCommand;
 import me.herex.friendsystem.model.FriendRequest;
 import me.herex.friendsystem.model.PlayerData;
 import me.herex.friendsystem.model.PlayerSettings;
+import me.herex.friendsystem.model.RequestTable;
+import me.herex.friendsystem.storage.Mutation;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
 public class RequestManager {
     private final FriendSystem plugin;
-    private final Map<UUID, Map<UUID, FriendRequest>> activeRequests;
+    // The one place requests are kept; the store persists it through getStoredOutgoing.
+    private RequestTable table;
     private final Map<UUID, Set<UUID>> blockedSenders = new ConcurrentHashMap<UUID, Set<UUID>>();
+    private static final long REQUEST_TIMEOUT_MILLIS = 300000L;
+    // Cap on the age of a request whose receiver is never online for it.
+    private static final long REQUEST_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(7L);
+    private int expiryTaskId = -1;
 
     public RequestManager(FriendSystem plugin) {
         this.plugin = plugin;
-        this.activeRequests = new ConcurrentHashMap<UUID, Map<UUID, FriendRequest>>();
+        this.table = new RequestTable();
     }
 
     public RequestResult sendRequest(UUID fromUUID, UUID toUUID) {
@@ -50,8 +58,8 @@ public class RequestManager {
         if (this.hasActiveRequest(fromUUID, toUUID)) {
             return RequestResult.REQUEST_ALREADY_SENT;
         }
-        if (this.plugin.getDataManager().hasPlayerData(toUUID)) {
-            PlayerData targetData = this.plugin.getDataManager().getPlayerData(toUUID);
+        PlayerData targetData = this.plugin.getDataManager().peekPlayerData(toUUID);
+        if (targetData != null) {
             PlayerSettings settings = targetData.getSettings();
             switch (settings.getRequestPrivacy()) {
                 case MAX: 
@@ -66,141 +74,259 @@ public class RequestManager {
         if (this.getOutgoingRequestCount(fromUUID) >= maxRequests) {
             return RequestResult.MAX_REQUESTS_SENT;
         }
-        FriendRequest request = new FriendRequest(fromUUID, toUUID);
-        this.activeRequests.computeIfAbsent(fromUUID, k -> new HashMap()).put(toUUID, request);
-        PlayerData fromData = this.plugin.getDataManager().getPlayerData(fromUUID);
         PlayerData toData = this.plugin.getDataManager().getPlayerData(toUUID);
         if (toData.getPlayerName().isEmpty() && (targetName = Bukkit.getOfflinePlayer((UUID)toUUID).getName()) != null) {
             toData.setPlayerName(targetName);
+            this.plugin.getDataManager().savePlayerData(toData);
         }
-        fromData.addOutgoingRequest(toUUID);
-        toData.addIncomingRequest(fromUUID);
-        this.plugin.getDataManager().savePlayerData(fromData);
-        this.plugin.getDataManager().savePlayerData(toData);
+        this.link(fromUUID, toUUID);
         return RequestResult.SUCCESS;
     }
 
+    /**
+     * Only the first of several accepts or denies for the same request goes through; the others
+     * return {@code false}. Adding the friendship removes the request, see
+     * {@link #removeRequestsBetween}; if it cannot be added, the request stays pending.
+     */
     public boolean acceptRequest(UUID fromUUID, UUID toUUID) {
-        FriendRequest request = this.getActiveRequest(fromUUID, toUUID);
-        if (request == null || !request.isPending()) {
+        int row = this.table.find(fromUUID, toUUID);
+        if (!this.table.compareAndSetStatus(row, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.ACCEPTED)) {
             return false;
         }
-        request.setStatus(FriendRequest.RequestStatus.ACCEPTED);
+        int stamp = this.table.getStamp(row);
         boolean success = this.plugin.getFriendManager().addFriend(fromUUID, toUUID);
-        if (success) {
-            this.removeActiveRequest(fromUUID, toUUID);
+        // Events fired by addFriend may have removed the row and handed it to another request.
+        if (!success && this.table.getStamp(row) == stamp) {
+            this.table.compareAndSetStatus(row, FriendRequest.RequestStatus.ACCEPTED, FriendRequest.RequestStatus.PENDING);
         }
         return success;
     }
 
     public boolean denyRequest(UUID fromUUID, UUID toUUID) {
-        FriendRequest request = this.getActiveRequest(fromUUID, toUUID);
-        if (request == null || !request.isPending()) {
+        int row = this.table.find(fromUUID, toUUID);
+        if (!this.table.compareAndSetStatus(row, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.DENIED)) {
             return false;
         }
-        request.setStatus(FriendRequest.RequestStatus.DENIED);
-        this.removeActiveRequest(fromUUID, toUUID);
-        PlayerData fromData = this.plugin.getDataManager().getPlayerData(fromUUID);
-        PlayerData toData = this.plugin.getDataManager().getPlayerData(toUUID);
-        fromData.removeOutgoingRequest(toUUID);
-        toData.removeIncomingRequest(fromUUID);
-        this.plugin.getDataManager().savePlayerData(fromData);
-        this.plugin.getDataManager().savePlayerData(toData);
+        this.drop(row);
         return true;
     }
 
     public boolean hasActiveRequest(UUID fromUUID, UUID toUUID) {
-        Map<UUID, FriendRequest> requests = this.activeRequests.get(fromUUID);
-        if (requests == null) {
-            return false;
-        }
-        FriendRequest request = requests.get(toUUID);
-        return request != null && request.isPending();
+        return this.table.isPending(this.table.find(fromUUID, toUUID));
     }
 
+    /**
+     * @return a copy of the request, or {@code null}
+     */
     public FriendRequest getActiveRequest(UUID fromUUID, UUID toUUID) {
-        Map<UUID, FriendRequest> requests = this.activeRequests.get(fromUUID);
-        if (requests == null) {
-            return null;
-        }
-        return requests.get(toUUID);
+        int row = this.table.find(fromUUID, toUUID);
+        return row == RequestTable.NONE ? null : this.table.toRequest(row);
     }
 
+    /**
+     * Removes the request and marks its sender's requests for the next save.
+     */
     public void removeActiveRequest(UUID fromUUID, UUID toUUID) {
-        Map<UUID, FriendRequest> requests = this.activeRequests.get(fromUUID);
-        if (requests != null) {
-            requests.remove(toUUID);
-            if (requests.isEmpty()) {
-                this.activeRequests.remove(fromUUID);
+        int row = this.table.find(fromUUID, toUUID);
+        if (row != RequestTable.NONE) {
+            this.drop(row);
+        }
+    }
+
+    /**
+     * Creates a request. Any leftover row for the pair, such as an accept that failed, is
+     * replaced.
+     */
+    private void link(UUID fromUUID, UUID toUUID) {
+        long now = System.currentTimeMillis();
+        this.table.remove(this.table.find(fromUUID, toUUID));
+        int row = this.table.add(fromUUID, toUUID, now);
+        this.table.expireAt(row, now + REQUEST_MAX_AGE_MILLIS);
+        if (VersionHandler.isPlayerOnline(toUUID)) {
+            this.activate(row, now);
+        }
+        this.plugin.getDataManager().recordMutation(Mutation.Type.REQUEST, fromUUID, toUUID);
+    }
+
+    private void drop(int row) {
+        UUID fromUUID = this.table.getFrom(row);
+        UUID toUUID = this.table.getTo(row);
+        this.table.remove(row);
+        this.plugin.getDataManager().recordMutation(Mutation.Type.REQUEST_REMOVE, fromUUID, toUUID);
+    }
+
+    /**
+     * Adds a stored or replayed request unless it is already in the table.
+     */
+    public void restoreRequest(UUID fromUUID, UUID toUUID, long sentAt) {
+        int row = this.table.add(fromUUID, toUUID, sentAt);
+        if (row == RequestTable.NONE) {
+            return;
+        }
+        this.table.expireAt(row, sentAt + REQUEST_MAX_AGE_MILLIS);
+        if (VersionHandler.isPlayerOnline(toUUID)) {
+            this.activate(row, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Starts the timeout of a request once its receiver is online for it.
+     */
+    private void activate(int row, long now) {
+        if (this.table.activate(row, now)) {
+            this.table.expireAt(row, now + REQUEST_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Removes a request without recording it, for journal replay.
+     */
+    public void forgetRequest(UUID fromUUID, UUID toUUID) {
+        this.table.remove(this.table.find(fromUUID, toUUID));
+    }
+
+    /**
+     * Removes the requests in both directions between two players who just became friends,
+     * whatever their status. The caller records the friendship, which covers the removal.
+     *
+     * @return whether there was a request to remove
+     */
+    public boolean removeRequestsBetween(UUID player1, UUID player2) {
+        int first = this.table.find(player1, player2);
+        int second = this.table.find(player2, player1);
+        this.table.remove(first);
+        this.table.remove(second);
+        return first != RequestTable.NONE || second != RequestTable.NONE;
+    }
+
+    /**
+     * Replaces every request with the stored ones, e.g. at startup or after a restore, in one
+     * pass over the requests; no player record is loaded or created. Requests to players who
+     * are online start their timeout now. Reloads keep the table as it is, since it is the only
+     * copy of the requests in memory.
+     *
+     * @param requests sender to receiver to sent time, as {@link me.herex.friendsystem.storage.PlayerStore#loadRequests} returns them
+     */
+    public void installStoredRequests(Map<UUID, Map<UUID, Long>> requests) {
+        long start = System.nanoTime();
+        int count = 0;
+        for (Map<UUID, Long> outgoing : requests.values()) {
+            count += outgoing.size();
+        }
+        this.table = new RequestTable(Math.max(16, count));
+        for (Map.Entry<UUID, Map<UUID, Long>> sender : requests.entrySet()) {
+            for (Map.Entry<UUID, Long> request : sender.getValue().entrySet()) {
+                this.restoreRequest(sender.getKey(), request.getKey(), request.getValue());
             }
         }
+        this.plugin.getLogger().info("Loaded " + this.table.size() + " friend requests in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * @return receiver to sent time of every request the player has sent, in the form the
+     * store persists
+     */
+    public Map<UUID, Long> getStoredOutgoing(UUID fromUUID) {
+        HashMap<UUID, Long> outgoing = new HashMap<UUID, Long>();
+        for (int row = this.table.firstSent(fromUUID); row != RequestTable.NONE; row = this.table.nextSent(row)) {
+            outgoing.put(this.table.getTo(row), this.table.getSentAt(row));
+        }
+        return outgoing;
+    }
+
+    /**
+     * @return whether the player has sent or received any request
+     */
+    public boolean hasRequests(UUID playerUUID) {
+        return this.table.firstSent(playerUUID) != RequestTable.NONE || this.table.firstReceived(playerUUID) != RequestTable.NONE;
+    }
+
+    /**
+     * Forgets every request; the caller clears the store.
+     */
+    public void clear() {
+        this.table = new RequestTable();
     }
 
     public Map<UUID, FriendRequest> getIncomingRequests(UUID playerUUID) {
         HashMap<UUID, FriendRequest> incoming = new HashMap<UUID, FriendRequest>();
-        for (Map<UUID, FriendRequest> requests : this.activeRequests.values()) {
-            for (Map.Entry<UUID, FriendRequest> entry : requests.entrySet()) {
-                FriendRequest request = entry.getValue();
-                if (!request.getTo().equals(playerUUID) || !request.isPending()) continue;
-                incoming.put(request.getFrom(), request);
-            }
+        for (int row = this.table.firstReceived(playerUUID); row != RequestTable.NONE; row = this.table.nextReceived(row)) {
+            if (!this.table.isPending(row)) continue;
+            incoming.put(this.table.getFrom(row), this.table.toRequest(row));
         }
         return incoming;
     }
 
     public Map<UUID, FriendRequest> getOutgoingRequests(UUID playerUUID) {
         HashMap<UUID, FriendRequest> outgoing = new HashMap<UUID, FriendRequest>();
-        Map<UUID, FriendRequest> requests = this.activeRequests.get(playerUUID);
-        if (requests != null) {
-            for (Map.Entry<UUID, FriendRequest> entry : requests.entrySet()) {
-                FriendRequest request = entry.getValue();
-                if (!request.isPending()) continue;
-                outgoing.put(request.getTo(), request);
-            }
+        for (int row = this.table.firstSent(playerUUID); row != RequestTable.NONE; row = this.table.nextSent(row)) {
+            if (!this.table.isPending(row)) continue;
+            outgoing.put(this.table.getTo(row), this.table.toRequest(row));
         }
         return outgoing;
     }
 
     public int getIncomingRequestCount(UUID playerUUID) {
-        return this.getIncomingRequests(playerUUID).size();
+        int count = 0;
+        for (int row = this.table.firstReceived(playerUUID); row != RequestTable.NONE; row = this.table.nextReceived(row)) {
+            if (!this.table.isPending(row)) continue;
+            ++count;
+        }
+        return count;
     }
 
     public int getOutgoingRequestCount(UUID playerUUID) {
-        return this.getOutgoingRequests(playerUUID).size();
+        int count = 0;
+        for (int row = this.table.firstSent(playerUUID); row != RequestTable.NONE; row = this.table.nextSent(row)) {
+            if (!this.table.isPending(row)) continue;
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Checks for due request expiries once a second; see {@link #clearExpiredRequests()}.
+     */
+    public void startExpiryTimer() {
+        if (this.expiryTaskId != -1) {
+            Bukkit.getScheduler().cancelTask(this.expiryTaskId);
+        }
+        this.expiryTaskId = Bukkit.getScheduler().scheduleSyncRepeatingTask(this.plugin, this::clearExpiredRequests, 20L, 20L);
     }
 
+    /**
+     * Expires every request whose timeout, counted from when its receiver was first online for
+     * it, has elapsed, and every request older than the maximum age whether or not its receiver
+     * was ever online. Requests come off the table's deadline heap, so this only touches the
+     * requests that are due.
+     */
     public void clearExpiredRequests() {
-        long timeoutMinutes = 5L;
-        for (Map<UUID, FriendRequest> requests : this.activeRequests.values()) {
-            requests.entrySet().removeIf(entry -> {
-                FriendRequest request = (FriendRequest)entry.getValue();
-                if (request.isExpired(timeoutMinutes)) {
-                    Player fromPlayer = VersionHandler.getOnlinePlayer(request.getFrom());
-                    Player toPlayer = VersionHandler.getOnlinePlayer(request.getTo());
-                    if (fromPlayer != null) {
-                        PlayerData toData = this.plugin.getDataManager().getPlayerData(request.getTo());
-                        String toName = FriendCommand.getDisplayName(request.getTo(), toData, false, true);
-                        fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
-                        fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)("&eYour friend request to " + toName + " &ehas expired.")));
-                        fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
-                    }
-                    PlayerData fromData = this.plugin.getDataManager().getPlayerData(request.getFrom());
-                    PlayerData toData = this.plugin.getDataManager().getPlayerData(request.getTo());
-                    fromData.removeOutgoingRequest(request.getTo());
-                    toData.removeIncomingRequest(request.getFrom());
-                    this.plugin.getDataManager().savePlayerData(fromData);
-                    this.plugin.getDataManager().savePlayerData(toData);
-                    return true;
-                }
-                return false;
-            });
+        long now = System.currentTimeMillis();
+        int row;
+        while ((row = this.table.pollExpired(now)) != RequestTable.NONE) {
+            this.expire(row);
+        }
+    }
+
+    private void expire(int row) {
+        if (!this.table.compareAndSetStatus(row, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.EXPIRED)) {
+            return;
+        }
+        UUID toUUID = this.table.getTo(row);
+        Player fromPlayer = VersionHandler.getOnlinePlayer(this.table.getFrom(row));
+        this.drop(row);
+        if (fromPlayer != null) {
+            PlayerData toData = this.plugin.getDataManager().getPlayerData(toUUID);
+            String toName = FriendCommand.getDisplayName(toUUID, toData, false, true);
+            fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
+            fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)("&eYour friend request to " + toName + " &ehas expired.")));
+            fromPlayer.sendMessage(ChatColor.translateAlternateColorCodes((char)'&', (String)"&9&m-----------------------------------------------------"));
         }
-        this.activeRequests.entrySet().removeIf(entry -> ((Map)entry.getValue()).isEmpty());
     }
 
     public boolean canSendRequest(UUID playerUUID) {
         int maxRequests = 10;
-        return this.getOutgoingRequests(playerUUID).size() < maxRequests;
+        return this.getOutgoingRequestCount(playerUUID) < maxRequests;
     }
 
     public int getMaxRequests() {
@@ -208,26 +334,19 @@ public class RequestManager {
     }
 
     public void cancelAllRequestsFrom(UUID playerUUID) {
-        Map<UUID, FriendRequest> requests = this.activeRequests.remove(playerUUID);
-        if (requests != null) {
-            for (FriendRequest friendRequest : requests.values()) {
-                if (!friendRequest.isPending()) continue;
-                PlayerData toData = this.plugin.getDataManager().getPlayerData(friendRequest.getTo());
-                toData.removeIncomingRequest(playerUUID);
-                this.plugin.getDataManager().savePlayerData(toData);
-            }
+        int row = this.table.firstSent(playerUUID);
+        while (row != RequestTable.NONE) {
+            int next = this.table.nextSent(row);
+            this.drop(row);
+            row = next;
         }
-        for (Map<UUID, FriendRequest> map : this.activeRequests.values()) {
-            map.entrySet().removeIf(entry -> {
-                FriendRequest request = entry.getValue();
-                if (request.getTo().equals(playerUUID) && request.isPending()) {
-                    PlayerData fromData = this.plugin.getDataManager().getPlayerData(request.getFrom());
-                    fromData.removeOutgoingRequest(playerUUID);
-                    this.plugin.getDataManager().savePlayerData(fromData);
-                    return true;
-                }
-                return false;
-            });
+        row = this.table.firstReceived(playerUUID);
+        while (row != RequestTable.NONE) {
+            int next = this.table.nextReceived(row);
+            if (this.table.isPending(row)) {
+                this.drop(row);
+            }
+            row = next;
         }
     }
 
@@ -244,24 +363,10 @@ public class RequestManager {
         }
     }
 
-    public void loadAllPendingRequests() {
-        for (PlayerData data : this.plugin.getDataManager().getAllPlayerData().values()) {
-            UUID to = data.getPlayerUUID();
-            for (UUID from : data.getIncomingRequests().keySet()) {
-                PlayerData fromData = this.plugin.getDataManager().getPlayerData(from);
-                if (fromData == null || !fromData.hasOutgoingRequest(to)) continue;
-                FriendRequest request = new FriendRequest(from, to, data.getIncomingRequests().get(from), FriendRequest.RequestStatus.PENDING);
-                this.activeRequests.computeIfAbsent(from, k -> new HashMap()).put(to, request);
-            }
-        }
-    }
-
     public void activateRequestsFor(UUID receiverUUID) {
-        for (Map<UUID, FriendRequest> sentRequests : this.activeRequests.values()) {
-            for (FriendRequest request : sentRequests.values()) {
-                if (!request.getTo().equals(receiverUUID) || !request.isPending() || request.getActivationTimestamp() != 0L) continue;
-                request.setActivationTimestamp(System.currentTimeMillis());
-            }
+        long now = System.currentTimeMillis();
+        for (int row = this.table.firstReceived(receiverUUID); row != RequestTable.NONE; row = this.table.nextReceived(row)) {
+            this.activate(row, now);
         }
     }
 
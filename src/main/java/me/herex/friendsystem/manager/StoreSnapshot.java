@@ -0,0 +1,106 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.BinaryRecordCodec;
+import me.herex.friendsystem.storage.PlayerStore;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The whole store as it was at one point, read in chunks on the IO thread so saves can run in
+ * between, see {@link DataManager#snapshotStoreAsync()}. The player list and the requests, which
+ * are few, are read up front. Before the IO thread changes a stored player the snapshot has not
+ * reached yet, it reads that player's record first, so later writes never show up in the
+ * snapshot. Records are kept encoded with {@link BinaryRecordCodec}.
+ * <p>
+ * Only used from the IO thread until it is handed out complete.
+ */
+public final class StoreSnapshot {
+    private final List<UUID> order;
+    private final Set<UUID> unread;
+    private final Map<UUID, byte[]> records;
+    private final Map<UUID, Map<UUID, Long>> requests;
+    private int position;
+    private IOException failure;
+
+    StoreSnapshot(PlayerStore store) throws IOException {
+        this.order = new ArrayList<UUID>(store.keys());
+        this.unread = new HashSet<UUID>(this.order);
+        this.records = new HashMap<UUID, byte[]>(this.order.size() * 4 / 3 + 1);
+        this.requests = store.loadRequests();
+    }
+
+    /**
+     * Reads up to {@code count} more players.
+     *
+     * @return whether every player has been read
+     * @throws IOException if this or an earlier copy-on-write read failed
+     */
+    boolean readChunk(PlayerStore store, int count) throws IOException {
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        ArrayList<UUID> chunk = new ArrayList<UUID>(Math.min(count, this.order.size() - this.position));
+        while (chunk.size() < count && this.position < this.order.size()) {
+            UUID playerUUID = this.order.get(this.position++);
+            if (!this.unread.contains(playerUUID)) continue;
+            chunk.add(playerUUID);
+        }
+        this.read(store, chunk);
+        return this.position == this.order.size();
+    }
+
+    /**
+     * Reads the players among {@code playerUUIDs} that have not been read yet, before the caller
+     * overwrites or deletes them. A failure is kept and fails the snapshot instead of the write.
+     */
+    void preserve(PlayerStore store, Collection<UUID> playerUUIDs) {
+        if (this.failure != null) {
+            return;
+        }
+        ArrayList<UUID> chunk = new ArrayList<UUID>();
+        for (UUID playerUUID : playerUUIDs) {
+            if (!this.unread.contains(playerUUID)) continue;
+            chunk.add(playerUUID);
+        }
+        try {
+            this.read(store, chunk);
+        }
+        catch (IOException e) {
+            this.failure = e;
+        }
+    }
+
+    /**
+     * Reads every player not read yet, before the caller rewrites the store wholesale.
+     */
+    void preserveAll(PlayerStore store) {
+        this.preserve(store, new ArrayList<UUID>(this.unread));
+    }
+
+    private void read(PlayerStore store, List<UUID> chunk) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // A player the store cannot read is left out, as a full iteration would skip it.
+        for (PlayerData record : store.loadBatch(chunk).values()) {
+            this.records.put(record.getPlayerUUID(), BinaryRecordCodec.encode(record));
+        }
+        this.unread.removeAll(chunk);
+    }
+
+    public Collection<byte[]> getRecords() {
+        return this.records.values();
+    }
+
+    public Map<UUID, Map<UUID, Long>> getRequests() {
+        return this.requests;
+    }
+}
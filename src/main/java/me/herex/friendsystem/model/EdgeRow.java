@@ -0,0 +1,274 @@
+package me.herex.friendsystem.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * One player's row of the social graph: the {@link PlayerIds} of every player this one is
+ * friends with, has as best friend or has blocked, sorted ascending, with a parallel array of
+ * flag bits per entry. A reference costs 5 bytes instead of a UUID and a hash node, lookups are
+ * a binary search over one int array, and iteration is a linear scan.
+ * <p>
+ * The arrays are copy-on-write: a change replaces them, so {@link #view(byte)} can hand out a
+ * snapshot that never changes underneath the caller without copying anything, and copying the
+ * row shares them. Changes are rare next to reads, and already shift the arrays anyway.
+ * <p>
+ * Blocks are also kept in the order they were made, since that is the order /block list shows.
+ * Not thread-safe; guarded like the rest of {@link PlayerData}.
+ */
+final class EdgeRow {
+    static final byte FRIEND = 1;
+    static final byte BEST_FRIEND = 2;
+    static final byte BLOCKED = 4;
+    private static final int[] NO_IDS = new int[0];
+    private static final byte[] NO_FLAGS = new byte[0];
+    private int[] ids = NO_IDS;
+    private byte[] flags = NO_FLAGS;
+    private int[] blockOrder = NO_IDS;
+    private int friendCount;
+    private int bestFriendCount;
+
+    EdgeRow() {
+    }
+
+    EdgeRow(EdgeRow other) {
+        this.ids = other.ids;
+        this.flags = other.flags;
+        this.blockOrder = other.blockOrder;
+        this.friendCount = other.friendCount;
+        this.bestFriendCount = other.bestFriendCount;
+    }
+
+    boolean has(UUID uuid, byte flag) {
+        int id = PlayerIds.find(uuid);
+        if (id < 0) {
+            return false;
+        }
+        int index = Arrays.binarySearch(this.ids, id);
+        return index >= 0 && (this.flags[index] & flag) != 0;
+    }
+
+    /**
+     * @return whether the flag was not set before
+     */
+    boolean set(UUID uuid, byte flag) {
+        int id = PlayerIds.intern(uuid);
+        int index = Arrays.binarySearch(this.ids, id);
+        if (index >= 0) {
+            if ((this.flags[index] & flag) != 0) {
+                return false;
+            }
+            byte[] nextFlags = this.flags.clone();
+            nextFlags[index] = (byte)(nextFlags[index] | flag);
+            this.flags = nextFlags;
+        } else {
+            index = -index - 1;
+            int size = this.ids.length;
+            int[] nextIds = new int[size + 1];
+            byte[] nextFlags = new byte[size + 1];
+            System.arraycopy(this.ids, 0, nextIds, 0, index);
+            System.arraycopy(this.flags, 0, nextFlags, 0, index);
+            System.arraycopy(this.ids, index, nextIds, index + 1, size - index);
+            System.arraycopy(this.flags, index, nextFlags, index + 1, size - index);
+            nextIds[index] = id;
+            nextFlags[index] = flag;
+            this.ids = nextIds;
+            this.flags = nextFlags;
+        }
+        this.adjustCount(flag, id, 1);
+        return true;
+    }
+
+    /**
+     * @return whether the flag was set before
+     */
+    boolean clear(UUID uuid, byte flag) {
+        int id = PlayerIds.find(uuid);
+        if (id < 0) {
+            return false;
+        }
+        int index = Arrays.binarySearch(this.ids, id);
+        if (index < 0 || (this.flags[index] & flag) == 0) {
+            return false;
+        }
+        this.clearAt(index, flag);
+        return true;
+    }
+
+    void clearAll(byte flag) {
+        for (int i = this.ids.length - 1; i >= 0; --i) {
+            if ((this.flags[i] & flag) == 0) continue;
+            this.clearAt(i, flag);
+        }
+    }
+
+    int count(byte flag) {
+        switch (flag) {
+            case FRIEND: {
+                return this.friendCount;
+            }
+            case BEST_FRIEND: {
+                return this.bestFriendCount;
+            }
+        }
+        return this.blockOrder.length;
+    }
+
+    /**
+     * Adds the UUIDs with the flag to {@code target}; blocked players in the order they were blocked.
+     */
+    <C extends Collection<UUID>> C addTo(byte flag, C target) {
+        this.forEach(flag, target::add);
+        return target;
+    }
+
+    /**
+     * Visits the UUIDs with the flag without copying; blocked players in the order they were blocked.
+     */
+    void forEach(byte flag, Consumer<UUID> visitor) {
+        if (flag == BLOCKED) {
+            for (int id : this.blockOrder) {
+                visitor.accept(PlayerIds.uuid(id));
+            }
+            return;
+        }
+        int[] rowIds = this.ids;
+        byte[] rowFlags = this.flags;
+        for (int i = 0; i < rowIds.length; ++i) {
+            if ((rowFlags[i] & flag) == 0) continue;
+            visitor.accept(PlayerIds.uuid(rowIds[i]));
+        }
+    }
+
+    /**
+     * @return an unmodifiable set of the UUIDs with the flag as of now; later changes to the
+     *         row do not show up in it
+     */
+    Set<UUID> view(byte flag) {
+        return new View(this.ids, this.flags, flag == BLOCKED ? this.blockOrder : null, flag, this.count(flag));
+    }
+
+    private void clearAt(int index, byte flag) {
+        int id = this.ids[index];
+        byte remaining = (byte)(this.flags[index] & ~flag);
+        if (remaining != 0) {
+            byte[] nextFlags = this.flags.clone();
+            nextFlags[index] = remaining;
+            this.flags = nextFlags;
+        } else {
+            this.ids = EdgeRow.without(this.ids, index);
+            byte[] nextFlags = new byte[this.flags.length - 1];
+            System.arraycopy(this.flags, 0, nextFlags, 0, index);
+            System.arraycopy(this.flags, index + 1, nextFlags, index, nextFlags.length - index);
+            this.flags = nextFlags;
+        }
+        this.adjustCount(flag, id, -1);
+    }
+
+    private void adjustCount(byte flag, int id, int delta) {
+        switch (flag) {
+            case FRIEND: {
+                this.friendCount += delta;
+                return;
+            }
+            case BEST_FRIEND: {
+                this.bestFriendCount += delta;
+                return;
+            }
+        }
+        if (delta > 0) {
+            int[] nextOrder = Arrays.copyOf(this.blockOrder, this.blockOrder.length + 1);
+            nextOrder[this.blockOrder.length] = id;
+            this.blockOrder = nextOrder;
+            return;
+        }
+        for (int i = 0; i < this.blockOrder.length; ++i) {
+            if (this.blockOrder[i] != id) continue;
+            this.blockOrder = EdgeRow.without(this.blockOrder, i);
+            return;
+        }
+    }
+
+    private static int[] without(int[] values, int index) {
+        if (values.length == 1) {
+            return NO_IDS;
+        }
+        int[] next = new int[values.length - 1];
+        System.arraycopy(values, 0, next, 0, index);
+        System.arraycopy(values, index + 1, next, index, next.length - index);
+        return next;
+    }
+
+    private static final class View
+    extends AbstractSet<UUID> {
+        private final int[] ids;
+        private final byte[] flags;
+        private final int[] order;
+        private final byte flag;
+        private final int size;
+
+        private View(int[] ids, byte[] flags, int[] order, byte flag, int size) {
+            this.ids = ids;
+            this.flags = flags;
+            this.order = order;
+            this.flag = flag;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof UUID)) {
+                return false;
+            }
+            int id = PlayerIds.find((UUID)o);
+            if (id < 0) {
+                return false;
+            }
+            int index = Arrays.binarySearch(this.ids, id);
+            return index >= 0 && (this.flags[index] & this.flag) != 0;
+        }
+
+        @Override
+        public Iterator<UUID> iterator() {
+            return new Iterator<UUID>(){
+                private int position = View.this.order != null ? 0 : this.skip(0);
+
+                private int skip(int from) {
+                    while (from < View.this.ids.length && (View.this.flags[from] & View.this.flag) == 0) {
+                        ++from;
+                    }
+                    return from;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return this.position < (View.this.order != null ? View.this.order.length : View.this.ids.length);
+                }
+
+                @Override
+                public UUID next() {
+                    if (!this.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    if (View.this.order != null) {
+                        return PlayerIds.uuid(View.this.order[this.position++]);
+                    }
+                    UUID next = PlayerIds.uuid(View.this.ids[this.position]);
+                    this.position = this.skip(this.position + 1);
+                    return next;
+                }
+            };
+        }
+    }
+}
@@ -4,23 +4,21 @@
 package me.herex.friendsystem.model;
 
 import me.herex.friendsystem.model.PlayerSettings;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class PlayerData {
     private final UUID playerUUID;
     private String playerName;
-    private final Set<UUID> friends;
-    private final Map<UUID, Long> incomingRequests;
-    private final Map<UUID, Long> outgoingRequests;
+    private final EdgeRow edges;
     private PlayerSettings settings;
-    private final Set<UUID> blockedPlayers;
-    private final Set<UUID> bestFriends;
-    private final Map<UUID, String> nicknames;
+    private Map<UUID, String> nicknames;
     private String lastKnownPrefix = "";
     private String lastKnownColor = "&f";
     private long lastLogoutTime = 0L;
@@ -30,12 +28,8 @@ public class PlayerData {
     public PlayerData(UUID playerUUID) {
         this.playerUUID = playerUUID;
         this.playerName = "";
-        this.friends = new HashSet<UUID>();
-        this.incomingRequests = new HashMap<UUID, Long>();
-        this.outgoingRequests = new HashMap<UUID, Long>();
+        this.edges = new EdgeRow();
         this.settings = new PlayerSettings();
-        this.blockedPlayers = new LinkedHashSet<UUID>();
-        this.bestFriends = new HashSet<UUID>();
         this.nicknames = new HashMap<UUID, String>();
         this.lastKnownPrefix = "";
         this.lastKnownColor = "&f";
@@ -44,16 +38,15 @@ public class PlayerData {
         this.friendshipStarted = 0L;
     }
 
-    public PlayerData(UUID playerUUID, String playerName, Set<UUID> friends, Map<UUID, Long> incomingRequests, Map<UUID, Long> outgoingRequests, PlayerSettings settings, Set<UUID> blockedPlayers, Set<UUID> bestFriends, Map<UUID, String> nicknames) {
+    public PlayerData(UUID playerUUID, String playerName, Set<UUID> friends, PlayerSettings settings, Set<UUID> blockedPlayers, Set<UUID> bestFriends, Map<UUID, String> nicknames) {
         this.playerUUID = playerUUID;
         this.playerName = playerName != null ? playerName : "";
-        this.friends = friends != null ? friends : new HashSet();
-        this.incomingRequests = incomingRequests != null ? incomingRequests : new HashMap();
-        this.outgoingRequests = outgoingRequests != null ? outgoingRequests : new HashMap();
+        this.edges = new EdgeRow();
         this.settings = settings != null ? settings : new PlayerSettings();
-        this.blockedPlayers = blockedPlayers != null ? blockedPlayers : new LinkedHashSet();
-        this.bestFriends = bestFriends != null ? bestFriends : new HashSet();
         this.nicknames = nicknames != null ? nicknames : new HashMap();
+        this.addEdges(friends, EdgeRow.FRIEND);
+        this.addEdges(blockedPlayers, EdgeRow.BLOCKED);
+        this.addEdges(bestFriends, EdgeRow.BEST_FRIEND);
         this.lastKnownPrefix = "";
         this.lastKnownColor = "&f";
         this.lastLogoutTime = 0L;
@@ -64,13 +57,9 @@ public class PlayerData {
     public PlayerData(UUID playerUUID, String playerName) {
         this.playerUUID = playerUUID;
         this.playerName = playerName;
-        this.friends = new HashSet<UUID>();
-        this.blockedPlayers = new LinkedHashSet<UUID>();
+        this.edges = new EdgeRow();
         this.settings = new PlayerSettings();
-        this.incomingRequests = new HashMap<UUID, Long>();
-        this.outgoingRequests = new HashMap<UUID, Long>();
         this.appearOfflineSince = 0L;
-        this.bestFriends = new HashSet<UUID>();
         this.nicknames = new HashMap<UUID, String>();
         this.lastKnownPrefix = "";
         this.lastKnownColor = "&f";
@@ -78,6 +67,28 @@ public class PlayerData {
         this.friendshipStarted = 0L;
     }
 
+    private PlayerData(PlayerData other) {
+        this.playerUUID = other.playerUUID;
+        this.playerName = other.playerName;
+        this.edges = new EdgeRow(other.edges);
+        this.settings = other.settings.copy();
+        this.nicknames = other.nicknames;
+        this.lastKnownPrefix = other.lastKnownPrefix;
+        this.lastKnownColor = other.lastKnownColor;
+        this.lastLogoutTime = other.lastLogoutTime;
+        this.appearOfflineSince = other.appearOfflineSince;
+        this.friendshipStarted = other.friendshipStarted;
+    }
+
+    private void addEdges(Set<UUID> uuids, byte flag) {
+        if (uuids == null) {
+            return;
+        }
+        for (UUID uuid : uuids) {
+            this.edges.set(uuid, flag);
+        }
+    }
+
     public UUID getPlayerUUID() {
         return this.playerUUID;
     }
@@ -90,64 +101,39 @@ public class PlayerData {
         this.playerName = playerName != null ? playerName : "";
     }
 
+    /**
+     * @return a mutable copy; read-only callers should use {@link #getFriendsView()} or
+     *         {@link #forEachFriend(Consumer)}
+     */
     public Set<UUID> getFriends() {
-        return new HashSet<UUID>(this.friends);
-    }
-
-    public void addFriend(UUID friendUUID) {
-        this.friends.add(friendUUID);
-    }
-
-    public void removeFriend(UUID friendUUID) {
-        this.friends.remove(friendUUID);
-    }
-
-    public boolean isFriend(UUID friendUUID) {
-        return this.friends.contains(friendUUID);
-    }
-
-    public int getFriendCount() {
-        return this.friends.size();
-    }
-
-    public Map<UUID, Long> getIncomingRequests() {
-        return new HashMap<UUID, Long>(this.incomingRequests);
-    }
-
-    public void addIncomingRequest(UUID fromUUID) {
-        this.incomingRequests.put(fromUUID, System.currentTimeMillis());
-    }
-
-    public void removeIncomingRequest(UUID fromUUID) {
-        this.incomingRequests.remove(fromUUID);
+        return this.edges.addTo(EdgeRow.FRIEND, new HashSet<UUID>());
     }
 
-    public boolean hasIncomingRequest(UUID fromUUID) {
-        return this.incomingRequests.containsKey(fromUUID);
+    /**
+     * @return an unmodifiable snapshot that later changes do not affect, without copying
+     */
+    public Set<UUID> getFriendsView() {
+        return this.edges.view(EdgeRow.FRIEND);
     }
 
-    public Map<UUID, Long> getOutgoingRequests() {
-        return new HashMap<UUID, Long>(this.outgoingRequests);
+    public void forEachFriend(Consumer<UUID> visitor) {
+        this.edges.forEach(EdgeRow.FRIEND, visitor);
     }
 
-    public void addOutgoingRequest(UUID toUUID) {
-        this.outgoingRequests.put(toUUID, System.currentTimeMillis());
-    }
-
-    public void removeOutgoingRequest(UUID toUUID) {
-        this.outgoingRequests.remove(toUUID);
+    public void addFriend(UUID friendUUID) {
+        this.edges.set(friendUUID, EdgeRow.FRIEND);
     }
 
-    public boolean hasOutgoingRequest(UUID toUUID) {
-        return this.outgoingRequests.containsKey(toUUID);
+    public void removeFriend(UUID friendUUID) {
+        this.edges.clear(friendUUID, EdgeRow.FRIEND);
     }
 
-    public int getIncomingRequestCount() {
-        return this.incomingRequests.size();
+    public boolean isFriend(UUID friendUUID) {
+        return this.edges.has(friendUUID, EdgeRow.FRIEND);
     }
 
-    public int getOutgoingRequestCount() {
-        return this.outgoingRequests.size();
+    public int getFriendCount() {
+        return this.edges.count(EdgeRow.FRIEND);
     }
 
     public PlayerSettings getSettings() {
@@ -158,75 +144,103 @@ public class PlayerData {
         this.settings = settings;
     }
 
-    public void clearExpiredRequests(long timeoutMinutes) {
-        long currentTime = System.currentTimeMillis();
-        long timeoutMillis = timeoutMinutes * 60L * 1000L;
-        this.incomingRequests.entrySet().removeIf(entry -> currentTime - (Long)entry.getValue() > timeoutMillis);
-        this.outgoingRequests.entrySet().removeIf(entry -> currentTime - (Long)entry.getValue() > timeoutMillis);
+    public Set<UUID> getBlockedPlayers() {
+        return this.edges.addTo(EdgeRow.BLOCKED, new LinkedHashSet<UUID>());
     }
 
-    public Set<UUID> getBlockedPlayers() {
-        return new LinkedHashSet<UUID>(this.blockedPlayers);
+    /**
+     * @return an unmodifiable snapshot in the order the players were blocked, without copying
+     */
+    public Set<UUID> getBlockedPlayersView() {
+        return this.edges.view(EdgeRow.BLOCKED);
+    }
+
+    public void forEachBlocked(Consumer<UUID> visitor) {
+        this.edges.forEach(EdgeRow.BLOCKED, visitor);
     }
 
     public void blockPlayer(UUID uuid) {
-        this.blockedPlayers.add(uuid);
+        this.edges.set(uuid, EdgeRow.BLOCKED);
     }
 
     public void unblockPlayer(UUID uuid) {
-        this.blockedPlayers.remove(uuid);
+        this.edges.clear(uuid, EdgeRow.BLOCKED);
     }
 
     public boolean isBlocked(UUID uuid) {
-        return this.blockedPlayers.contains(uuid);
+        return this.edges.has(uuid, EdgeRow.BLOCKED);
     }
 
     public void unblockAll() {
-        this.blockedPlayers.clear();
+        this.edges.clearAll(EdgeRow.BLOCKED);
+    }
+
+    public int getBlockedCount() {
+        return this.edges.count(EdgeRow.BLOCKED);
     }
 
     public Set<UUID> getBestFriends() {
-        return new HashSet<UUID>(this.bestFriends);
+        return this.edges.addTo(EdgeRow.BEST_FRIEND, new HashSet<UUID>());
+    }
+
+    public Set<UUID> getBestFriendsView() {
+        return this.edges.view(EdgeRow.BEST_FRIEND);
+    }
+
+    public void forEachBestFriend(Consumer<UUID> visitor) {
+        this.edges.forEach(EdgeRow.BEST_FRIEND, visitor);
     }
 
     public boolean isBestFriend(UUID uuid) {
-        return this.bestFriends.contains(uuid);
+        return this.edges.has(uuid, EdgeRow.BEST_FRIEND);
     }
 
     public void addBestFriend(UUID uuid) {
-        this.bestFriends.add(uuid);
+        this.edges.set(uuid, EdgeRow.BEST_FRIEND);
     }
 
     public void removeBestFriend(UUID uuid) {
-        this.bestFriends.remove(uuid);
+        this.edges.clear(uuid, EdgeRow.BEST_FRIEND);
     }
 
     public void toggleBestFriend(UUID uuid) {
-        if (this.bestFriends.contains(uuid)) {
-            this.bestFriends.remove(uuid);
-        } else {
-            this.bestFriends.add(uuid);
+        if (!this.edges.clear(uuid, EdgeRow.BEST_FRIEND)) {
+            this.edges.set(uuid, EdgeRow.BEST_FRIEND);
         }
     }
 
+    public int getBestFriendCount() {
+        return this.edges.count(EdgeRow.BEST_FRIEND);
+    }
+
     public Map<UUID, String> getNicknames() {
         return new HashMap<UUID, String>(this.nicknames);
     }
 
+    public Map<UUID, String> getNicknamesView() {
+        return Collections.unmodifiableMap(this.nicknames);
+    }
+
     public String getNickname(UUID uuid) {
         return this.nicknames.get(uuid);
     }
 
     public void setNickname(UUID uuid, String nickname) {
         if (nickname == null || nickname.isEmpty()) {
-            this.nicknames.remove(uuid);
+            this.removeNickname(uuid);
         } else {
-            this.nicknames.put(uuid, nickname);
+            HashMap<UUID, String> next = new HashMap<UUID, String>(this.nicknames);
+            next.put(uuid, nickname);
+            this.nicknames = next;
         }
     }
 
     public void removeNickname(UUID uuid) {
-        this.nicknames.remove(uuid);
+        if (this.nicknames.containsKey(uuid)) {
+            HashMap<UUID, String> next = new HashMap<UUID, String>(this.nicknames);
+            next.remove(uuid);
+            this.nicknames = next;
+        }
     }
 
     public String getLastKnownPrefix() {
@@ -269,8 +283,17 @@ public class PlayerData {
         this.friendshipStarted = friendshipStarted;
     }
 
+    /**
+     * Returns a detached copy, used to hand a consistent view of this record to the IO thread.
+     * Friend, block and nickname collections are copy-on-write, so the copy shares them until
+     * either side changes.
+     */
+    public PlayerData copy() {
+        return new PlayerData(this);
+    }
+
     public String toString() {
-        return "PlayerData{playerUUID=" + this.playerUUID + ", friends=" + this.friends.size() + ", blockedPlayers=" + this.blockedPlayers.size() + ", incomingRequests=" + this.incomingRequests.size() + ", outgoingRequests=" + this.outgoingRequests.size() + ", settings=" + this.settings + '}';
+        return "PlayerData{playerUUID=" + this.playerUUID + ", friends=" + this.getFriendCount() + ", blockedPlayers=" + this.getBlockedCount() + ", settings=" + this.settings + '}';
     }
 }
 
@@ -0,0 +1,74 @@
+package me.herex.friendsystem.model;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Process-wide table that gives every player UUID a small int id, so references between
+ * players can be stored as ints (see {@link EdgeRow}) instead of one UUID object and hash node
+ * each. Ids are dense, start at 0 and are never reused or released; the table grows with the
+ * number of distinct players referenced since startup.
+ * <p>
+ * Only {@link EdgeRow#set} and {@link RequestTable#add} assign ids, so the table is bounded by
+ * the players that appeared in a loaded friendship, block or request since the server started,
+ * never by lookups of unknown players. An id costs about 72 bytes (16 bytes of bits, up to 16
+ * bytes of slots, a reference and the shared UUID), so 100,000 such players take about 7 MB.
+ * Releasing ids would mean counting references from every row and request, which costs more
+ * than it saves at that size; the table starts empty again on restart.
+ * <p>
+ * The index is a {@link UuidSet}, so it holds no boxed ids or hash nodes, and the id of a UUID
+ * is its insertion index. The first UUID instance seen for each id is kept as well, so
+ * {@link #uuid} and everything iterating an {@link EdgeRow} hand out shared instances instead of
+ * allocating one per element. Lookups are lock-free. Interning a new UUID takes a lock.
+ */
+public final class PlayerIds {
+    private static final Object LOCK = new Object();
+    private static final UuidSet IDS = new UuidSet(1024);
+    private static volatile UUID[] uuids = new UUID[1024];
+
+    private PlayerIds() {
+    }
+
+    /**
+     * @return the id of the UUID, assigning the next free one if it has none yet
+     */
+    public static int intern(UUID uuid) {
+        int id = IDS.indexOf(uuid);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (LOCK) {
+            id = IDS.indexOf(uuid);
+            if (id >= 0) {
+                return id;
+            }
+            id = IDS.size();
+            UUID[] table = uuids;
+            if (id == table.length) {
+                table = Arrays.copyOf(table, id * 2);
+            }
+            table[id] = uuid;
+            // Publish the instance before the id can be looked up.
+            uuids = table;
+            return IDS.add(uuid);
+        }
+    }
+
+    /**
+     * @return the id of the UUID, or -1 if it was never interned; never assigns one
+     */
+    public static int find(UUID uuid) {
+        return IDS.indexOf(uuid);
+    }
+
+    /**
+     * @return the instance the id was assigned to, so mapping ids back does not allocate
+     */
+    public static UUID uuid(int id) {
+        return uuids[id];
+    }
+
+    public static int size() {
+        return IDS.size();
+    }
+}
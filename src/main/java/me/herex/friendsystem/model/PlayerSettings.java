@@ -102,6 +102,18 @@ public class PlayerSettings {
         this.notificationLevel = level;
     }
 
+    public PlayerSettings copy() {
+        PlayerSettings copy = new PlayerSettings();
+        copy.requestPrivacy = this.requestPrivacy;
+        copy.notifyOnline = this.notifyOnline;
+        copy.allowJoin = this.allowJoin;
+        copy.notifyJoin = this.notifyJoin;
+        copy.onlineStatus = this.onlineStatus;
+        copy.messagePrivacy = this.messagePrivacy;
+        copy.notificationLevel = this.notificationLevel;
+        return copy;
+    }
+
     public String toString() {
         return "PlayerSettings{requestPrivacy=" + (Object)((Object)this.requestPrivacy) + ", notifyOnline=" + this.notifyOnline + ", allowJoin=" + this.allowJoin + ", notifyJoin=" + this.notifyJoin + ", onlineStatus=" + (Object)((Object)this.onlineStatus) + ", messagePrivacy=" + (Object)((Object)this.messagePrivacy) + '}';
     }
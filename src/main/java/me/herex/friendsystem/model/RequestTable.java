@@ -0,0 +1,426 @@
+package me.herex.friendsystem.model;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The live friend requests as packed rows: parallel arrays of sender and receiver
+ * {@link PlayerIds}, sent time, activation time and status, with no object per request. Every
+ * row is also threaded into two doubly linked chains through index arrays, one per sender and one
+ * per receiver, whose heads are indexed by player id, so both directions are walked without a
+ * map. Removed rows go on a free list and are reused; every reuse bumps the row's stamp, see
+ * {@link #getStamp}.
+ * <p>
+ * Rows given a deadline are kept in a hand-written binary min-heap of (deadline, row) pairs, so
+ * expiry only looks at the rows that are due. A row keeps its earliest deadline. Heap entries are
+ * not removed with their row; {@link #pollExpired} skips the stale ones, and the heap is rebuilt
+ * from the live deadlines instead of grown once more than half of it is stale, so it stays within
+ * a small multiple of {@link #size}.
+ * <p>
+ * Rows are addressed by index and walked cursor style, {@link #NONE} ending a chain:
+ * <pre>
+ * for (int row = table.firstReceived(uuid); row != RequestTable.NONE; row = table.nextReceived(row))
+ * </pre>
+ * Not thread-safe; the table is only used on the main thread. Transitions out of {@code PENDING}
+ * go through {@link #compareAndSetStatus}, so a handler re-entered while another is still acting
+ * on the row, e.g. from an event fired while a friendship is added, sees the new status and backs
+ * off instead of acting on the request twice. A handler that holds a row across such code checks
+ * the row's stamp before touching it again, since the row may have been removed and reused.
+ */
+public final class RequestTable {
+    public static final int NONE = -1;
+    private static final FriendRequest.RequestStatus[] STATUSES = FriendRequest.RequestStatus.values();
+    // Status column value of a row on the free list; live rows store ordinal + 1.
+    private static final int FREE = 0;
+    private int[] from;
+    private int[] to;
+    private long[] sentAt;
+    private long[] activatedAt;
+    private long[] deadlines;
+    private int[] status;
+    private int[] stamps;
+    private int[] nextSent;
+    private int[] prevSent;
+    private int[] nextReceived;
+    private int[] prevReceived;
+    private int[] sentHead = new int[0];
+    private int[] receivedHead = new int[0];
+    private int rowLimit;
+    private int size;
+    private int freeRow = NONE;
+    private long[] heapTimes = new long[16];
+    private int[] heapRows = new int[16];
+    private int heapSize;
+
+    public RequestTable() {
+        this(64);
+    }
+
+    public RequestTable(int capacity) {
+        capacity = Math.max(capacity, 8);
+        this.from = new int[capacity];
+        this.to = new int[capacity];
+        this.sentAt = new long[capacity];
+        this.activatedAt = new long[capacity];
+        this.deadlines = new long[capacity];
+        this.status = new int[capacity];
+        this.stamps = new int[capacity];
+        this.nextSent = new int[capacity];
+        this.prevSent = new int[capacity];
+        this.nextReceived = new int[capacity];
+        this.prevReceived = new int[capacity];
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return one past the highest row ever used; rows below it are either live or free
+     */
+    public int rowLimit() {
+        return this.rowLimit;
+    }
+
+    /**
+     * @return the row of the request from {@code fromUUID} to {@code toUUID}, or {@link #NONE}
+     */
+    public int find(UUID fromUUID, UUID toUUID) {
+        int toId = PlayerIds.find(toUUID);
+        if (toId < 0) {
+            return NONE;
+        }
+        for (int row = this.firstSent(fromUUID); row != NONE; row = this.nextSent[row]) {
+            if (this.to[row] == toId) {
+                return row;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Adds a pending, not yet activated request unless one between the two players in that
+     * direction is already present.
+     *
+     * @return the new row, or {@link #NONE} if the request was already present
+     */
+    public int add(UUID fromUUID, UUID toUUID, long sent) {
+        if (this.find(fromUUID, toUUID) != NONE) {
+            return NONE;
+        }
+        int fromId = PlayerIds.intern(fromUUID);
+        int toId = PlayerIds.intern(toUUID);
+        this.ensureHeads(Math.max(fromId, toId) + 1);
+        int row = this.allocate();
+        this.from[row] = fromId;
+        this.to[row] = toId;
+        this.sentAt[row] = sent;
+        this.activatedAt[row] = 0L;
+        this.deadlines[row] = 0L;
+        this.setStatus(row, FriendRequest.RequestStatus.PENDING);
+        this.prevSent[row] = NONE;
+        this.nextSent[row] = this.sentHead[fromId];
+        if (this.nextSent[row] != NONE) {
+            this.prevSent[this.nextSent[row]] = row;
+        }
+        this.sentHead[fromId] = row;
+        this.prevReceived[row] = NONE;
+        this.nextReceived[row] = this.receivedHead[toId];
+        if (this.nextReceived[row] != NONE) {
+            this.prevReceived[this.nextReceived[row]] = row;
+        }
+        this.receivedHead[toId] = row;
+        ++this.size;
+        return row;
+    }
+
+    public void remove(int row) {
+        if (!this.isLive(row)) {
+            return;
+        }
+        if (this.prevSent[row] != NONE) {
+            this.nextSent[this.prevSent[row]] = this.nextSent[row];
+        } else {
+            this.sentHead[this.from[row]] = this.nextSent[row];
+        }
+        if (this.nextSent[row] != NONE) {
+            this.prevSent[this.nextSent[row]] = this.prevSent[row];
+        }
+        if (this.prevReceived[row] != NONE) {
+            this.nextReceived[this.prevReceived[row]] = this.nextReceived[row];
+        } else {
+            this.receivedHead[this.to[row]] = this.nextReceived[row];
+        }
+        if (this.nextReceived[row] != NONE) {
+            this.prevReceived[this.nextReceived[row]] = this.prevReceived[row];
+        }
+        this.status[row] = FREE;
+        ++this.stamps[row];
+        this.nextSent[row] = this.freeRow;
+        this.freeRow = row;
+        --this.size;
+    }
+
+    /**
+     * Removes every request sent by or to the player.
+     */
+    public void removeAll(UUID playerUUID) {
+        int row = this.firstSent(playerUUID);
+        while (row != NONE) {
+            int next = this.nextSent[row];
+            this.remove(row);
+            row = next;
+        }
+        row = this.firstReceived(playerUUID);
+        while (row != NONE) {
+            int next = this.nextReceived[row];
+            this.remove(row);
+            row = next;
+        }
+    }
+
+    public int firstSent(UUID fromUUID) {
+        int id = PlayerIds.find(fromUUID);
+        return id < 0 || id >= this.sentHead.length ? NONE : this.sentHead[id];
+    }
+
+    public int nextSent(int row) {
+        return this.nextSent[row];
+    }
+
+    public int firstReceived(UUID toUUID) {
+        int id = PlayerIds.find(toUUID);
+        return id < 0 || id >= this.receivedHead.length ? NONE : this.receivedHead[id];
+    }
+
+    public int nextReceived(int row) {
+        return this.nextReceived[row];
+    }
+
+    public boolean isLive(int row) {
+        return row >= 0 && row < this.rowLimit && this.status[row] != FREE;
+    }
+
+    public boolean isPending(int row) {
+        return row >= 0 && row < this.rowLimit && this.status[row] == FriendRequest.RequestStatus.PENDING.ordinal() + 1;
+    }
+
+    /**
+     * @return a number that changes whenever the row is removed, so a caller that kept a row
+     * can tell whether it still holds the same request
+     */
+    public int getStamp(int row) {
+        return this.stamps[row];
+    }
+
+    public UUID getFrom(int row) {
+        return PlayerIds.uuid(this.from[row]);
+    }
+
+    public UUID getTo(int row) {
+        return PlayerIds.uuid(this.to[row]);
+    }
+
+    public long getSentAt(int row) {
+        return this.sentAt[row];
+    }
+
+    public long getActivatedAt(int row) {
+        return this.activatedAt[row];
+    }
+
+    /**
+     * @return when the row expires, or 0 if it has no deadline
+     */
+    public long getDeadline(int row) {
+        return this.deadlines[row];
+    }
+
+    public FriendRequest.RequestStatus getStatus(int row) {
+        return STATUSES[this.status[row] - 1];
+    }
+
+    public void setStatus(int row, FriendRequest.RequestStatus status) {
+        this.status[row] = status.ordinal() + 1;
+    }
+
+    /**
+     * Moves a live row from one status to another.
+     *
+     * @return whether the row was live with status {@code expected} and now has {@code status}
+     */
+    public boolean compareAndSetStatus(int row, FriendRequest.RequestStatus expected, FriendRequest.RequestStatus status) {
+        if (row < 0 || row >= this.rowLimit || this.status[row] != expected.ordinal() + 1) {
+            return false;
+        }
+        this.status[row] = status.ordinal() + 1;
+        return true;
+    }
+
+    /**
+     * Records that the receiver of a pending request was online for it at {@code time}. A request
+     * keeps the earliest time it was activated at; the caller sets the deadline that follows.
+     *
+     * @return whether the activation time changed
+     */
+    public boolean activate(int row, long time) {
+        if (!this.isPending(row)) {
+            return false;
+        }
+        long current = this.activatedAt[row];
+        if (current != 0L && current <= time) {
+            return false;
+        }
+        this.activatedAt[row] = time;
+        return true;
+    }
+
+    /**
+     * Queues a pending request to expire at {@code deadline}, unless it already expires earlier.
+     *
+     * @return whether the deadline changed
+     */
+    public boolean expireAt(int row, long deadline) {
+        if (!this.isPending(row)) {
+            return false;
+        }
+        long current = this.deadlines[row];
+        if (current != 0L && current <= deadline) {
+            return false;
+        }
+        this.deadlines[row] = deadline;
+        this.push(deadline, row);
+        return true;
+    }
+
+    /**
+     * Takes the next pending request whose deadline is before {@code now} off the heap.
+     *
+     * @return its row, or {@link #NONE} once no more are due
+     */
+    public int pollExpired(long now) {
+        while (this.heapSize > 0 && this.heapTimes[0] < now) {
+            long time = this.heapTimes[0];
+            int row = this.heapRows[0];
+            this.pop();
+            if (!this.isLiveEntry(time, row)) continue;
+            return row;
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the number of heap entries, stale ones included
+     */
+    int heapSize() {
+        return this.heapSize;
+    }
+
+    /**
+     * @return a detached copy of the row, for callers that want a {@link FriendRequest}
+     */
+    public FriendRequest toRequest(int row) {
+        FriendRequest request = new FriendRequest(this.getFrom(row), this.getTo(row), this.sentAt[row], this.getStatus(row));
+        request.setActivationTimestamp(this.activatedAt[row]);
+        return request;
+    }
+
+    private int allocate() {
+        int row = this.freeRow;
+        if (row != NONE) {
+            this.freeRow = this.nextSent[row];
+            return row;
+        }
+        if (this.rowLimit == this.from.length) {
+            int capacity = this.from.length << 1;
+            this.from = Arrays.copyOf(this.from, capacity);
+            this.to = Arrays.copyOf(this.to, capacity);
+            this.sentAt = Arrays.copyOf(this.sentAt, capacity);
+            this.activatedAt = Arrays.copyOf(this.activatedAt, capacity);
+            this.deadlines = Arrays.copyOf(this.deadlines, capacity);
+            this.status = Arrays.copyOf(this.status, capacity);
+            this.stamps = Arrays.copyOf(this.stamps, capacity);
+            this.nextSent = Arrays.copyOf(this.nextSent, capacity);
+            this.prevSent = Arrays.copyOf(this.prevSent, capacity);
+            this.nextReceived = Arrays.copyOf(this.nextReceived, capacity);
+            this.prevReceived = Arrays.copyOf(this.prevReceived, capacity);
+        }
+        return this.rowLimit++;
+    }
+
+    private void ensureHeads(int ids) {
+        int length = this.sentHead.length;
+        if (ids <= length) {
+            return;
+        }
+        int capacity = Math.max(ids, Math.max(64, length << 1));
+        this.sentHead = Arrays.copyOf(this.sentHead, capacity);
+        this.receivedHead = Arrays.copyOf(this.receivedHead, capacity);
+        Arrays.fill(this.sentHead, length, capacity, NONE);
+        Arrays.fill(this.receivedHead, length, capacity, NONE);
+    }
+
+    private boolean isLiveEntry(long time, int row) {
+        return this.isPending(row) && this.deadlines[row] == time;
+    }
+
+    private void push(long time, int row) {
+        if (this.heapSize == this.heapTimes.length && this.heapSize > this.size << 1) {
+            this.compact();
+        }
+        if (this.heapSize == this.heapTimes.length) {
+            this.heapTimes = Arrays.copyOf(this.heapTimes, this.heapSize << 1);
+            this.heapRows = Arrays.copyOf(this.heapRows, this.heapSize << 1);
+        }
+        int index = this.heapSize++;
+        while (index > 0) {
+            int parent = index - 1 >>> 1;
+            if (this.heapTimes[parent] <= time) break;
+            this.heapTimes[index] = this.heapTimes[parent];
+            this.heapRows[index] = this.heapRows[parent];
+            index = parent;
+        }
+        this.heapTimes[index] = time;
+        this.heapRows[index] = row;
+    }
+
+    /**
+     * Drops the stale entries and restores the heap order bottom-up.
+     */
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < this.heapSize; ++i) {
+            if (!this.isLiveEntry(this.heapTimes[i], this.heapRows[i])) continue;
+            this.heapTimes[live] = this.heapTimes[i];
+            this.heapRows[live] = this.heapRows[i];
+            ++live;
+        }
+        this.heapSize = live;
+        for (int index = (live >>> 1) - 1; index >= 0; --index) {
+            this.siftDown(index, this.heapTimes[index], this.heapRows[index], live);
+        }
+    }
+
+    private void pop() {
+        int last = --this.heapSize;
+        if (last > 0) {
+            this.siftDown(0, this.heapTimes[last], this.heapRows[last], last);
+        }
+    }
+
+    private void siftDown(int index, long time, int row, int size) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            if (child + 1 < size && this.heapTimes[child + 1] < this.heapTimes[child]) {
+                ++child;
+            }
+            if (time <= this.heapTimes[child]) break;
+            this.heapTimes[index] = this.heapTimes[child];
+            this.heapRows[index] = this.heapRows[child];
+            index = child;
+        }
+        this.heapTimes[index] = time;
+        this.heapRows[index] = row;
+    }
+}
@@ -0,0 +1,132 @@
+package me.herex.friendsystem.model;
+
+import java.util.UUID;
+
+/**
+ * Insertion-ordered set of UUIDs stored as raw bits: members live in one {@code long[]} in the
+ * order they were added (most significant bits, then least significant bits), and an
+ * open-addressing table of {@code int} slots with linear probing points into it. A member costs
+ * 16 bytes plus at most 16 bytes of slots, with no objects per member, and lookups do not
+ * allocate.
+ * <p>
+ * Members get a dense index in insertion order and are never removed, which is what
+ * {@link PlayerIds} needs. Additions must be serialized by the caller; lookups are safe from any
+ * thread at the same time, since a grown table is published as a whole and a lookup racing with
+ * an addition at worst misses the member being added.
+ */
+public final class UuidSet {
+    private volatile Table table;
+    private volatile int size;
+
+    public UuidSet(int expectedSize) {
+        this.table = new Table(Integer.highestOneBit(Math.max(8, expectedSize) - 1) << 2);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean contains(UUID uuid) {
+        return this.indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    public int indexOf(UUID uuid) {
+        return this.indexOf(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @return the insertion index of the member, or -1
+     */
+    public int indexOf(long mostSigBits, long leastSigBits) {
+        Table current = this.table;
+        int mask = current.slots.length - 1;
+        int slot = UuidSet.hash(mostSigBits, leastSigBits) & mask;
+        while (true) {
+            int entry = current.slots[slot] - 1;
+            if (entry < 0) {
+                return -1;
+            }
+            if (current.bits[entry << 1] == mostSigBits && current.bits[(entry << 1) + 1] == leastSigBits) {
+                return entry;
+            }
+            slot = slot + 1 & mask;
+        }
+    }
+
+    /**
+     * Adds the UUID unless it is already a member. Callers must not add concurrently.
+     *
+     * @return the insertion index of the member
+     */
+    public int add(UUID uuid) {
+        long mostSigBits = uuid.getMostSignificantBits();
+        long leastSigBits = uuid.getLeastSignificantBits();
+        int existing = this.indexOf(mostSigBits, leastSigBits);
+        if (existing >= 0) {
+            return existing;
+        }
+        Table current = this.table;
+        int index = this.size;
+        if (index << 1 == current.bits.length) {
+            current = current.grow(index);
+        }
+        current.bits[index << 1] = mostSigBits;
+        current.bits[(index << 1) + 1] = leastSigBits;
+        current.insert(index);
+        this.table = current;
+        this.size = index + 1;
+        return index;
+    }
+
+    /**
+     * @return a new UUID with the bits of the member at {@code index}
+     */
+    public UUID get(int index) {
+        long[] bits = this.table.bits;
+        return new UUID(bits[index << 1], bits[(index << 1) + 1]);
+    }
+
+    public long getMostSignificantBits(int index) {
+        return this.table.bits[index << 1];
+    }
+
+    public long getLeastSignificantBits(int index) {
+        return this.table.bits[(index << 1) + 1];
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        long mixed = (mostSigBits ^ leastSigBits) * -7046029254386353131L;
+        return (int)(mixed ^ mixed >>> 32);
+    }
+
+    private static final class Table {
+        private final long[] bits;
+        private final int[] slots;
+
+        private Table(int slotCount) {
+            this.slots = new int[slotCount];
+            this.bits = new long[slotCount];
+        }
+
+        /**
+         * Points a free slot at the member with this index.
+         */
+        private void insert(int index) {
+            int mask = this.slots.length - 1;
+            int slot = UuidSet.hash(this.bits[index << 1], this.bits[(index << 1) + 1]) & mask;
+            while (this.slots[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+            this.slots[slot] = index + 1;
+        }
+
+        private Table grow(int size) {
+            Table grown = new Table(this.slots.length << 1);
+            System.arraycopy(this.bits, 0, grown.bits, 0, size << 1);
+            for (int i = 0; i < size; ++i) {
+                grown.insert(i);
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compressed snapshot of every stored player and pending request, kept as rotating
+ * generations in a folder:
+ * <pre>
+ * i32 magic "FSBK", i32 version
+ * deflated: i64 creation time, i32 record count,
+ *           record count x (i32 length, {@link BinaryRecordCodec} record),
+ *           i32 request count, request count x (i64, i64 sender, i64, i64 receiver, i64 sent time),
+ *           i64 CRC32 of all records and requests
+ * </pre>
+ * Version 1 files have no request section; their requests are read from the records, where
+ * that version kept them.
+ * Files are named {@code friends-yyyyMMdd-HHmmss.fsb}; a second backup within the same second
+ * gets a sequence number, {@code friends-yyyyMMdd-HHmmss-1.fsb}, instead of replacing the first.
+ */
+public class BackupArchive {
+    private static final int MAGIC = 0x4653424B;
+    private static final int VERSION = 2;
+    private static final int VERSION_RECORD_REQUESTS = 1;
+    private static final String PREFIX = "friends-";
+    private static final String SUFFIX = ".fsb";
+    private static final int STAMP_LENGTH = "yyyyMMdd-HHmmss".length();
+    private static final Comparator<File> OLDEST_FIRST = Comparator.comparing((File file) -> BackupArchive.stamp(file.getName())).thenComparingInt(file -> BackupArchive.sequence(file.getName()));
+    private final File folder;
+
+    public BackupArchive(File folder) {
+        this.folder = folder;
+    }
+
+    public File getFolder() {
+        return this.folder;
+    }
+
+    /**
+     * Compresses the encoded records and the requests into a new generation and fsyncs it. The file name is claimed
+     * before writing, so concurrent backups never write to the same file.
+     *
+     * @return the file written
+     */
+    public File write(long created, Collection<byte[]> records, Map<UUID, Map<UUID, Long>> requests, int level) throws IOException {
+        File target = this.claim(PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(created)));
+        Deflater deflater = new Deflater(Math.max(1, Math.min(9, level)));
+        boolean written = false;
+        try {
+            FileUtil.writeAtomically(target, stream -> {
+                DataOutputStream header = new DataOutputStream(stream);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.flush();
+                DeflaterOutputStream deflated = new DeflaterOutputStream(stream, deflater, 65536);
+                DataOutputStream out = new DataOutputStream(deflated);
+                out.writeLong(created);
+                out.writeInt(records.size());
+                CRC32 crc = new CRC32();
+                for (byte[] record : records) {
+                    crc.update(record, 0, record.length);
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+                int count = 0;
+                for (Map<UUID, Long> outgoing : requests.values()) {
+                    count += outgoing.size();
+                }
+                out.writeInt(count);
+                DataOutputStream rows = new DataOutputStream(new CheckedOutputStream(out, crc));
+                for (Map.Entry<UUID, Map<UUID, Long>> sender : requests.entrySet()) {
+                    for (Map.Entry<UUID, Long> request : sender.getValue().entrySet()) {
+                        rows.writeLong(sender.getKey().getMostSignificantBits());
+                        rows.writeLong(sender.getKey().getLeastSignificantBits());
+                        rows.writeLong(request.getKey().getMostSignificantBits());
+                        rows.writeLong(request.getKey().getLeastSignificantBits());
+                        rows.writeLong(request.getValue());
+                    }
+                }
+                rows.flush();
+                out.writeLong(crc.getValue());
+                deflated.finish();
+            });
+            written = true;
+        }
+        finally {
+            deflater.end();
+            if (!written) {
+                target.delete();
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Creates an empty file named {@code base}, or {@code base-1}, {@code base-2} and so on if
+     * that name is taken.
+     */
+    private File claim(String base) throws IOException {
+        if (!this.folder.isDirectory() && !this.folder.mkdirs()) {
+            throw new IOException("Could not create directory " + this.folder);
+        }
+        for (int sequence = 0; sequence < 1000; ++sequence) {
+            File target = new File(this.folder, base + (sequence == 0 ? "" : "-" + sequence) + SUFFIX);
+            if (!target.createNewFile()) continue;
+            return target;
+        }
+        throw new IOException("Too many backups named " + base + " in " + this.folder);
+    }
+
+    /**
+     * Reads a whole generation back.
+     *
+     * @throws IOException if the file is not a backup or any part of it is damaged
+     */
+    public static Contents read(File file) throws IOException {
+        Inflater inflater = new Inflater();
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            DataInputStream header = new DataInputStream(fileIn);
+            if (header.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a FriendSystem backup");
+            }
+            int version = header.readInt();
+            if (version != VERSION && version != VERSION_RECORD_REQUESTS) {
+                throw new IOException(file.getName() + " has unsupported version " + version);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(fileIn, inflater, 65536), 65536));
+            in.readLong();
+            int count = in.readInt();
+            ArrayList<PlayerData> records = new ArrayList<PlayerData>(Math.max(0, Math.min(count, 1048576)));
+            LegacyRequests legacy = new LegacyRequests();
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; ++i) {
+                int length = in.readInt();
+                if (length < 0 || length > 16777216) {
+                    throw new IOException(file.getName() + " is damaged at record " + i + " of " + count);
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.update(record, 0, record.length);
+                records.add(BinaryRecordCodec.decode(record));
+                if (version != VERSION_RECORD_REQUESTS) continue;
+                BinaryRecordCodec.readLegacyRequests(record, legacy);
+            }
+            Map<UUID, Map<UUID, Long>> requests = version == VERSION_RECORD_REQUESTS ? legacy.agreed() : BackupArchive.readRequests(in, crc, file);
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException(file.getName() + " failed its checksum");
+            }
+            return new Contents(records, requests);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static Map<UUID, Map<UUID, Long>> readRequests(DataInputStream in, CRC32 crc, File file) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException(file.getName() + " is damaged at its requests");
+        }
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        DataInputStream rows = new DataInputStream(new CheckedInputStream(in, crc));
+        for (int i = 0; i < count; ++i) {
+            UUID sender = new UUID(rows.readLong(), rows.readLong());
+            UUID receiver = new UUID(rows.readLong(), rows.readLong());
+            requests.computeIfAbsent(sender, uuid -> new HashMap<UUID, Long>()).put(receiver, rows.readLong());
+        }
+        return requests;
+    }
+
+    /**
+     * @return the generations in this folder, newest first
+     */
+    public List<File> list() {
+        File[] files = this.folder.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files, OLDEST_FIRST.reversed());
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    /**
+     * @param name a file name as listed, with or without the extension, or {@code latest}
+     * @return the matching generation, or {@code null}
+     */
+    public File find(String name) {
+        List<File> generations = this.list();
+        if (name.equalsIgnoreCase("latest")) {
+            return generations.isEmpty() ? null : generations.get(0);
+        }
+        for (File generation : generations) {
+            if (!generation.getName().equalsIgnoreCase(name) && !generation.getName().equalsIgnoreCase(name + SUFFIX)) continue;
+            return generation;
+        }
+        return null;
+    }
+
+    private static String stamp(String name) {
+        return name.substring(PREFIX.length(), Math.min(name.length() - SUFFIX.length(), PREFIX.length() + STAMP_LENGTH));
+    }
+
+    /**
+     * @return the sequence number after the time stamp, or 0 if there is none
+     */
+    private static int sequence(String name) {
+        int start = PREFIX.length() + STAMP_LENGTH + 1;
+        int end = name.length() - SUFFIX.length();
+        if (start > end) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(start, end));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes all but the newest {@code keep} generations.
+     *
+     * @return the number of files deleted
+     */
+    public int rotate(int keep) {
+        List<File> generations = this.list();
+        int deleted = 0;
+        for (int i = Math.max(1, keep); i < generations.size(); ++i) {
+            if (!generations.get(i).delete()) continue;
+            ++deleted;
+        }
+        return deleted;
+    }
+
+    /**
+     * A generation as read back: the records and the requests, sender to receiver to sent time.
+     */
+    public static class Contents {
+        private final List<PlayerData> records;
+        private final Map<UUID, Map<UUID, Long>> requests;
+
+        private Contents(List<PlayerData> records, Map<UUID, Map<UUID, Long>> requests) {
+            this.records = records;
+            this.requests = requests;
+        }
+
+        public List<PlayerData> getRecords() {
+            return this.records;
+        }
+
+        public Map<UUID, Map<UUID, Long>> getRequests() {
+            return this.requests;
+        }
+    }
+}
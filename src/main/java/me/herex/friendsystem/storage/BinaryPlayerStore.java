@@ -0,0 +1,222 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * All players in a single data.dat of {@link BinaryRecordCodec} records:
+ * <pre>
+ * i32 magic "FSDB", i32 file version, i32 record count
+ * record count x (i32 length, record bytes)
+ * </pre>
+ * Records are kept encoded in memory and decoded on load, so a save only encodes the changed
+ * players and copies the rest as raw bytes. Requests are kept in a {@link RequestFile} next to
+ * data.dat.
+ * <p>
+ * It is still a single-file format: every save writes the whole file, so that the count in the
+ * header and the file as a whole are replaced atomically. For large servers, where that write
+ * dominates, {@link KeyValuePlayerStore} keeps the same records but appends only the changed
+ * ones; the store warns at startup once it is large (see {@link PlayerStores#warnIfLarge}).
+ */
+public class BinaryPlayerStore implements PlayerStore {
+    private static final int MAGIC = 0x46534442;
+    private static final int FILE_VERSION = 1;
+    private final File dataFile;
+    private final Logger logger;
+    private final RequestFile requests;
+    private final Map<UUID, byte[]> records = new ConcurrentHashMap<UUID, byte[]>();
+    private volatile String damage;
+
+    public BinaryPlayerStore(File dataFile, Logger logger) {
+        this.dataFile = dataFile;
+        this.logger = logger;
+        this.requests = new RequestFile(dataFile);
+    }
+
+    /**
+     * Indexes the records by UUID after checking each one's CRC; they are only decoded on load.
+     * If the file is damaged the intact records are kept and a copy of the original is put aside
+     * first, since the next save rewrites the file from what was loaded.
+     */
+    @Override
+    public void open() throws IOException {
+        this.records.clear();
+        this.damage = null;
+        if (!this.dataFile.isFile() || this.dataFile.length() == 0L) {
+            return;
+        }
+        boolean recognized = false;
+        String damage = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.dataFile), 65536))) {
+            recognized = in.readInt() == MAGIC && in.readInt() == FILE_VERSION;
+            int count = recognized ? in.readInt() : 0;
+            for (int i = 0; i < count; ++i) {
+                int length = in.readInt();
+                if (length < 0 || length > 16777216) {
+                    damage = "corrupt record length " + length + " at record " + i + " of " + count;
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                try {
+                    this.records.put(BinaryRecordCodec.verify(record), record);
+                }
+                catch (IOException e) {
+                    this.logger.warning("Skipping corrupt record " + i + " in " + this.dataFile.getName() + ": " + e.getMessage());
+                    if (damage != null) continue;
+                    damage = "corrupt record " + i + " of " + count;
+                }
+            }
+        }
+        catch (EOFException e) {
+            damage = "truncated";
+        }
+        if (!recognized) {
+            this.records.clear();
+            this.damage = "unrecognized file";
+            this.quarantine();
+            return;
+        }
+        if (damage != null) {
+            this.damage = damage;
+            this.preserve(damage);
+        }
+        PlayerStores.warnIfLarge(this.dataFile, this.records.size(), this.logger);
+    }
+
+    /**
+     * @return what was wrong with the file when it was last opened, or {@code null} if every
+     * record in it was read
+     */
+    public String getDamage() {
+        return this.damage;
+    }
+
+    /**
+     * Moves an unreadable file aside so the next save cannot overwrite what may still be recoverable.
+     */
+    private void quarantine() throws IOException {
+        File target = this.corruptFile();
+        if (!this.dataFile.renameTo(target)) {
+            throw new IOException("Unrecognized " + this.dataFile.getName() + " and it could not be moved aside");
+        }
+        this.logger.severe("Unrecognized " + this.dataFile.getName() + ", moved it to " + target.getName() + " and starting empty.");
+    }
+
+    /**
+     * Copies a partly readable file aside before the intact records are used.
+     */
+    private void preserve(String damage) throws IOException {
+        File target = this.corruptFile();
+        try {
+            Files.copy(this.dataFile.toPath(), target.toPath());
+        }
+        catch (IOException e) {
+            this.records.clear();
+            throw new IOException(this.dataFile.getName() + " is damaged (" + damage + ") and could not be copied aside: " + e.getMessage(), e);
+        }
+        this.logger.severe(this.dataFile.getName() + " is damaged (" + damage + "), copied it to " + target.getName() + " and loaded the " + this.records.size() + " intact players.");
+    }
+
+    private File corruptFile() {
+        return new File(this.dataFile.getParentFile(), this.dataFile.getName() + ".corrupt-" + System.currentTimeMillis());
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws IOException {
+        byte[] record = this.records.get(playerUUID);
+        return record == null ? null : BinaryRecordCodec.decode(record);
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll() throws IOException {
+        HashMap<UUID, PlayerData> loaded = new HashMap<UUID, PlayerData>();
+        for (Map.Entry<UUID, byte[]> entry : this.records.entrySet()) {
+            loaded.put(entry.getKey(), BinaryRecordCodec.decode(entry.getValue()));
+        }
+        return loaded;
+    }
+
+    @Override
+    public void saveBatch(Collection<PlayerData> changed) throws IOException {
+        for (PlayerData data : changed) {
+            this.records.put(data.getPlayerUUID(), BinaryRecordCodec.encode(data));
+        }
+        FileUtil.writeAtomically(this.dataFile, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            // Copy the values first so the count always matches what is written.
+            Collection<byte[]> snapshot = new ArrayList<byte[]>(this.records.values());
+            out.writeInt(MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for (byte[] record : snapshot) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            out.flush();
+        });
+    }
+
+    @Override
+    public void delete(UUID playerUUID) {
+        this.records.remove(playerUUID);
+    }
+
+    @Override
+    public void deleteAll() {
+        this.records.clear();
+    }
+
+    @Override
+    public Map<UUID, Map<UUID, Long>> loadRequests() throws IOException {
+        if (!this.requests.exists()) {
+            LegacyRequests legacy = new LegacyRequests();
+            for (byte[] record : this.records.values()) {
+                BinaryRecordCodec.readLegacyRequests(record, legacy);
+            }
+            this.requests.write(legacy.agreed());
+        }
+        return this.requests.read();
+    }
+
+    @Override
+    public void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        this.requests.update(outgoing);
+    }
+
+    @Override
+    public void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        this.requests.write(requests);
+    }
+
+    @Override
+    public boolean contains(UUID playerUUID) {
+        return this.records.containsKey(playerUUID);
+    }
+
+    @Override
+    public Set<UUID> keys() {
+        return new HashSet<UUID>(this.records.keySet());
+    }
+
+    @Override
+    public void close() {
+    }
+}
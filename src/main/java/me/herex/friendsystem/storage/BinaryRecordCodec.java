@@ -0,0 +1,238 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of one player record.
+ * <pre>
+ * u8      format version
+ * i64 x2  player UUID (most, least significant bits)
+ * utf     name
+ * i32     packed settings (see {@link #packSettings})
+ * i64     last logout time
+ * i32 n,  n x (i64, i64)                 friends
+ * i32 n,  n x (i64, i64)                 blocked, in block order
+ * i32 n,  n x (i64, i64)                 best friends
+ * i32 n,  n x (i64, i64, utf)            nicknames
+ * i32 n,  n x (i64, i64, i64 timestamp)  incoming requests (always 0 now)
+ * i32 n,  n x (i64, i64, i64 timestamp)  outgoing requests (always 0 now)
+ * i32     CRC32 of everything above
+ * </pre>
+ * Requests are stored apart from the records (see {@link PlayerStore#loadRequests}); the two
+ * request lists are still written, empty, so older versions can read the records, and
+ * {@link #readLegacyRequests} reads the ones older versions wrote.
+ */
+public final class BinaryRecordCodec {
+    public static final int FORMAT_VERSION = 1;
+
+    private BinaryRecordCodec() {
+    }
+
+    public static byte[] encode(PlayerData data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + 16 * (data.getFriendCount() + data.getBlockedCount()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            writeUUID(out, data.getPlayerUUID());
+            out.writeUTF(data.getPlayerName());
+            out.writeInt(packSettings(data.getSettings()));
+            out.writeLong(data.getLastLogoutTime());
+            writeUUIDs(out, data.getFriendsView());
+            writeUUIDs(out, data.getBlockedPlayersView());
+            writeUUIDs(out, data.getBestFriendsView());
+            Map<UUID, String> nicknames = data.getNicknamesView();
+            out.writeInt(nicknames.size());
+            for (Map.Entry<UUID, String> entry : nicknames.entrySet()) {
+                writeUUID(out, entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(0);
+            out.writeInt(0);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int)crc.getValue());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("In-memory write failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the record is truncated, has an unknown version or fails its CRC
+     */
+    public static PlayerData decode(byte[] record) throws IOException {
+        checkFrame(record);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 5));
+        UUID playerUUID = readUUID(in);
+        String name = in.readUTF();
+        PlayerSettings settings = unpackSettings(in.readInt());
+        long lastLogoutTime = in.readLong();
+        HashSet<UUID> friends = readUUIDs(in, new HashSet<UUID>());
+        LinkedHashSet<UUID> blocked = readUUIDs(in, new LinkedHashSet<UUID>());
+        HashSet<UUID> bestFriends = readUUIDs(in, new HashSet<UUID>());
+        HashMap<UUID, String> nicknames = readNicknames(in);
+        PlayerData data = new PlayerData(playerUUID, name, friends, settings, blocked, bestFriends, nicknames);
+        data.setLastLogoutTime(lastLogoutTime);
+        return data;
+    }
+
+    /**
+     * Adds the requests a record written by an older version lists to {@code legacy}.
+     *
+     * @throws IOException if the record is truncated, has an unknown version or fails its CRC
+     */
+    public static void readLegacyRequests(byte[] record, LegacyRequests legacy) throws IOException {
+        checkFrame(record);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 5));
+        UUID playerUUID = readUUID(in);
+        in.readUTF();
+        in.readInt();
+        in.readLong();
+        for (int i = 0; i < 3; ++i) {
+            readUUIDs(in, new HashSet<UUID>());
+        }
+        readNicknames(in);
+        for (Map.Entry<UUID, Long> entry : readTimestamps(in).entrySet()) {
+            legacy.addIncoming(playerUUID, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<UUID, Long> entry : readTimestamps(in).entrySet()) {
+            legacy.addOutgoing(playerUUID, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Checks a record's length, CRC and version without decoding the rest of it.
+     *
+     * @return the UUID of the player the record belongs to
+     * @throws IOException if the record is truncated, has an unknown version or fails its CRC
+     */
+    public static UUID verify(byte[] record) throws IOException {
+        checkFrame(record);
+        return new UUID(readLong(record, 1), readLong(record, 9));
+    }
+
+    private static void checkFrame(byte[] record) throws IOException {
+        if (record.length < 21) {
+            throw new IOException("Record too short: " + record.length + " bytes");
+        }
+        int payloadLength = record.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, payloadLength);
+        int storedCrc = (record[payloadLength] & 0xFF) << 24 | (record[payloadLength + 1] & 0xFF) << 16 | (record[payloadLength + 2] & 0xFF) << 8 | record[payloadLength + 3] & 0xFF;
+        if ((int)crc.getValue() != storedCrc) {
+            throw new IOException("CRC mismatch");
+        }
+        int version = record[0] & 0xFF;
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported record version " + version);
+        }
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0L;
+        for (int i = 0; i < 8; ++i) {
+            value = value << 8 | bytes[offset + i] & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * Bits 0-1 request privacy, 2-3 online status, 4-6 message privacy, 7 notify online,
+     * 8 allow join, 9 notify join, 10-11 notification level.
+     */
+    static int packSettings(PlayerSettings settings) {
+        int bits = settings.getRequestPrivacy().ordinal();
+        bits |= settings.getOnlineStatus().ordinal() << 2;
+        bits |= settings.getMessagePrivacy().ordinal() << 4;
+        bits |= (settings.isNotifyOnline() ? 1 : 0) << 7;
+        bits |= (settings.isAllowJoin() ? 1 : 0) << 8;
+        bits |= (settings.isNotifyJoin() ? 1 : 0) << 9;
+        bits |= (settings.getNotificationLevel() & 3) << 10;
+        return bits;
+    }
+
+    static PlayerSettings unpackSettings(int bits) {
+        PlayerSettings settings = new PlayerSettings();
+        settings.setRequestPrivacy(ordinal(PlayerSettings.RequestPrivacy.values(), bits & 3, PlayerSettings.RequestPrivacy.NONE));
+        settings.setOnlineStatus(ordinal(PlayerSettings.OnlineStatus.values(), bits >>> 2 & 3, PlayerSettings.OnlineStatus.ONLINE));
+        settings.setMessagePrivacy(ordinal(PlayerSettings.MessagePrivacy.values(), bits >>> 4 & 7, PlayerSettings.MessagePrivacy.NONE));
+        settings.setNotifyOnline((bits >>> 7 & 1) != 0);
+        settings.setAllowJoin((bits >>> 8 & 1) != 0);
+        settings.setNotifyJoin((bits >>> 9 & 1) != 0);
+        settings.setNotificationLevel(bits >>> 10 & 3);
+        return settings;
+    }
+
+    private static <E> E ordinal(E[] values, int ordinal, E fallback) {
+        return ordinal < values.length ? values[ordinal] : fallback;
+    }
+
+    private static void writeUUID(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeUUIDs(DataOutputStream out, Set<UUID> uuids) throws IOException {
+        out.writeInt(uuids.size());
+        for (UUID uuid : uuids) {
+            writeUUID(out, uuid);
+        }
+    }
+
+    private static <S extends Set<UUID>> S readUUIDs(DataInputStream in, S target) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative set size " + count);
+        }
+        for (int i = 0; i < count; ++i) {
+            target.add(readUUID(in));
+        }
+        return target;
+    }
+
+    private static HashMap<UUID, String> readNicknames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative map size " + count);
+        }
+        HashMap<UUID, String> nicknames = new HashMap<UUID, String>(capacityFor(count));
+        for (int i = 0; i < count; ++i) {
+            nicknames.put(readUUID(in), in.readUTF());
+        }
+        return nicknames;
+    }
+
+    private static HashMap<UUID, Long> readTimestamps(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative map size " + count);
+        }
+        HashMap<UUID, Long> timestamps = new HashMap<UUID, Long>(capacityFor(count));
+        for (int i = 0; i < count; ++i) {
+            timestamps.put(readUUID(in), in.readLong());
+        }
+        return timestamps;
+    }
+
+    private static int capacityFor(int size) {
+        return Math.max(4, (int)(size / 0.75f) + 1);
+    }
+}
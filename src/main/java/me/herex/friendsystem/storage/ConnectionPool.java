@@ -0,0 +1,103 @@
+package me.herex.friendsystem.storage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal fixed-size JDBC pool: at most {@code maxSize} connections exist, idle ones are reused
+ * after a validity check, and callers wait when all are in use.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String username;
+    private final String password;
+    private final BlockingQueue<Connection> idle;
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String username, String password, int maxSize) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.idle = new ArrayBlockingQueue<Connection>(maxSize);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public Connection borrow() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!this.permits.tryAcquire(30L, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            Connection connection;
+            while ((connection = this.idle.poll()) != null) {
+                if (connection.isValid(2)) {
+                    return connection;
+                }
+                closeQuietly(connection);
+            }
+            return DriverManager.getConnection(this.url, this.username, this.password);
+        }
+        catch (SQLException | RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (this.closed || connection.isClosed() || !connection.getAutoCommit() && !resetAutoCommit(connection) || !this.idle.offer(connection)) {
+                closeQuietly(connection);
+            }
+        }
+        catch (SQLException e) {
+            closeQuietly(connection);
+        }
+        finally {
+            this.permits.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        Connection connection;
+        while ((connection = this.idle.poll()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static boolean resetAutoCommit(Connection connection) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+            return true;
+        }
+        catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException sQLException) {}
+    }
+}
@@ -0,0 +1,105 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Full player records that could not be written to the store before a shutdown deadline.
+ * The file is a single fsynced write, which is much faster than a store save:
+ * <pre>
+ * i32 magic "FSEM", i32 record count
+ * record count x (i32 length, {@link BinaryRecordCodec} record, i64 CRC32 of the record)
+ * </pre>
+ * On the next start the records are put back in the cache as unsaved changes, and the file is
+ * deleted once a save has stored them.
+ */
+public class EmergencyJournal {
+    private static final int MAGIC = 0x4653454D;
+    private final File file;
+    private final Logger logger;
+
+    public EmergencyJournal(File file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    public boolean exists() {
+        return this.file.isFile();
+    }
+
+    /**
+     * Replaces the file with the given records and fsyncs it.
+     */
+    public void write(Collection<PlayerData> records) throws IOException {
+        FileUtil.writeAtomically(this.file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(records.size());
+            CRC32 crc = new CRC32();
+            for (PlayerData record : records) {
+                byte[] encoded = BinaryRecordCodec.encode(record);
+                crc.reset();
+                crc.update(encoded, 0, encoded.length);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+                out.writeLong(crc.getValue());
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * @return every intact record; a damaged record and anything after it is skipped
+     */
+    public List<PlayerData> read() throws IOException {
+        ArrayList<PlayerData> records = new ArrayList<PlayerData>();
+        if (!this.exists()) {
+            return records;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 65536))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(this.file.getName() + " is not an emergency journal");
+            }
+            int count = in.readInt();
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; ++i) {
+                int length = in.readInt();
+                if (length < 0 || length > 16777216) {
+                    this.logger.warning("Stopped reading " + this.file.getName() + " at a damaged record (" + i + " of " + count + ").");
+                    break;
+                }
+                byte[] encoded = new byte[length];
+                in.readFully(encoded);
+                crc.reset();
+                crc.update(encoded, 0, encoded.length);
+                if (in.readLong() != crc.getValue()) {
+                    this.logger.warning("Stopped reading " + this.file.getName() + " at a damaged record (" + i + " of " + count + ").");
+                    break;
+                }
+                records.add(BinaryRecordCodec.decode(encoded));
+            }
+        }
+        catch (EOFException e) {
+            this.logger.warning(this.file.getName() + " is truncated, recovered " + records.size() + " records.");
+        }
+        return records;
+    }
+
+    public void delete() {
+        if (!this.file.delete() && this.file.exists()) {
+            this.logger.warning("Could not delete " + this.file.getName());
+        }
+    }
+}
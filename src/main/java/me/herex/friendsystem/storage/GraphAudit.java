@@ -0,0 +1,306 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Checks the social graph across all stored records: every friendship is listed by both
+ * players and every best friend is a friend. Requests are stored once, apart from the records
+ * (see {@link PlayerStore#loadRequests}), so they cannot disagree and are not checked.
+ * <p>
+ * Cross-record checks take two passes over the store. The first records one 64-bit key per
+ * directed edge, which is 8 bytes per edge instead of whole records; sorting the keys of both
+ * directions and comparing them yields the few pairs where one side is missing. The second
+ * pass looks only at those pairs and reports exact {@link Issue}s. Parsing runs in parallel
+ * for the stores that support it (see {@link ParallelRecordLoader}).
+ * <p>
+ * Run offline as {@code GraphAudit <data folder> <type> [--repair]}, with the classpath of
+ * {@link StorageConverter}.
+ */
+public final class GraphAudit {
+    private GraphAudit() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: GraphAudit <data folder> <type> [--repair]");
+            System.exit(2);
+            return;
+        }
+        File dataFolder = new File(args[0]);
+        boolean repair = args.length > 2 && args[2].equalsIgnoreCase("--repair");
+        Logger logger = Logger.getLogger("FriendSystem-Audit");
+        File configFile = new File(dataFolder, "config.yml");
+        ConfigurationSection storage = configFile.isFile() ? YamlConfiguration.loadConfiguration((File)configFile).getConfigurationSection("storage") : null;
+        PlayerStore store = PlayerStores.create(args[1], dataFolder, storage, logger);
+        try {
+            store.open();
+            long start = System.nanoTime();
+            List<Issue> issues = GraphAudit.scan(store, new Progress());
+            logger.info("Found " + issues.size() + " issues " + GraphAudit.countByType(issues) + " in " + (System.nanoTime() - start) / 1000000L + "ms");
+            for (Issue issue : issues) {
+                logger.info("  " + issue);
+            }
+            if (repair && !issues.isEmpty()) {
+                logger.info("Repaired " + GraphAudit.repairStored(store, issues) + " records.");
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            logger.severe("Audit failed: " + e.getMessage());
+            System.exit(1);
+        }
+        finally {
+            try {
+                store.close();
+            }
+            catch (IOException e) {
+                logger.warning("Failed to close storage: " + e.getMessage());
+            }
+        }
+    }
+
+    public static List<Issue> scan(PlayerStore store, Progress progress) throws IOException {
+        progress.total = store.keys().size();
+        progress.processed = 0;
+        progress.pass = 1;
+        LongList friendsUp = new LongList();
+        LongList friendsDown = new LongList();
+        ArrayList<Issue> issues = new ArrayList<Issue>();
+        store.iterate(record -> {
+            UUID playerUUID = record.getPlayerUUID();
+            for (UUID friendUUID : record.getFriendsView()) {
+                if (playerUUID.compareTo(friendUUID) < 0) {
+                    friendsUp.add(GraphAudit.key(playerUUID, friendUUID));
+                    continue;
+                }
+                friendsDown.add(GraphAudit.key(friendUUID, playerUUID));
+            }
+            for (UUID bestUUID : record.getBestFriendsView()) {
+                if (record.isFriend(bestUUID)) continue;
+                issues.add(new Issue(IssueType.BEST_FRIEND_NOT_FRIEND, playerUUID, bestUUID));
+            }
+            ++progress.processed;
+        });
+        HashSet<Long> suspectFriends = GraphAudit.unmatched(friendsUp, friendsDown);
+        if (suspectFriends.isEmpty()) {
+            progress.pass = 0;
+            return issues;
+        }
+        progress.pass = 2;
+        progress.processed = 0;
+        // Second pass: collect the directed edges behind the suspect keys and see which side is missing.
+        HashMap<Long, Set<List<UUID>>> friendEdges = new HashMap<Long, Set<List<UUID>>>();
+        store.iterate(record -> {
+            UUID playerUUID = record.getPlayerUUID();
+            for (UUID friendUUID : record.getFriendsView()) {
+                long key = playerUUID.compareTo(friendUUID) < 0 ? GraphAudit.key(playerUUID, friendUUID) : GraphAudit.key(friendUUID, playerUUID);
+                if (!suspectFriends.contains(key)) continue;
+                friendEdges.computeIfAbsent(key, k -> new HashSet<List<UUID>>()).add(Arrays.asList(playerUUID, friendUUID));
+            }
+            ++progress.processed;
+        });
+        for (Set<List<UUID>> edges : friendEdges.values()) {
+            for (List<UUID> edge : edges) {
+                if (edges.contains(Arrays.asList(edge.get(1), edge.get(0)))) continue;
+                issues.add(new Issue(IssueType.ONE_SIDED_FRIEND, edge.get(0), edge.get(1)));
+            }
+        }
+        progress.pass = 0;
+        return issues;
+    }
+
+    /**
+     * Fixes {@code issue} on {@code player}'s record if the records still show it: the
+     * one-sided entry is removed, since a friendship needs both players to agree.
+     * The other player's record is only read, and may be {@code null} if it does not exist.
+     *
+     * @return whether {@code player} was changed
+     */
+    public static boolean repair(Issue issue, PlayerData player, PlayerData other) {
+        UUID playerUUID = issue.getPlayer();
+        UUID otherUUID = issue.getOther();
+        switch (issue.getType()) {
+            case ONE_SIDED_FRIEND: {
+                if (!player.isFriend(otherUUID) || other != null && other.isFriend(playerUUID)) {
+                    return false;
+                }
+                player.removeFriend(otherUUID);
+                player.removeBestFriend(otherUUID);
+                return true;
+            }
+            case BEST_FRIEND_NOT_FRIEND: {
+                if (!player.isBestFriend(otherUUID) || player.isFriend(otherUUID)) {
+                    return false;
+                }
+                player.removeBestFriend(otherUUID);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies {@link #repair} to stored records directly. Only for players that are not cached
+     * anywhere, e.g. offline or on the IO thread for players the server has not loaded.
+     *
+     * @return the number of records rewritten
+     */
+    public static int repairStored(PlayerStore store, Collection<Issue> issues) throws IOException {
+        HashSet<UUID> involved = new HashSet<UUID>();
+        for (Issue issue : issues) {
+            involved.add(issue.getPlayer());
+            involved.add(issue.getOther());
+        }
+        Map<UUID, PlayerData> records = store.loadBatch(involved);
+        LinkedHashMap<UUID, PlayerData> changed = new LinkedHashMap<UUID, PlayerData>();
+        for (Issue issue : issues) {
+            PlayerData player = records.get(issue.getPlayer());
+            if (player == null || !GraphAudit.repair(issue, player, records.get(issue.getOther()))) continue;
+            changed.put(player.getPlayerUUID(), player);
+        }
+        store.saveBatch(changed.values());
+        return changed.size();
+    }
+
+    public static Map<IssueType, Integer> countByType(Collection<Issue> issues) {
+        EnumMap<IssueType, Integer> counts = new EnumMap<IssueType, Integer>(IssueType.class);
+        for (Issue issue : issues) {
+            counts.merge(issue.getType(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * 64-bit mix of an ordered UUID pair; collisions only cost a second look in pass two.
+     */
+    private static long key(UUID first, UUID second) {
+        long hash = GraphAudit.mix(first.getMostSignificantBits());
+        hash = GraphAudit.mix(hash ^ first.getLeastSignificantBits());
+        hash = GraphAudit.mix(hash ^ second.getMostSignificantBits());
+        return GraphAudit.mix(hash ^ second.getLeastSignificantBits());
+    }
+
+    private static long mix(long value) {
+        value = (value ^ value >>> 33) * -49064778989728563L;
+        value = (value ^ value >>> 33) * -4265267296055464877L;
+        return value ^ value >>> 33;
+    }
+
+    /**
+     * @return the keys whose count differs between the two lists
+     */
+    private static HashSet<Long> unmatched(LongList left, LongList right) {
+        long[] a = left.sorted();
+        long[] b = right.sorted();
+        HashSet<Long> unmatched = new HashSet<Long>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j >= b.length || i < a.length && a[i] < b[j]) {
+                unmatched.add(a[i++]);
+                continue;
+            }
+            if (i >= a.length || b[j] < a[i]) {
+                unmatched.add(b[j++]);
+                continue;
+            }
+            ++i;
+            ++j;
+        }
+        return unmatched;
+    }
+
+    public static enum IssueType {
+        ONE_SIDED_FRIEND,
+        BEST_FRIEND_NOT_FRIEND;
+
+    }
+
+    /**
+     * An entry in {@code player}'s record that {@code other}'s record does not back up.
+     */
+    public static class Issue {
+        private final IssueType type;
+        private final UUID player;
+        private final UUID other;
+
+        public Issue(IssueType type, UUID player, UUID other) {
+            this.type = type;
+            this.player = player;
+            this.other = other;
+        }
+
+        public IssueType getType() {
+            return this.type;
+        }
+
+        public UUID getPlayer() {
+            return this.player;
+        }
+
+        public UUID getOther() {
+            return this.other;
+        }
+
+        public String toString() {
+            return this.type + " " + this.player + " -> " + this.other;
+        }
+    }
+
+    /**
+     * Scan position, written by the scanning thread and read by anyone.
+     */
+    public static class Progress {
+        private volatile int pass;
+        private volatile int processed;
+        private volatile int total;
+
+        /**
+         * @return 1 or 2 while that pass is running, 0 when idle or done
+         */
+        public int getPass() {
+            return this.pass;
+        }
+
+        public int getProcessed() {
+            return this.processed;
+        }
+
+        public int getTotal() {
+            return this.total;
+        }
+    }
+
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+
+        private long[] sorted() {
+            long[] sorted = Arrays.copyOf(this.values, this.size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
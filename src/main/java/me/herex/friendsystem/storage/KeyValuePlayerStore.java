@@ -0,0 +1,682 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Embedded single-file key-value store (data.kv) of {@link BinaryRecordCodec} records:
+ * <pre>
+ * page 0         header: i32 magic "FSKV", i32 file version, i32 page size, i32 bucket count,
+ *                i32 live records, i32 tombstones, i64 end of data, i32 CRC32 of the above
+ * pages 1..      hash index: bucket count x (i64 msb, i64 lsb, i64 offset, i32 length, i32 unused)
+ * remaining      records, each starting on a page boundary
+ * </pre>
+ * The index is an open-addressing table with linear probing; an offset of 0 marks an empty
+ * bucket and -1 a deleted one. It is read into memory on open, so a lookup costs one random
+ * read of the record's pages.
+ * <p>
+ * Records are never overwritten in place. A save appends the new versions, fsyncs them and only
+ * then repoints their buckets, so a crash leaves every player at either the old or the new
+ * version. The space of replaced records is reclaimed when the file is rebuilt, which happens
+ * when the index gets too full or more than half of the data region is dead.
+ * <p>
+ * Pending requests are kept apart in a {@link RequestFile} next to data.kv.
+ */
+public class KeyValuePlayerStore implements PlayerStore {
+    private static final int MAGIC = 0x46534B56;
+    private static final int FILE_VERSION = 1;
+    private static final int PAGE_SIZE = 512;
+    private static final int HEADER_SIZE = 36;
+    private static final int SLOT_SIZE = 32;
+    private static final int MIN_BUCKETS = 1024;
+    private static final float MAX_LOAD = 0.7f;
+    private static final long MIN_COMPACT_BYTES = 0x400000L;
+    private static final long EMPTY = 0L;
+    private static final long DELETED = -1L;
+    private final File dataFile;
+    private final Logger logger;
+    private final RequestFile requests;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long[] msbs = new long[0];
+    private long[] lsbs = new long[0];
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int liveCount;
+    private int tombstones;
+    private long liveBytes;
+    private long dataEnd;
+
+    public KeyValuePlayerStore(File dataFile, Logger logger) {
+        this.dataFile = dataFile;
+        this.logger = logger;
+        this.requests = new RequestFile(dataFile);
+    }
+
+    @Override
+    public void open() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.closeChannel();
+            if (!this.dataFile.isFile() || this.dataFile.length() == 0L) {
+                this.writeEmptyFile(MIN_BUCKETS);
+            }
+            this.channel = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!this.readIndex()) {
+                this.closeChannel();
+                this.quarantine();
+                this.writeEmptyFile(MIN_BUCKETS);
+                this.channel = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.readIndex();
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return false if the header is not ours or is damaged
+     */
+    private boolean readIndex() throws IOException {
+        long fileSize = this.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (fileSize < PAGE_SIZE || !this.readFully(header, 0L)) {
+            return false;
+        }
+        header.flip();
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE - 4);
+        int magic = header.getInt();
+        int version = header.getInt();
+        int pageSize = header.getInt();
+        int bucketCount = header.getInt();
+        header.position(HEADER_SIZE - 4);
+        if (magic != MAGIC || version != FILE_VERSION || pageSize != PAGE_SIZE || header.getInt() != (int)crc.getValue() || bucketCount < MIN_BUCKETS || Integer.bitCount(bucketCount) != 1) {
+            return false;
+        }
+        long dataStart = KeyValuePlayerStore.dataStart(bucketCount);
+        if (fileSize < dataStart) {
+            return false;
+        }
+        ByteBuffer index = ByteBuffer.allocate(bucketCount * SLOT_SIZE);
+        if (!this.readFully(index, PAGE_SIZE)) {
+            return false;
+        }
+        index.flip();
+        this.msbs = new long[bucketCount];
+        this.lsbs = new long[bucketCount];
+        this.offsets = new long[bucketCount];
+        this.lengths = new int[bucketCount];
+        this.liveCount = 0;
+        this.tombstones = 0;
+        this.liveBytes = 0L;
+        for (int i = 0; i < bucketCount; ++i) {
+            this.msbs[i] = index.getLong();
+            this.lsbs[i] = index.getLong();
+            this.offsets[i] = index.getLong();
+            this.lengths[i] = index.getInt();
+            index.getInt();
+            if (this.offsets[i] == EMPTY) continue;
+            if (this.offsets[i] == DELETED) {
+                ++this.tombstones;
+                continue;
+            }
+            if (this.offsets[i] < dataStart || this.lengths[i] <= 0 || this.offsets[i] + (long)this.lengths[i] > fileSize) {
+                this.logger.warning("Dropping index entry for " + new UUID(this.msbs[i], this.lsbs[i]) + " in " + this.dataFile.getName() + ", it points outside the file.");
+                this.offsets[i] = DELETED;
+                ++this.tombstones;
+                continue;
+            }
+            ++this.liveCount;
+            this.liveBytes += KeyValuePlayerStore.align(this.lengths[i]);
+        }
+        // Anything past the last committed append is an unreferenced leftover of an interrupted save.
+        this.dataEnd = Math.max(dataStart, KeyValuePlayerStore.align(fileSize));
+        return true;
+    }
+
+    private void quarantine() throws IOException {
+        File target = new File(this.dataFile.getParentFile(), this.dataFile.getName() + ".corrupt-" + System.currentTimeMillis());
+        if (!this.dataFile.renameTo(target)) {
+            throw new IOException("Unrecognized " + this.dataFile.getName() + " and it could not be moved aside");
+        }
+        this.logger.severe("Unrecognized " + this.dataFile.getName() + ", moved it to " + target.getName() + " and starting empty.");
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            int slot = this.find(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+            return slot < 0 ? null : this.readRecord(slot);
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadBatch(Collection<UUID> playerUUIDs) throws IOException {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        this.lock.readLock().lock();
+        try {
+            int[] slots = new int[playerUUIDs.size()];
+            int count = 0;
+            for (UUID playerUUID : playerUUIDs) {
+                int slot = this.find(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits());
+                if (slot < 0) continue;
+                slots[count++] = slot;
+            }
+            for (int slot : this.inFileOrder(slots, count)) {
+                PlayerData record = this.readRecord(slot);
+                records.put(record.getPlayerUUID(), record);
+            }
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+        return records;
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll() throws IOException {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        this.iterate(record -> records.put(record.getPlayerUUID(), record));
+        return records;
+    }
+
+    /**
+     * Streams records in file order. The visitor runs under the read lock, so it must not call
+     * back into this store's write methods.
+     */
+    @Override
+    public void iterate(Consumer<PlayerData> visitor) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            for (int slot : this.inFileOrder(this.liveSlots())) {
+                PlayerData record;
+                try {
+                    record = this.readRecord(slot);
+                }
+                catch (IOException e) {
+                    this.logger.warning("Skipping corrupt record for " + new UUID(this.msbs[slot], this.lsbs[slot]) + " in " + this.dataFile.getName() + ": " + e.getMessage());
+                    continue;
+                }
+                visitor.accept(record);
+            }
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveBatch(Collection<PlayerData> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        this.ensureCapacity(records.size());
+        // Only the IO thread writes, so appending past dataEnd needs no lock: no bucket points there yet.
+        ArrayList<PlayerData> written = new ArrayList<PlayerData>(records.size());
+        long[] newOffsets = new long[records.size()];
+        int[] newLengths = new int[records.size()];
+        long position = this.dataEnd;
+        for (PlayerData record : records) {
+            byte[] encoded = BinaryRecordCodec.encode(record);
+            ByteBuffer buffer = ByteBuffer.allocate((int)KeyValuePlayerStore.align(encoded.length));
+            buffer.put(encoded);
+            buffer.rewind();
+            this.writeFully(buffer, position);
+            newOffsets[written.size()] = position;
+            newLengths[written.size()] = encoded.length;
+            written.add(record);
+            position += buffer.capacity();
+        }
+        this.channel.force(false);
+        this.lock.writeLock().lock();
+        try {
+            this.dataEnd = position;
+            for (int i = 0; i < written.size(); ++i) {
+                UUID playerUUID = written.get(i).getPlayerUUID();
+                long msb = playerUUID.getMostSignificantBits();
+                long lsb = playerUUID.getLeastSignificantBits();
+                int slot = this.find(msb, lsb);
+                if (slot >= 0) {
+                    this.liveBytes -= KeyValuePlayerStore.align(this.lengths[slot]);
+                } else {
+                    slot = this.insertionSlot(msb, lsb);
+                    if (this.offsets[slot] == DELETED) {
+                        --this.tombstones;
+                    }
+                    ++this.liveCount;
+                }
+                this.setSlot(slot, msb, lsb, newOffsets[i], newLengths[i]);
+                this.liveBytes += KeyValuePlayerStore.align(newLengths[i]);
+            }
+            this.writeHeader();
+            this.channel.force(false);
+            long dead = this.dataEnd - KeyValuePlayerStore.dataStart(this.offsets.length) - this.liveBytes;
+            if (dead > this.liveBytes && dead > MIN_COMPACT_BYTES) {
+                this.rebuild(this.offsets.length);
+            }
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(UUID playerUUID) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            long msb = playerUUID.getMostSignificantBits();
+            long lsb = playerUUID.getLeastSignificantBits();
+            int slot = this.find(msb, lsb);
+            if (slot < 0) {
+                return;
+            }
+            this.liveBytes -= KeyValuePlayerStore.align(this.lengths[slot]);
+            --this.liveCount;
+            ++this.tombstones;
+            this.setSlot(slot, msb, lsb, DELETED, 0);
+            this.writeHeader();
+            this.channel.force(false);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.closeChannel();
+            this.writeEmptyFile(MIN_BUCKETS);
+            this.channel = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.readIndex();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<UUID, Map<UUID, Long>> loadRequests() throws IOException {
+        if (!this.requests.exists()) {
+            LegacyRequests legacy = new LegacyRequests();
+            this.lock.readLock().lock();
+            try {
+                for (int slot : this.inFileOrder(this.liveSlots())) {
+                    try {
+                        BinaryRecordCodec.readLegacyRequests(this.readBytes(slot), legacy);
+                    }
+                    catch (IOException e) {
+                        this.logger.warning("Skipping the requests of corrupt record for " + new UUID(this.msbs[slot], this.lsbs[slot]) + " in " + this.dataFile.getName() + ": " + e.getMessage());
+                    }
+                }
+            }
+            finally {
+                this.lock.readLock().unlock();
+            }
+            this.requests.write(legacy.agreed());
+        }
+        return this.requests.read();
+    }
+
+    @Override
+    public void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        this.requests.update(outgoing);
+    }
+
+    @Override
+    public void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        this.requests.write(requests);
+    }
+
+    @Override
+    public boolean contains(UUID playerUUID) {
+        this.lock.readLock().lock();
+        try {
+            return this.find(playerUUID.getMostSignificantBits(), playerUUID.getLeastSignificantBits()) >= 0;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<UUID> keys() {
+        this.lock.readLock().lock();
+        try {
+            HashSet<UUID> uuids = new HashSet<UUID>(Math.max(16, (int)(this.liveCount / 0.75f) + 1));
+            for (int slot : this.liveSlots()) {
+                uuids.add(new UUID(this.msbs[slot], this.lsbs[slot]));
+            }
+            return uuids;
+        }
+        finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            this.closeChannel();
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int additional) throws IOException {
+        int bucketCount = this.offsets.length;
+        if ((float)(this.liveCount + this.tombstones + additional) <= (float)bucketCount * MAX_LOAD) {
+            return;
+        }
+        while ((float)(this.liveCount + additional) > (float)bucketCount * MAX_LOAD / 2.0f) {
+            bucketCount <<= 1;
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.rebuild(bucketCount);
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the file with {@code bucketCount} buckets and only the live records, packed in
+     * bucket order. Caller holds the write lock.
+     */
+    private void rebuild(int bucketCount) throws IOException {
+        long started = System.nanoTime();
+        int[] oldSlots = this.liveSlots();
+        long[] newMsbs = new long[bucketCount];
+        long[] newLsbs = new long[bucketCount];
+        int[] newLengths = new int[bucketCount];
+        int[] sources = new int[bucketCount];
+        for (int oldSlot : oldSlots) {
+            int slot = KeyValuePlayerStore.probeStart(this.msbs[oldSlot], this.lsbs[oldSlot], bucketCount);
+            while (newLengths[slot] != 0) {
+                slot = slot + 1 & bucketCount - 1;
+            }
+            newMsbs[slot] = this.msbs[oldSlot];
+            newLsbs[slot] = this.lsbs[oldSlot];
+            newLengths[slot] = this.lengths[oldSlot];
+            sources[slot] = oldSlot;
+        }
+        this.install(newMsbs, newLsbs, newLengths, (out, slot) -> {
+            ByteBuffer record = ByteBuffer.allocate((int)KeyValuePlayerStore.align(newLengths[slot]));
+            record.limit(newLengths[slot]);
+            this.readFullyOrThrow(record, this.offsets[sources[slot]]);
+            out.write(record.array());
+        });
+        this.logger.info("Rebuilt " + this.dataFile.getName() + " with " + bucketCount + " buckets and " + this.liveCount + " players in " + (System.nanoTime() - started) / 1000000L + "ms");
+    }
+
+    /**
+     * Replaces every stored player with {@code records} by writing a new file and renaming it
+     * over the old one, so a crash leaves either all old or all new records.
+     */
+    @Override
+    public void replaceAll(Collection<PlayerData> records) throws IOException {
+        int bucketCount = MIN_BUCKETS;
+        while ((float)records.size() > (float)bucketCount * MAX_LOAD / 2.0f) {
+            bucketCount <<= 1;
+        }
+        long[] newMsbs = new long[bucketCount];
+        long[] newLsbs = new long[bucketCount];
+        int[] newLengths = new int[bucketCount];
+        byte[][] encoded = new byte[bucketCount][];
+        for (PlayerData record : records) {
+            long msb = record.getPlayerUUID().getMostSignificantBits();
+            long lsb = record.getPlayerUUID().getLeastSignificantBits();
+            int slot = KeyValuePlayerStore.probeStart(msb, lsb, bucketCount);
+            while (encoded[slot] != null && (newMsbs[slot] != msb || newLsbs[slot] != lsb)) {
+                slot = slot + 1 & bucketCount - 1;
+            }
+            newMsbs[slot] = msb;
+            newLsbs[slot] = lsb;
+            encoded[slot] = BinaryRecordCodec.encode(record);
+            newLengths[slot] = encoded[slot].length;
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.install(newMsbs, newLsbs, newLengths, (out, slot) -> {
+                out.write(encoded[slot]);
+                out.write(new byte[(int)(KeyValuePlayerStore.align(newLengths[slot]) - (long)newLengths[slot])]);
+            });
+        }
+        finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Atomically writes a file whose index holds the given buckets, with each non-empty bucket's
+     * record packed in bucket order, and switches to it. Caller holds the write lock.
+     */
+    private void install(long[] newMsbs, long[] newLsbs, int[] newLengths, RecordWriter records) throws IOException {
+        int bucketCount = newLengths.length;
+        long[] newOffsets = new long[bucketCount];
+        int live = 0;
+        long position = KeyValuePlayerStore.dataStart(bucketCount);
+        for (int slot = 0; slot < bucketCount; ++slot) {
+            if (newLengths[slot] == 0) continue;
+            newOffsets[slot] = position;
+            position += KeyValuePlayerStore.align(newLengths[slot]);
+            ++live;
+        }
+        int liveRecords = live;
+        long newDataEnd = position;
+        FileUtil.writeAtomically(this.dataFile, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.write(KeyValuePlayerStore.headerPage(bucketCount, liveRecords, 0, newDataEnd).array());
+            for (int slot = 0; slot < bucketCount; ++slot) {
+                out.writeLong(newMsbs[slot]);
+                out.writeLong(newLsbs[slot]);
+                out.writeLong(newOffsets[slot]);
+                out.writeInt(newLengths[slot]);
+                out.writeInt(0);
+            }
+            out.write(new byte[(int)(KeyValuePlayerStore.dataStart(bucketCount) - PAGE_SIZE - (long)bucketCount * SLOT_SIZE)]);
+            for (int slot = 0; slot < bucketCount; ++slot) {
+                if (newLengths[slot] == 0) continue;
+                records.write(out, slot);
+            }
+            out.flush();
+        });
+        this.closeChannel();
+        this.channel = FileChannel.open(this.dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.msbs = newMsbs;
+        this.lsbs = newLsbs;
+        this.offsets = newOffsets;
+        this.lengths = newLengths;
+        this.liveCount = liveRecords;
+        this.tombstones = 0;
+        this.liveBytes = newDataEnd - KeyValuePlayerStore.dataStart(bucketCount);
+        this.dataEnd = newDataEnd;
+    }
+
+    private void writeEmptyFile(int bucketCount) throws IOException {
+        FileUtil.writeAtomically(this.dataFile, stream -> {
+            stream.write(KeyValuePlayerStore.headerPage(bucketCount, 0, 0, KeyValuePlayerStore.dataStart(bucketCount)).array());
+            stream.write(new byte[(int)(KeyValuePlayerStore.dataStart(bucketCount) - PAGE_SIZE)]);
+        });
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = KeyValuePlayerStore.headerPage(this.offsets.length, this.liveCount, this.tombstones, this.dataEnd);
+        header.limit(HEADER_SIZE);
+        this.writeFully(header, 0L);
+    }
+
+    private static ByteBuffer headerPage(int bucketCount, int liveCount, int tombstones, long dataEnd) {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC).putInt(FILE_VERSION).putInt(PAGE_SIZE).putInt(bucketCount).putInt(liveCount).putInt(tombstones).putLong(dataEnd);
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE - 4);
+        header.putInt((int)crc.getValue());
+        header.rewind();
+        return header;
+    }
+
+    private void setSlot(int slot, long msb, long lsb, long offset, int length) throws IOException {
+        this.msbs[slot] = msb;
+        this.lsbs[slot] = lsb;
+        this.offsets[slot] = offset;
+        this.lengths[slot] = length;
+        ByteBuffer entry = ByteBuffer.allocate(SLOT_SIZE);
+        entry.putLong(msb).putLong(lsb).putLong(offset).putInt(length).putInt(0);
+        entry.flip();
+        this.writeFully(entry, PAGE_SIZE + (long)slot * SLOT_SIZE);
+    }
+
+    /**
+     * @return the bucket holding the player, or -1
+     */
+    private int find(long msb, long lsb) {
+        int mask = this.offsets.length - 1;
+        if (mask < 0) {
+            return -1;
+        }
+        int slot = KeyValuePlayerStore.probeStart(msb, lsb, this.offsets.length);
+        for (int probes = 0; probes <= mask; ++probes) {
+            long offset = this.offsets[slot];
+            if (offset == EMPTY) {
+                return -1;
+            }
+            if (offset != DELETED && this.msbs[slot] == msb && this.lsbs[slot] == lsb) {
+                return slot;
+            }
+            slot = slot + 1 & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first empty or deleted bucket on the player's probe path
+     */
+    private int insertionSlot(long msb, long lsb) {
+        int mask = this.offsets.length - 1;
+        int slot = KeyValuePlayerStore.probeStart(msb, lsb, this.offsets.length);
+        while (this.offsets[slot] != EMPTY && this.offsets[slot] != DELETED) {
+            slot = slot + 1 & mask;
+        }
+        return slot;
+    }
+
+    private static int probeStart(long msb, long lsb, int bucketCount) {
+        long hash = (msb ^ lsb) * -7046029254386353131L;
+        return (int)(hash ^ hash >>> 32) & bucketCount - 1;
+    }
+
+    private int[] liveSlots() {
+        int[] slots = new int[this.liveCount];
+        int count = 0;
+        for (int slot = 0; slot < this.offsets.length && count < slots.length; ++slot) {
+            if (this.offsets[slot] == EMPTY || this.offsets[slot] == DELETED) continue;
+            slots[count++] = slot;
+        }
+        return slots;
+    }
+
+    private int[] inFileOrder(int[] slots) {
+        return this.inFileOrder(slots, slots.length);
+    }
+
+    /**
+     * @return the first {@code count} slots ordered by record offset, so records are read front
+     * to back. Offsets are page aligned, so each slot is sorted as one long of its page number
+     * and slot, without boxing.
+     */
+    private int[] inFileOrder(int[] slots, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = this.offsets[slots[i]] / (long)PAGE_SIZE << 32 | (long)slots[i];
+        }
+        Arrays.sort(keys);
+        int[] ordered = new int[count];
+        for (int i = 0; i < count; ++i) {
+            ordered[i] = (int)keys[i];
+        }
+        return ordered;
+    }
+
+    private PlayerData readRecord(int slot) throws IOException {
+        return BinaryRecordCodec.decode(this.readBytes(slot));
+    }
+
+    private byte[] readBytes(int slot) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(this.lengths[slot]);
+        this.readFullyOrThrow(record, this.offsets[slot]);
+        return record.array();
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position + (long)buffer.position());
+            if (read >= 0) continue;
+            return false;
+        }
+        return true;
+    }
+
+    private void readFullyOrThrow(ByteBuffer buffer, long position) throws IOException {
+        if (!this.readFully(buffer, position)) {
+            throw new EOFException("Record at " + position + " runs past the end of " + this.dataFile.getName());
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + (long)buffer.position());
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    private static long dataStart(int bucketCount) {
+        return PAGE_SIZE + KeyValuePlayerStore.align((long)bucketCount * SLOT_SIZE);
+    }
+
+    private static long align(long length) {
+        return (length + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private interface RecordWriter {
+        /**
+         * Writes the record of {@code slot}, padded to a whole number of pages.
+         */
+        void write(DataOutputStream out, int slot) throws IOException;
+    }
+}
@@ -0,0 +1,41 @@
+package me.herex.friendsystem.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Collects the request entries that older versions kept in both players' records, to carry
+ * them over into a store's request data once. A request is kept only if the sender's record
+ * lists it as outgoing and the receiver's as incoming; it keeps the receiver's time, as the
+ * request table used to.
+ */
+public final class LegacyRequests {
+    private final Map<UUID, Map<UUID, Long>> outgoing = new HashMap<UUID, Map<UUID, Long>>();
+    private final Map<UUID, Map<UUID, Long>> incoming = new HashMap<UUID, Map<UUID, Long>>();
+
+    public synchronized void addOutgoing(UUID fromUUID, UUID toUUID, long sentAt) {
+        this.outgoing.computeIfAbsent(fromUUID, uuid -> new HashMap<UUID, Long>()).put(toUUID, sentAt);
+    }
+
+    public synchronized void addIncoming(UUID toUUID, UUID fromUUID, long sentAt) {
+        this.incoming.computeIfAbsent(fromUUID, uuid -> new HashMap<UUID, Long>()).put(toUUID, sentAt);
+    }
+
+    /**
+     * @return sender to receiver to sent time, for the requests both sides agree on
+     */
+    public synchronized Map<UUID, Map<UUID, Long>> agreed() {
+        HashMap<UUID, Map<UUID, Long>> agreed = new HashMap<UUID, Map<UUID, Long>>();
+        for (Map.Entry<UUID, Map<UUID, Long>> sender : this.outgoing.entrySet()) {
+            Map<UUID, Long> received = this.incoming.get(sender.getKey());
+            if (received == null) continue;
+            for (UUID toUUID : sender.getValue().keySet()) {
+                Long sentAt = received.get(toUUID);
+                if (sentAt == null) continue;
+                agreed.computeIfAbsent(sender.getKey(), uuid -> new HashMap<UUID, Long>()).put(toUUID, sentAt);
+            }
+        }
+        return agreed;
+    }
+}
@@ -0,0 +1,89 @@
+package me.herex.friendsystem.storage;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * One social-graph change as recorded in the {@link MutationJournal}. Every type is idempotent
+ * when replayed on top of a snapshot that may already contain it.
+ */
+public final class Mutation {
+    /** type, 2 x UUID, timestamp, CRC32 */
+    static final int ENCODED_SIZE = 1 + 16 + 16 + 8 + 4;
+    private final Type type;
+    private final UUID actor;
+    private final UUID target;
+    private final long timestamp;
+
+    public Mutation(Type type, UUID actor, UUID target, long timestamp) {
+        this.type = type;
+        this.actor = actor;
+        this.target = target;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public UUID getActor() {
+        return this.actor;
+    }
+
+    public UUID getTarget() {
+        return this.target;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.put((byte)this.type.ordinal());
+        buffer.putLong(this.actor.getMostSignificantBits());
+        buffer.putLong(this.actor.getLeastSignificantBits());
+        buffer.putLong(this.target.getMostSignificantBits());
+        buffer.putLong(this.target.getLeastSignificantBits());
+        buffer.putLong(this.timestamp);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, ENCODED_SIZE - 4);
+        buffer.putInt((int)crc.getValue());
+    }
+
+    /**
+     * @return the decoded entry, or {@code null} if it is torn or fails its checksum
+     */
+    static Mutation readFrom(ByteBuffer buffer) {
+        int start = buffer.position();
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + start, ENCODED_SIZE - 4);
+        int typeOrdinal = buffer.get() & 0xFF;
+        UUID actor = new UUID(buffer.getLong(), buffer.getLong());
+        UUID target = new UUID(buffer.getLong(), buffer.getLong());
+        long timestamp = buffer.getLong();
+        if (buffer.getInt() != (int)crc.getValue() || typeOrdinal >= Type.values().length) {
+            return null;
+        }
+        return new Mutation(Type.values()[typeOrdinal], actor, target, timestamp);
+    }
+
+    public String toString() {
+        return "Mutation{type=" + this.type + ", actor=" + this.actor + ", target=" + this.target + ", timestamp=" + this.timestamp + '}';
+    }
+
+    /**
+     * Ordinals are persisted, only append new types at the end.
+     */
+    public static enum Type {
+        FRIEND_ADD,
+        FRIEND_REMOVE,
+        BLOCK,
+        UNBLOCK,
+        UNBLOCK_ALL,
+        REQUEST,
+        REQUEST_REMOVE;
+
+    }
+}
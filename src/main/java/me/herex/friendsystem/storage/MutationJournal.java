@@ -0,0 +1,224 @@
+package me.herex.friendsystem.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of {@link Mutation}s in numbered segment files. Appends are queued and a
+ * single writer thread commits everything queued so far with one write and one fsync (group
+ * commit), so callers never wait on the disk.
+ * <p>
+ * The journal is compacted by {@link #rotate() rotating} to a new segment right before a
+ * snapshot is taken, then {@link #deleteSegments deleting} the sealed segments once the
+ * snapshot is safely stored. Replay covers whatever segments are still on disk.
+ */
+public class MutationJournal {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+    private static final int MAX_BATCH = 4096;
+    private final File directory;
+    private final Logger logger;
+    private final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<Mutation>();
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private long activeSegment;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    public MutationJournal(File directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    /**
+     * Feeds every intact entry of every segment, oldest first, to {@code consumer}.
+     *
+     * @return the number of entries replayed
+     */
+    public int replay(Consumer<Mutation> consumer) throws IOException {
+        int replayed = 0;
+        synchronized (this.fileLock) {
+            for (File segment : this.listSegments()) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment.toPath()));
+                while (buffer.remaining() >= Mutation.ENCODED_SIZE) {
+                    Mutation mutation = Mutation.readFrom(buffer);
+                    if (mutation == null) {
+                        this.logger.warning("Stopped replaying " + segment.getName() + " at a damaged entry.");
+                        break;
+                    }
+                    consumer.accept(mutation);
+                    ++replayed;
+                }
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Starts a fresh segment after the existing ones and the writer thread. Does nothing if the
+     * journal is already open.
+     */
+    public void open() throws IOException {
+        synchronized (this.fileLock) {
+            if (this.channel != null) {
+                return;
+            }
+            if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+                throw new IOException("Could not create directory " + this.directory);
+            }
+            List<File> segments = this.listSegments();
+            this.activeSegment = segments.isEmpty() ? 1L : segmentId(segments.get(segments.size() - 1)) + 1L;
+            this.channel = this.openSegment(this.activeSegment);
+        }
+        this.running = true;
+        this.writerThread = new Thread(this::runWriter, "FriendSystem-Journal");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void append(Mutation mutation) {
+        this.queue.add(mutation);
+    }
+
+    /**
+     * Switches appends to a new segment.
+     *
+     * @return the sealed segments, to be passed to {@link #deleteSegments} once a snapshot
+     * containing their effects has been stored
+     */
+    public List<File> rotate() throws IOException {
+        synchronized (this.fileLock) {
+            if (this.channel == null) {
+                return Collections.emptyList();
+            }
+            List<File> sealed = this.listSegments();
+            this.channel.force(false);
+            this.channel.close();
+            this.channel = this.openSegment(++this.activeSegment);
+            return sealed;
+        }
+    }
+
+    public void deleteSegments(List<File> segments) {
+        for (File segment : segments) {
+            if (segment.delete() || !segment.exists()) continue;
+            this.logger.warning("Could not delete journal segment " + segment.getName());
+        }
+    }
+
+    /**
+     * Commits everything still queued and closes the active segment.
+     */
+    public void close() {
+        // No interrupt: it would close the FileChannel under an in-progress write.
+        this.running = false;
+        if (this.writerThread != null) {
+            try {
+                this.writerThread.join(TimeUnit.SECONDS.toMillis(10L));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.writerThread = null;
+        }
+        synchronized (this.fileLock) {
+            if (this.channel == null) {
+                return;
+            }
+            try {
+                this.channel.close();
+            }
+            catch (IOException e) {
+                this.logger.warning("Failed to close journal: " + e.getMessage());
+            }
+            this.channel = null;
+        }
+    }
+
+    public int getPendingCount() {
+        return this.queue.size();
+    }
+
+    private void runWriter() {
+        ArrayList<Mutation> batch = new ArrayList<Mutation>();
+        ByteBuffer buffer = ByteBuffer.allocate(Mutation.ENCODED_SIZE * 256);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                Mutation first = this.queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            this.queue.drainTo(batch, MAX_BATCH);
+            if (buffer.capacity() < batch.size() * Mutation.ENCODED_SIZE) {
+                buffer = ByteBuffer.allocate(batch.size() * Mutation.ENCODED_SIZE);
+            }
+            buffer.clear();
+            for (Mutation mutation : batch) {
+                mutation.writeTo(buffer);
+            }
+            buffer.flip();
+            try {
+                this.commit(buffer);
+            }
+            catch (IOException e) {
+                this.logger.severe("Failed to write " + batch.size() + " journal entries: " + e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(ByteBuffer buffer) throws IOException {
+        synchronized (this.fileLock) {
+            if (this.channel == null) {
+                throw new IOException("journal is closed");
+            }
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+        }
+    }
+
+    private FileChannel openSegment(long id) throws IOException {
+        File file = new File(this.directory, PREFIX + id + SUFFIX);
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<File> listSegments() {
+        ArrayList<File> segments = new ArrayList<File>();
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                if (segmentId(file) < 0L) continue;
+                segments.add(file);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(segmentId(a), segmentId(b)));
+        return segments;
+    }
+
+    private static long segmentId(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+}
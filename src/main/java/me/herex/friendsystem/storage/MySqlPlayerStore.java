@@ -0,0 +1,644 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Stores players in normalized SQL tables (all names carry the configured prefix):
+ * <pre>
+ * players      (uuid, name, settings, last_logout)
+ * friends      (player, friend)
+ * blocks       (player, blocked, position)
+ * friend_meta  (player, other, best, nickname)
+ * pending_requests (sender, receiver, sent_at)
+ * </pre>
+ * Every edge row belongs to the {@code player} whose record it came from, so saving a record
+ * only replaces that player's rows and a friendship is stored once per side, exactly like the
+ * in-memory model. A pending request is one row, owned by its sender; the {@code requests}
+ * table of older versions, which kept a row per side, is carried over and dropped on the first
+ * {@link #loadRequests()}. Saves are batched and committed in chunks of {@link #BATCH_SIZE} records.
+ * Reading players takes two queries however many are read: one on {@code players} and one
+ * {@code UNION ALL} over the edge tables.
+ * <p>
+ * Several servers may share the database, so {@link #knownPlayers} only remembers players this
+ * store has seen; a player it has not seen is looked up in the database.
+ * The SQL sticks to what both MySQL and H2 in MySQL mode understand.
+ */
+public class MySqlPlayerStore implements PlayerStore {
+    private static final int BATCH_SIZE = 500;
+    private static final String[] EDGE_TABLES = new String[]{"friends", "blocks", "friend_meta"};
+    private static final String[] TABLES = new String[]{"players", "friends", "blocks", "friend_meta", "pending_requests"};
+    private final ConnectionPool pool;
+    private final String prefix;
+    private final Logger logger;
+    private final Set<UUID> knownPlayers = ConcurrentHashMap.newKeySet();
+
+    public MySqlPlayerStore(ConnectionPool pool, String tablePrefix, Logger logger) {
+        this.pool = pool;
+        this.prefix = tablePrefix;
+        this.logger = logger;
+    }
+
+    @Override
+    public void open() throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (Statement statement = connection.createStatement();){
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table("players") + " (uuid CHAR(36) NOT NULL, name VARCHAR(32) NOT NULL, settings INT NOT NULL, last_logout BIGINT NOT NULL, PRIMARY KEY (uuid))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table("friends") + " (player CHAR(36) NOT NULL, friend CHAR(36) NOT NULL, PRIMARY KEY (player, friend))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table("blocks") + " (player CHAR(36) NOT NULL, blocked CHAR(36) NOT NULL, position INT NOT NULL, PRIMARY KEY (player, blocked))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table("friend_meta") + " (player CHAR(36) NOT NULL, other CHAR(36) NOT NULL, best BOOLEAN NOT NULL, nickname VARCHAR(64), PRIMARY KEY (player, other))");
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + this.table("pending_requests") + " (sender CHAR(36) NOT NULL, receiver CHAR(36) NOT NULL, sent_at BIGINT NOT NULL, PRIMARY KEY (sender, receiver))");
+            }
+            HashSet<UUID> keys = new HashSet<UUID>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT uuid FROM " + this.table("players"));){
+                while (rows.next()) {
+                    UUID uuid = this.parseUUID(rows.getString(1));
+                    if (uuid == null) continue;
+                    keys.add(uuid);
+                }
+            }
+            this.knownPlayers.clear();
+            this.knownPlayers.addAll(keys);
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not open MySQL storage: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws IOException {
+        return this.query(Collections.singletonList(playerUUID)).get(playerUUID);
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadBatch(Collection<UUID> playerUUIDs) throws IOException {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        ArrayList<UUID> chunk = new ArrayList<UUID>(Math.min(playerUUIDs.size(), BATCH_SIZE));
+        Iterator<UUID> iterator = playerUUIDs.iterator();
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() < BATCH_SIZE && iterator.hasNext()) continue;
+            records.putAll(this.query(chunk));
+            chunk.clear();
+        }
+        return records;
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll() throws IOException {
+        return this.query(null);
+    }
+
+    @Override
+    public void saveBatch(Collection<PlayerData> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            connection.setAutoCommit(false);
+            ArrayList<PlayerData> chunk = new ArrayList<PlayerData>(Math.min(records.size(), BATCH_SIZE));
+            Iterator<PlayerData> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() < BATCH_SIZE && iterator.hasNext()) continue;
+                this.writeChunk(connection, chunk);
+                connection.commit();
+                for (PlayerData record : chunk) {
+                    this.knownPlayers.add(record.getPlayerUUID());
+                }
+                chunk.clear();
+            }
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not save to MySQL: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    private void writeChunk(Connection connection, List<PlayerData> chunk) throws SQLException {
+        try (PreparedStatement upsert = connection.prepareStatement("INSERT INTO " + this.table("players") + " (uuid, name, settings, last_logout) VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name), settings = VALUES(settings), last_logout = VALUES(last_logout)");){
+            for (PlayerData record : chunk) {
+                upsert.setString(1, record.getPlayerUUID().toString());
+                upsert.setString(2, record.getPlayerName());
+                upsert.setInt(3, BinaryRecordCodec.packSettings(record.getSettings()));
+                upsert.setLong(4, record.getLastLogoutTime());
+                upsert.addBatch();
+            }
+            upsert.executeBatch();
+        }
+        for (String edgeTable : EDGE_TABLES) {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + this.table(edgeTable) + " WHERE player = ?");){
+                for (PlayerData record : chunk) {
+                    delete.setString(1, record.getPlayerUUID().toString());
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+        }
+        try (PreparedStatement friends = connection.prepareStatement("INSERT INTO " + this.table("friends") + " (player, friend) VALUES (?, ?)");
+             PreparedStatement blocks = connection.prepareStatement("INSERT INTO " + this.table("blocks") + " (player, blocked, position) VALUES (?, ?, ?)");
+             PreparedStatement meta = connection.prepareStatement("INSERT INTO " + this.table("friend_meta") + " (player, other, best, nickname) VALUES (?, ?, ?, ?)");){
+            for (PlayerData record : chunk) {
+                String player = record.getPlayerUUID().toString();
+                for (UUID friend : record.getFriendsView()) {
+                    friends.setString(1, player);
+                    friends.setString(2, friend.toString());
+                    friends.addBatch();
+                }
+                int position = 0;
+                for (UUID blocked : record.getBlockedPlayersView()) {
+                    blocks.setString(1, player);
+                    blocks.setString(2, blocked.toString());
+                    blocks.setInt(3, position++);
+                    blocks.addBatch();
+                }
+                HashSet<UUID> others = new HashSet<UUID>(record.getBestFriendsView());
+                others.addAll(record.getNicknamesView().keySet());
+                for (UUID other : others) {
+                    meta.setString(1, player);
+                    meta.setString(2, other.toString());
+                    meta.setBoolean(3, record.isBestFriend(other));
+                    meta.setString(4, record.getNickname(other));
+                    meta.addBatch();
+                }
+            }
+            friends.executeBatch();
+            blocks.executeBatch();
+            meta.executeBatch();
+        }
+    }
+
+    @Override
+    public Map<UUID, Map<UUID, Long>> loadRequests() throws IOException {
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            if (this.hasTable(connection, "requests")) {
+                this.migrateRequests(connection);
+            }
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT sender, receiver, sent_at FROM " + this.table("pending_requests"));){
+                while (rows.next()) {
+                    UUID sender = this.parseUUID(rows.getString(1));
+                    UUID receiver = this.parseUUID(rows.getString(2));
+                    if (sender == null || receiver == null) continue;
+                    requests.computeIfAbsent(sender, uuid -> new HashMap<UUID, Long>()).put(receiver, rows.getLong(3));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not load requests from MySQL: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        return requests;
+    }
+
+    /**
+     * Keeps the old per-side rows both sides agree on, with the receiver's time, then drops the
+     * old table. The copy replaces whatever an interrupted earlier attempt left behind.
+     */
+    private void migrateRequests(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement();){
+            statement.executeUpdate("DELETE FROM " + this.table("pending_requests"));
+            int migrated = statement.executeUpdate("INSERT INTO " + this.table("pending_requests") + " (sender, receiver, sent_at) SELECT o.player, o.other, i.created FROM " + this.table("requests") + " o JOIN " + this.table("requests") + " i ON i.player = o.other AND i.other = o.player AND i.outgoing = FALSE WHERE o.outgoing = TRUE");
+            connection.commit();
+            statement.executeUpdate("DROP TABLE " + this.table("requests"));
+            connection.commit();
+            this.logger.info("Moved " + migrated + " pending requests to " + this.table("pending_requests") + ".");
+        }
+    }
+
+    private boolean hasTable(Connection connection, String name) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet ignored = statement.executeQuery("SELECT 1 FROM " + this.table(name) + " WHERE 1 = 0");){
+            return true;
+        }
+        catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        if (outgoing.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + this.table("pending_requests") + " WHERE sender = ?");){
+                for (UUID sender : outgoing.keySet()) {
+                    delete.setString(1, sender.toString());
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+            this.insertRequests(connection, outgoing);
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not save requests to MySQL: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+    }
+
+    @Override
+    public void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            connection.setAutoCommit(false);
+            this.executeDelete(connection, "DELETE FROM " + this.table("pending_requests"), null);
+            this.insertRequests(connection, requests);
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not replace the MySQL requests: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+    }
+
+    private void insertRequests(Connection connection, Map<UUID, Map<UUID, Long>> requests) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + this.table("pending_requests") + " (sender, receiver, sent_at) VALUES (?, ?, ?)");){
+            for (Map.Entry<UUID, Map<UUID, Long>> sender : requests.entrySet()) {
+                for (Map.Entry<UUID, Long> request : sender.getValue().entrySet()) {
+                    insert.setString(1, sender.getKey().toString());
+                    insert.setString(2, request.getKey().toString());
+                    insert.setLong(3, request.getValue());
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    @Override
+    public void delete(UUID playerUUID) throws IOException {
+        this.update(" WHERE player = ?", " WHERE uuid = ?", playerUUID);
+        this.knownPlayers.remove(playerUUID);
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        this.update("", "", null);
+        this.knownPlayers.clear();
+    }
+
+    /**
+     * Deletes every row and writes {@code records} in one transaction, so other connections and
+     * a crash see either the old or the new data.
+     */
+    @Override
+    public void replaceAll(Collection<PlayerData> records) throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            connection.setAutoCommit(false);
+            for (String edgeTable : EDGE_TABLES) {
+                this.executeDelete(connection, "DELETE FROM " + this.table(edgeTable), null);
+            }
+            this.executeDelete(connection, "DELETE FROM " + this.table("players"), null);
+            ArrayList<PlayerData> chunk = new ArrayList<PlayerData>(Math.min(records.size(), BATCH_SIZE));
+            Iterator<PlayerData> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() < BATCH_SIZE && iterator.hasNext()) continue;
+                this.writeChunk(connection, chunk);
+                chunk.clear();
+            }
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not replace the MySQL data: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        HashSet<UUID> keys = new HashSet<UUID>();
+        for (PlayerData record : records) {
+            keys.add(record.getPlayerUUID());
+        }
+        this.knownPlayers.clear();
+        this.knownPlayers.addAll(keys);
+    }
+
+    /**
+     * Replaces this store's tables with those of {@code staged}, which must be open on the same
+     * database, by renaming them over these. Each rename commits on its own, so this is only for
+     * the offline converter, where no server reads the tables in between. A leftover
+     * {@code requests} table of an older version is dropped too, so it is not carried over into
+     * the new data.
+     */
+    void replaceTablesWith(MySqlPlayerStore staged) throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (Statement statement = connection.createStatement();){
+                for (String name : TABLES) {
+                    statement.executeUpdate("DROP TABLE IF EXISTS " + this.table(name) + "_old");
+                    statement.executeUpdate("ALTER TABLE " + this.table(name) + " RENAME TO " + this.table(name) + "_old");
+                    statement.executeUpdate("ALTER TABLE " + staged.table(name) + " RENAME TO " + this.table(name));
+                }
+                for (String name : TABLES) {
+                    statement.executeUpdate("DROP TABLE " + this.table(name) + "_old");
+                }
+                statement.executeUpdate("DROP TABLE IF EXISTS " + this.table("requests"));
+            }
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not swap in the converted MySQL tables: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        this.knownPlayers.clear();
+        this.knownPlayers.addAll(staged.knownPlayers);
+        staged.knownPlayers.clear();
+    }
+
+    /**
+     * Drops every table of this store, for throwing away a conversion that did not verify.
+     */
+    void dropTables() throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (Statement statement = connection.createStatement();){
+                for (String name : TABLES) {
+                    statement.executeUpdate("DROP TABLE IF EXISTS " + this.table(name));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not drop the MySQL tables: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        this.knownPlayers.clear();
+    }
+
+    private void update(String edgeWhere, String playerWhere, UUID playerUUID) throws IOException {
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            connection.setAutoCommit(false);
+            for (String edgeTable : EDGE_TABLES) {
+                this.executeDelete(connection, "DELETE FROM " + this.table(edgeTable) + edgeWhere, playerUUID);
+            }
+            this.executeDelete(connection, "DELETE FROM " + this.table("players") + playerWhere, playerUUID);
+            connection.commit();
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not delete from MySQL: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+    }
+
+    private void executeDelete(Connection connection, String sql, UUID playerUUID) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql);){
+            if (playerUUID != null) {
+                statement.setString(1, playerUUID.toString());
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public boolean contains(UUID playerUUID) {
+        if (this.knownPlayers.contains(playerUUID)) {
+            return true;
+        }
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (PreparedStatement statement = this.prepareQuery(connection, "SELECT 1 FROM " + this.table("players") + " WHERE uuid = ?", Collections.singletonList(playerUUID), 1);
+                 ResultSet rows = statement.executeQuery();){
+                if (!rows.next()) {
+                    return false;
+                }
+            }
+        }
+        catch (SQLException e) {
+            this.logger.warning("Could not look up " + playerUUID + " in MySQL: " + e.getMessage());
+            return false;
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        this.knownPlayers.add(playerUUID);
+        return true;
+    }
+
+    /**
+     * Reads the keys from the database, so players other servers stored are included.
+     */
+    @Override
+    public Set<UUID> keys() {
+        HashSet<UUID> keys = new HashSet<UUID>();
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (PreparedStatement statement = this.prepareQuery(connection, "SELECT uuid FROM " + this.table("players"), null, 0);
+                 ResultSet rows = statement.executeQuery();){
+                while (rows.next()) {
+                    UUID uuid = this.parseUUID(rows.getString(1));
+                    if (uuid == null) continue;
+                    keys.add(uuid);
+                }
+            }
+        }
+        catch (SQLException e) {
+            this.logger.warning("Could not list the players in MySQL, using the ones seen so far: " + e.getMessage());
+            return new HashSet<UUID>(this.knownPlayers);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        this.knownPlayers.addAll(keys);
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        this.pool.close();
+    }
+
+    /**
+     * Reads the records of {@code playerUUIDs}, or of every player if it is {@code null}, with
+     * one query on {@code players} and one over the edge tables.
+     */
+    private Map<UUID, PlayerData> query(List<UUID> playerUUIDs) throws IOException {
+        HashMap<UUID, RecordBuilder> builders = new HashMap<UUID, RecordBuilder>();
+        String filter = "";
+        if (playerUUIDs != null) {
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < playerUUIDs.size(); ++i) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            filter = " IN (" + placeholders + ")";
+        }
+        Connection connection = null;
+        try {
+            connection = this.pool.borrow();
+            try (PreparedStatement statement = this.prepareQuery(connection, "SELECT uuid, name, settings, last_logout FROM " + this.table("players") + (filter.isEmpty() ? "" : " WHERE uuid" + filter), playerUUIDs, 1);
+                 ResultSet rows = statement.executeQuery();){
+                while (rows.next()) {
+                    UUID uuid = this.parseUUID(rows.getString(1));
+                    if (uuid == null) continue;
+                    builders.put(uuid, new RecordBuilder(uuid, rows.getString(2), rows.getInt(3), rows.getLong(4)));
+                }
+            }
+            if (builders.isEmpty()) {
+                return new HashMap<UUID, PlayerData>();
+            }
+            String where = filter.isEmpty() ? "" : " WHERE player" + filter;
+            String edges = "SELECT player, 0, friend, 0, FALSE, NULL FROM " + this.table("friends") + where + " UNION ALL SELECT player, 1, blocked, position, FALSE, NULL FROM " + this.table("blocks") + where + " UNION ALL SELECT player, 2, other, 0, best, nickname FROM " + this.table("friend_meta") + where;
+            try (PreparedStatement statement = this.prepareQuery(connection, edges, playerUUIDs, EDGE_TABLES.length);
+                 ResultSet rows = statement.executeQuery();){
+                while (rows.next()) {
+                    RecordBuilder builder = builders.get(this.parseUUID(rows.getString(1)));
+                    UUID other = this.parseUUID(rows.getString(3));
+                    if (builder == null || other == null) continue;
+                    switch (rows.getInt(2)) {
+                        case 0: {
+                            builder.friends.add(other);
+                            break;
+                        }
+                        case 1: {
+                            builder.blocked.put(rows.getInt(4), other);
+                            break;
+                        }
+                        default: {
+                            if (rows.getBoolean(5)) {
+                                builder.bestFriends.add(other);
+                            }
+                            String nickname = rows.getString(6);
+                            if (nickname == null) break;
+                            builder.nicknames.put(other, nickname);
+                        }
+                    }
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new IOException("Could not load from MySQL: " + e.getMessage(), e);
+        }
+        finally {
+            this.pool.release(connection);
+        }
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>(Math.max(16, (int)(builders.size() / 0.75f) + 1));
+        for (RecordBuilder builder : builders.values()) {
+            records.put(builder.uuid, builder.build());
+            this.knownPlayers.add(builder.uuid);
+        }
+        return records;
+    }
+
+    /**
+     * Binds {@code playerUUIDs} {@code repeats} times, once per filtered table in the query; a
+     * {@code null} list reads everything and fetches in large steps.
+     */
+    private PreparedStatement prepareQuery(Connection connection, String sql, List<UUID> playerUUIDs, int repeats) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        if (playerUUIDs != null) {
+            int index = 1;
+            for (int i = 0; i < repeats; ++i) {
+                for (UUID playerUUID : playerUUIDs) {
+                    statement.setString(index++, playerUUID.toString());
+                }
+            }
+        } else {
+            statement.setFetchSize(1000);
+        }
+        return statement;
+    }
+
+    private UUID parseUUID(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(value);
+        }
+        catch (IllegalArgumentException e) {
+            this.logger.warning("Invalid UUID in MySQL storage: " + value);
+            return null;
+        }
+    }
+
+    private String table(String name) {
+        return this.prefix + name;
+    }
+
+    private static class RecordBuilder {
+        private final UUID uuid;
+        private final String name;
+        private final int settings;
+        private final long lastLogoutTime;
+        private final Set<UUID> friends = new HashSet<UUID>();
+        private final TreeMap<Integer, UUID> blocked = new TreeMap<Integer, UUID>();
+        private final Set<UUID> bestFriends = new HashSet<UUID>();
+        private final Map<UUID, String> nicknames = new HashMap<UUID, String>();
+
+        private RecordBuilder(UUID uuid, String name, int settings, long lastLogoutTime) {
+            this.uuid = uuid;
+            this.name = name;
+            this.settings = settings;
+            this.lastLogoutTime = lastLogoutTime;
+        }
+
+        private PlayerData build() {
+            PlayerSettings playerSettings = BinaryRecordCodec.unpackSettings(this.settings);
+            PlayerData data = new PlayerData(this.uuid, this.name, this.friends, playerSettings, new LinkedHashSet<UUID>(this.blocked.values()), this.bestFriends, this.nicknames);
+            data.setLastLogoutTime(this.lastLogoutTime);
+            return data;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Parses stored records on a private ForkJoin pool while the caller keeps reading input.
+ * Sources are handed out in batches and only a few batches per core are in flight at once,
+ * so memory stays bounded no matter how many records there are. Parsed records are passed
+ * to the visitor on the calling thread, in input order.
+ */
+final class ParallelRecordLoader {
+    private static final int BATCH_SIZE = 256;
+
+    private ParallelRecordLoader() {
+    }
+
+    /**
+     * @param parser returns the record, or {@code null} to skip a source it could not parse
+     * @return the number of records passed to the visitor
+     */
+    static <T> int load(Iterator<T> sources, Parser<T> parser, Consumer<PlayerData> visitor, Logger logger, String description) {
+        long start = System.nanoTime();
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("FriendSystem-Loader-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        int loaded = 0;
+        try {
+            ArrayDeque<ForkJoinTask<List<PlayerData>>> inFlight = new ArrayDeque<ForkJoinTask<List<PlayerData>>>();
+            while (sources.hasNext()) {
+                ArrayList<T> batch = new ArrayList<T>(BATCH_SIZE);
+                while (batch.size() < BATCH_SIZE && sources.hasNext()) {
+                    batch.add(sources.next());
+                }
+                inFlight.add(pool.submit(() -> ParallelRecordLoader.parseBatch(batch, parser, logger)));
+                if (inFlight.size() < parallelism * 2) continue;
+                loaded += ParallelRecordLoader.deliver(inFlight.poll(), visitor);
+            }
+            while (!inFlight.isEmpty()) {
+                loaded += ParallelRecordLoader.deliver(inFlight.poll(), visitor);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        long elapsedMillis = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+        logger.info("Parsed " + loaded + " players from " + description + " in " + elapsedMillis + "ms (" + (long)loaded * 1000L / elapsedMillis + " records/s on " + parallelism + " threads)");
+        return loaded;
+    }
+
+    private static <T> List<PlayerData> parseBatch(List<T> batch, Parser<T> parser, Logger logger) {
+        ArrayList<PlayerData> records = new ArrayList<PlayerData>(batch.size());
+        for (T source : batch) {
+            PlayerData record;
+            try {
+                record = parser.parse(source);
+            }
+            catch (Exception e) {
+                logger.warning("Skipping unreadable player record: " + e.getMessage());
+                continue;
+            }
+            if (record == null) continue;
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static int deliver(ForkJoinTask<List<PlayerData>> task, Consumer<PlayerData> visitor) {
+        List<PlayerData> records = task.join();
+        for (PlayerData record : records) {
+            visitor.accept(record);
+        }
+        return records.size();
+    }
+
+    interface Parser<T> {
+        PlayerData parse(T source) throws Exception;
+    }
+}
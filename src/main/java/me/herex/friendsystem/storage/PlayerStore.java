@@ -0,0 +1,118 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Persistence backend for {@link PlayerData} records and pending friend requests.
+ * {@code DataManager} owns caching and dirty tracking; a store only reads and writes.
+ * <p>
+ * Requests are stored apart from the records, as sender to receiver to sent time, since the
+ * request table is the only place they live in memory. Older versions kept them in both
+ * players' records; the first {@link #loadRequests} carries those over.
+ * <p>
+ * Writes ({@link #save}, {@link #delete}, {@link #deleteAll}, {@link #replaceAll} and the request
+ * writes) are only issued from the IO thread,
+ * except for the shutdown flush, which saves disjoint batches from several threads at once if
+ * {@link #supportsConcurrentWrites()} allows it. Reads may come from any thread, so
+ * implementations must tolerate a concurrent writer.
+ */
+public interface PlayerStore {
+
+    /**
+     * (Re)opens the store, discarding any state read by a previous call.
+     */
+    void open() throws IOException;
+
+    /**
+     * @return the stored record, or {@code null} if the player has never been saved
+     */
+    PlayerData load(UUID playerUUID) throws IOException;
+
+    /**
+     * @return the stored records among {@code playerUUIDs}; unknown players are left out
+     */
+    default Map<UUID, PlayerData> loadBatch(Collection<UUID> playerUUIDs) throws IOException {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        for (UUID playerUUID : playerUUIDs) {
+            PlayerData record = this.load(playerUUID);
+            if (record == null) continue;
+            records.put(playerUUID, record);
+        }
+        return records;
+    }
+
+    Map<UUID, PlayerData> loadAll() throws IOException;
+
+    /**
+     * Visits every stored record. Stores that can stream should override this so callers do
+     * not need all records in memory at once.
+     */
+    default void iterate(Consumer<PlayerData> visitor) throws IOException {
+        for (PlayerData record : this.loadAll().values()) {
+            visitor.accept(record);
+        }
+    }
+
+    default void save(PlayerData record) throws IOException {
+        this.saveBatch(Collections.singletonList(record));
+    }
+
+    /**
+     * Persists the given records. Implementations that keep pending deletes in memory flush
+     * them here as well, so this is also called with an empty collection.
+     */
+    void saveBatch(Collection<PlayerData> records) throws IOException;
+
+    /**
+     * @return whether {@link #saveBatch} may run on several threads at once for different players
+     */
+    default boolean supportsConcurrentWrites() {
+        return false;
+    }
+
+    void delete(UUID playerUUID) throws IOException;
+
+    void deleteAll() throws IOException;
+
+    /**
+     * Replaces every stored record with {@code records}, leaving either all of the old records
+     * or all of the new ones if the process dies part way. The default is only that atomic for
+     * stores whose {@link #deleteAll} takes effect at the next save; the others override it.
+     */
+    default void replaceAll(Collection<PlayerData> records) throws IOException {
+        this.deleteAll();
+        this.saveBatch(records);
+    }
+
+    /**
+     * @return every stored pending request as sender to receiver to sent time. If the store has
+     * no request data yet, the requests found in records written by older versions are stored
+     * and returned.
+     */
+    Map<UUID, Map<UUID, Long>> loadRequests() throws IOException;
+
+    /**
+     * Replaces the stored requests of each sender in {@code outgoing} with the given ones; an
+     * empty map removes all of that sender's requests. Other senders are left alone.
+     */
+    void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException;
+
+    /**
+     * Replaces every stored request with {@code requests}.
+     */
+    void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException;
+
+    boolean contains(UUID playerUUID);
+
+    Set<UUID> keys();
+
+    void close() throws IOException;
+}
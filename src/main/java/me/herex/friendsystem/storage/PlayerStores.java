@@ -0,0 +1,86 @@
+package me.herex.friendsystem.storage;
+
+import java.io.File;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Creates the {@link PlayerStore} for a {@code storage.type} value.
+ */
+public final class PlayerStores {
+    /**
+     * Player count from which the single-file stores (YAML, BINARY) warn at startup that every
+     * flush rewrites the whole file.
+     */
+    static final int SINGLE_FILE_WARN_PLAYERS = 10000;
+    // Added to the MySQL table prefix of a store created by createStaging.
+    static final String STAGING_TABLE_PREFIX = "convert_";
+
+    private PlayerStores() {
+    }
+
+    /**
+     * Warns once the single data file holds enough players that rewriting it on every flush
+     * costs more than keeping one file or slot per player would, and names the stores to move to.
+     */
+    static void warnIfLarge(File dataFile, int players, Logger logger) {
+        if (players < SINGLE_FILE_WARN_PLAYERS) {
+            return;
+        }
+        logger.warning(dataFile.getName() + " holds " + players + " players and every flush rewrites all of it; storage.type SHARDED or KV only writes the players that changed (convert with StorageConverter).");
+    }
+
+    /**
+     * @param storage the {@code storage} config section, or {@code null} to use defaults
+     */
+    public static PlayerStore create(String type, File dataFolder, ConfigurationSection storage, Logger logger) {
+        switch (type.toUpperCase()) {
+            case "BINARY": {
+                return new BinaryPlayerStore(new File(dataFolder, "data.dat"), logger);
+            }
+            case "SHARDED": {
+                return new ShardedYamlPlayerStore(new File(dataFolder, "players"), logger);
+            }
+            case "KV": {
+                return new KeyValuePlayerStore(new File(dataFolder, "data.kv"), logger);
+            }
+            case "MYSQL": {
+                return PlayerStores.createMySqlStore(storage == null ? null : storage.getConfigurationSection("mysql"), "", logger);
+            }
+            case "YAML": {
+                break;
+            }
+            default: {
+                logger.warning("Unknown storage type '" + type + "', falling back to YAML.");
+            }
+        }
+        return new YamlPlayerStore(new File(dataFolder, "data.yml"), logger);
+    }
+
+    /**
+     * Creates a store of {@code type} that lives beside the configured one rather than over it:
+     * file stores under {@code stagingFolder}, MySQL in tables with {@link #STAGING_TABLE_PREFIX}
+     * added to the configured prefix.
+     */
+    static PlayerStore createStaging(String type, File stagingFolder, ConfigurationSection storage, Logger logger) {
+        if (type.equalsIgnoreCase("MYSQL")) {
+            return PlayerStores.createMySqlStore(storage == null ? null : storage.getConfigurationSection("mysql"), STAGING_TABLE_PREFIX, logger);
+        }
+        return PlayerStores.create(type, stagingFolder, storage, logger);
+    }
+
+    private static PlayerStore createMySqlStore(ConfigurationSection mysql, String extraPrefix, Logger logger) {
+        String url = mysql == null ? "" : mysql.getString("jdbc_url", "");
+        if (url.isEmpty()) {
+            String host = mysql == null ? "localhost" : mysql.getString("host", "localhost");
+            int port = mysql == null ? 3306 : mysql.getInt("port", 3306);
+            String database = mysql == null ? "friendsystem" : mysql.getString("database", "friendsystem");
+            url = "jdbc:mysql://" + host + ":" + port + "/" + database + "?useSSL=false&useUnicode=true&characterEncoding=utf8&rewriteBatchedStatements=true";
+        }
+        String username = mysql == null ? "root" : mysql.getString("username", "root");
+        String password = mysql == null ? "" : mysql.getString("password", "");
+        int poolSize = mysql == null ? 4 : Math.max(1, mysql.getInt("pool_size", 4));
+        String tablePrefix = mysql == null ? "fs_" : mysql.getString("table_prefix", "fs_");
+        return new MySqlPlayerStore(new ConnectionPool(url, username, password, poolSize), tablePrefix + extraPrefix, logger);
+    }
+}
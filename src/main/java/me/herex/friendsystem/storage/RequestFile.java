@@ -0,0 +1,124 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.util.FileUtil;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The pending friend requests of a file based store, kept next to its data as
+ * {@code <data file>.requests}:
+ * <pre>
+ * i32 magic "FSRQ", i32 version, i32 request count
+ * request count x (i64, i64 sender, i64, i64 receiver, i64 sent time)
+ * i64 CRC32 of the requests
+ * </pre>
+ * Requests are few and short-lived, so every change rewrites the whole file atomically.
+ */
+public class RequestFile {
+    private static final int MAGIC = 0x46535251;
+    private static final int VERSION = 1;
+    private final File file;
+
+    public RequestFile(File dataFile) {
+        this.file = new File(dataFile.getParentFile(), dataFile.getName() + ".requests");
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public boolean exists() {
+        return this.file.isFile();
+    }
+
+    /**
+     * @return sender to receiver to sent time; empty if there is no file yet
+     * @throws IOException if the file is not a request file or is damaged
+     */
+    public Map<UUID, Map<UUID, Long>> read() throws IOException {
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        if (!this.exists()) {
+            return requests;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file), 65536))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(this.file.getName() + " is not a request file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(this.file.getName() + " has unsupported version " + version);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException(this.file.getName() + " is damaged");
+            }
+            CRC32 crc = new CRC32();
+            DataInputStream rows = new DataInputStream(new CheckedInputStream(in, crc));
+            for (int i = 0; i < count; ++i) {
+                UUID sender = new UUID(rows.readLong(), rows.readLong());
+                UUID receiver = new UUID(rows.readLong(), rows.readLong());
+                requests.computeIfAbsent(sender, uuid -> new HashMap<UUID, Long>()).put(receiver, rows.readLong());
+            }
+            if (in.readLong() != crc.getValue()) {
+                throw new IOException(this.file.getName() + " failed its checksum");
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Replaces the file with exactly these requests and fsyncs it.
+     */
+    public void write(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        int count = 0;
+        for (Map<UUID, Long> outgoing : requests.values()) {
+            count += outgoing.size();
+        }
+        int total = count;
+        FileUtil.writeAtomically(this.file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(total);
+            CRC32 crc = new CRC32();
+            DataOutputStream rows = new DataOutputStream(new CheckedOutputStream(out, crc));
+            for (Map.Entry<UUID, Map<UUID, Long>> sender : requests.entrySet()) {
+                for (Map.Entry<UUID, Long> request : sender.getValue().entrySet()) {
+                    rows.writeLong(sender.getKey().getMostSignificantBits());
+                    rows.writeLong(sender.getKey().getLeastSignificantBits());
+                    rows.writeLong(request.getKey().getMostSignificantBits());
+                    rows.writeLong(request.getKey().getLeastSignificantBits());
+                    rows.writeLong(request.getValue());
+                }
+            }
+            rows.flush();
+            out.writeLong(crc.getValue());
+            out.flush();
+        });
+    }
+
+    /**
+     * Replaces the requests of every sender in {@code outgoing} and keeps everyone else's.
+     */
+    public void update(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        Map<UUID, Map<UUID, Long>> requests = this.read();
+        for (Map.Entry<UUID, Map<UUID, Long>> sender : outgoing.entrySet()) {
+            if (sender.getValue().isEmpty()) {
+                requests.remove(sender.getKey());
+                continue;
+            }
+            requests.put(sender.getKey(), sender.getValue());
+        }
+        this.write(requests);
+    }
+}
@@ -0,0 +1,243 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * One YAML file per player at {@code <root>/<first two hex digits>/<uuid>.yml}, so loading or
+ * saving a player only touches that player's file. The 256 buckets keep directories small.
+ * Only the set of known UUIDs is kept in memory, built from a directory listing on open.
+ * Requests are kept in a {@link RequestFile} next to the root, {@code <root>.requests}.
+ * <p>
+ * {@link #replaceAll} writes the new records into {@code <root>.restore}, marks it complete and
+ * then swaps it in with two directory renames; {@link #open} finishes or discards an interrupted
+ * swap, so a crash leaves either every old or every new file.
+ */
+public class ShardedYamlPlayerStore implements PlayerStore {
+    private static final String EXTENSION = ".yml";
+    private static final String COMPLETE_MARKER = ".complete";
+    private final File rootDirectory;
+    private final File stagingDirectory;
+    private final File retiredDirectory;
+    private final Logger logger;
+    private final RequestFile requests;
+    private final Set<UUID> knownPlayers = ConcurrentHashMap.newKeySet();
+
+    public ShardedYamlPlayerStore(File rootDirectory, Logger logger) {
+        this.rootDirectory = rootDirectory;
+        this.logger = logger;
+        this.stagingDirectory = new File(rootDirectory.getParentFile(), rootDirectory.getName() + ".restore");
+        this.retiredDirectory = new File(rootDirectory.getParentFile(), rootDirectory.getName() + ".old");
+        this.requests = new RequestFile(rootDirectory);
+    }
+
+    @Override
+    public void open() throws IOException {
+        this.recoverReplace();
+        if (!this.rootDirectory.isDirectory() && !this.rootDirectory.mkdirs()) {
+            throw new IOException("Could not create directory " + this.rootDirectory);
+        }
+        this.knownPlayers.clear();
+        File[] buckets = this.rootDirectory.listFiles(File::isDirectory);
+        if (buckets == null) {
+            return;
+        }
+        for (File bucket : buckets) {
+            String[] names = bucket.list((dir, name) -> name.endsWith(EXTENSION));
+            if (names == null) continue;
+            for (String name : names) {
+                try {
+                    this.knownPlayers.add(UUID.fromString(name.substring(0, name.length() - EXTENSION.length())));
+                }
+                catch (IllegalArgumentException e) {
+                    this.logger.warning("Ignoring unexpected file in player storage: " + bucket.getName() + "/" + name);
+                }
+            }
+        }
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws IOException {
+        YamlConfiguration config = this.readFile(playerUUID);
+        return config == null ? null : YamlRecordCodec.read(playerUUID, config, this.logger);
+    }
+
+    private YamlConfiguration readFile(UUID playerUUID) throws IOException {
+        if (!this.knownPlayers.contains(playerUUID)) {
+            return null;
+        }
+        File file = this.fileFor(playerUUID);
+        if (!file.isFile()) {
+            return null;
+        }
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        }
+        catch (InvalidConfigurationException e) {
+            throw new IOException("Unreadable data for player " + playerUUID + ": " + e.getMessage(), e);
+        }
+        return config;
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll() {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        this.iterate(record -> records.put(record.getPlayerUUID(), record));
+        return records;
+    }
+
+    @Override
+    public void iterate(Consumer<PlayerData> visitor) {
+        ParallelRecordLoader.load(new HashSet<UUID>(this.knownPlayers).iterator(), this::load, visitor, this.logger, this.rootDirectory.getName() + "/");
+    }
+
+    @Override
+    public void saveBatch(Collection<PlayerData> records) throws IOException {
+        for (PlayerData record : records) {
+            YamlConfiguration config = new YamlConfiguration();
+            YamlRecordCodec.write(config, record);
+            FileUtil.writeAtomically(this.fileFor(record.getPlayerUUID()), config.saveToString().getBytes(StandardCharsets.UTF_8));
+            this.knownPlayers.add(record.getPlayerUUID());
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public void delete(UUID playerUUID) throws IOException {
+        this.deleteFile(playerUUID);
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        for (UUID uuid : new HashSet<UUID>(this.knownPlayers)) {
+            this.deleteFile(uuid);
+        }
+    }
+
+    @Override
+    public void replaceAll(Collection<PlayerData> records) throws IOException {
+        FileUtil.deleteRecursively(this.stagingDirectory);
+        HashSet<UUID> written = new HashSet<UUID>();
+        for (PlayerData record : records) {
+            YamlConfiguration config = new YamlConfiguration();
+            YamlRecordCodec.write(config, record);
+            FileUtil.writeAtomically(ShardedYamlPlayerStore.fileIn(this.stagingDirectory, record.getPlayerUUID()), config.saveToString().getBytes(StandardCharsets.UTF_8));
+            written.add(record.getPlayerUUID());
+        }
+        FileUtil.writeAtomically(new File(this.stagingDirectory, COMPLETE_MARKER), new byte[0]);
+        this.swapInStaging();
+        this.knownPlayers.clear();
+        this.knownPlayers.addAll(written);
+    }
+
+    /**
+     * Moves the current root aside, renames the staging directory over it and drops the old one.
+     */
+    private void swapInStaging() throws IOException {
+        if (this.rootDirectory.exists()) {
+            FileUtil.deleteRecursively(this.retiredDirectory);
+            FileUtil.move(this.rootDirectory, this.retiredDirectory);
+        }
+        FileUtil.move(this.stagingDirectory, this.rootDirectory);
+        FileUtil.deleteRecursively(new File(this.rootDirectory, COMPLETE_MARKER));
+        FileUtil.deleteRecursively(this.retiredDirectory);
+    }
+
+    /**
+     * Completes a replace that got as far as marking its staging directory complete and discards
+     * one that did not.
+     */
+    private void recoverReplace() throws IOException {
+        if (this.stagingDirectory.exists()) {
+            if (new File(this.stagingDirectory, COMPLETE_MARKER).isFile()) {
+                this.logger.warning("Finishing an interrupted replace of " + this.rootDirectory.getName() + ".");
+                this.swapInStaging();
+            } else {
+                this.logger.warning("Discarding an incomplete replace of " + this.rootDirectory.getName() + ".");
+                FileUtil.deleteRecursively(this.stagingDirectory);
+            }
+        }
+        if (this.retiredDirectory.exists()) {
+            if (this.rootDirectory.exists()) {
+                FileUtil.deleteRecursively(this.retiredDirectory);
+            } else {
+                FileUtil.move(this.retiredDirectory, this.rootDirectory);
+            }
+        }
+        FileUtil.deleteRecursively(new File(this.rootDirectory, COMPLETE_MARKER));
+    }
+
+    @Override
+    public Map<UUID, Map<UUID, Long>> loadRequests() throws IOException {
+        if (!this.requests.exists()) {
+            LegacyRequests legacy = new LegacyRequests();
+            for (UUID playerUUID : new HashSet<UUID>(this.knownPlayers)) {
+                YamlConfiguration config = this.readFile(playerUUID);
+                if (config == null) continue;
+                YamlRecordCodec.readLegacyRequests(playerUUID, config, legacy, this.logger);
+            }
+            this.requests.write(legacy.agreed());
+        }
+        return this.requests.read();
+    }
+
+    @Override
+    public void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        this.requests.update(outgoing);
+    }
+
+    @Override
+    public void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        this.requests.write(requests);
+    }
+
+    @Override
+    public boolean contains(UUID playerUUID) {
+        return this.knownPlayers.contains(playerUUID);
+    }
+
+    @Override
+    public Set<UUID> keys() {
+        return new HashSet<UUID>(this.knownPlayers);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void deleteFile(UUID playerUUID) throws IOException {
+        this.knownPlayers.remove(playerUUID);
+        File file = this.fileFor(playerUUID);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    private File fileFor(UUID playerUUID) {
+        return ShardedYamlPlayerStore.fileIn(this.rootDirectory, playerUUID);
+    }
+
+    private static File fileIn(File root, UUID playerUUID) {
+        String key = playerUUID.toString();
+        return new File(new File(root, key.substring(0, 2)), key + EXTENSION);
+    }
+}
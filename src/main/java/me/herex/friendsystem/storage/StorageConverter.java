@@ -0,0 +1,259 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Offline migration between storage backends, run without a server:
+ * <pre>
+ * java -cp FriendSystem.jar:spigot-api.jar me.herex.friendsystem.storage.StorageConverter \
+ *     plugins/FriendSystem YAML BINARY [--overwrite]
+ * </pre>
+ * The spigot-api jar is only needed for its YAML classes, and a MySQL driver only for MYSQL.
+ * Connection settings for MYSQL are read from config.yml in the data folder.
+ * <p>
+ * Records are streamed from the source into a staged copy of the target in batches: file stores
+ * are written under {@code convert.tmp} in the data folder, MySQL into tables whose prefix gains
+ * {@code convert_}. Every player the source lists must be read; a record the source skips as
+ * unreadable fails the conversion. Afterwards the staged copy is reopened and read back, and its
+ * record count and checksum must match the source's. The checksum covers every field that all
+ * backends store, in a canonical order, and is summed per record so the order in which a backend
+ * returns records does not matter. Pending requests are copied in one piece and must read back
+ * equal. Only a verified copy is moved over the target, so a failed conversion leaves the
+ * existing target data as it was, even with {@code --overwrite}.
+ */
+public final class StorageConverter {
+    private static final int BATCH_SIZE = 1000;
+    private static final String STAGING_FOLDER = "convert.tmp";
+
+    private StorageConverter() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Usage: StorageConverter <data folder> <from type> <to type> [--overwrite]");
+            System.err.println("Types: YAML, SHARDED, BINARY, KV, MYSQL");
+            System.exit(2);
+            return;
+        }
+        File dataFolder = new File(args[0]);
+        boolean overwrite = args.length > 3 && args[3].equalsIgnoreCase("--overwrite");
+        Logger logger = Logger.getLogger("FriendSystem-Converter");
+        try {
+            StorageConverter.convert(dataFolder, args[1], args[2], overwrite, logger);
+        }
+        catch (IOException | RuntimeException e) {
+            logger.severe("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @throws IOException if either store fails, the target already has data and
+     * {@code overwrite} is false, or the copy does not verify
+     */
+    public static void convert(File dataFolder, String fromType, String toType, boolean overwrite, Logger logger) throws IOException {
+        if (fromType.equalsIgnoreCase(toType)) {
+            throw new IOException("Source and target type are both " + fromType);
+        }
+        File configFile = new File(dataFolder, "config.yml");
+        ConfigurationSection storage = configFile.isFile() ? YamlConfiguration.loadConfiguration((File)configFile).getConfigurationSection("storage") : null;
+        PlayerStore source = PlayerStores.create(fromType, dataFolder, storage, logger);
+        PlayerStore target = PlayerStores.create(toType, dataFolder, storage, logger);
+        File stagingFolder = new File(dataFolder, STAGING_FOLDER);
+        PlayerStore staged = null;
+        boolean swapped = false;
+        try {
+            source.open();
+            if (source instanceof BinaryPlayerStore && ((BinaryPlayerStore)source).getDamage() != null) {
+                throw new IOException("The " + fromType + " storage is damaged (" + ((BinaryPlayerStore)source).getDamage() + "); restore it from a backup first");
+            }
+            int expected = source.keys().size();
+            target.open();
+            if (!target.keys().isEmpty() && !overwrite) {
+                throw new IOException("The " + toType + " storage already holds " + target.keys().size() + " players; pass --overwrite to replace them");
+            }
+            FileUtil.deleteRecursively(stagingFolder);
+            staged = PlayerStores.createStaging(toType, stagingFolder, storage, logger);
+            staged.open();
+            if (!staged.keys().isEmpty()) {
+                // Left behind in the MySQL staging tables by an earlier conversion that failed.
+                staged.deleteAll();
+                staged.saveBatch(new ArrayList<PlayerData>());
+            }
+            // Single-file stores rewrite the whole file on every save, so they get one save at the end.
+            int batchSize = staged instanceof YamlPlayerStore || staged instanceof BinaryPlayerStore ? Integer.MAX_VALUE : BATCH_SIZE;
+            long start = System.nanoTime();
+            Totals copied = new Totals();
+            List<PlayerData> batch = new ArrayList<PlayerData>();
+            PlayerStore copy = staged;
+            try {
+                source.iterate(record -> {
+                    copied.add(record);
+                    batch.add(record);
+                    if (batch.size() < batchSize) {
+                        return;
+                    }
+                    StorageConverter.flush(copy, batch);
+                });
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            StorageConverter.flush(staged, batch);
+            // Stores skip records they cannot read with a warning; a conversion must not.
+            if (copied.count != expected) {
+                throw new IOException("Read only " + copied.count + " of the " + expected + " players in the " + fromType + " storage; see the warnings above for the records that could not be read");
+            }
+            Map<UUID, Map<UUID, Long>> requests = source.loadRequests();
+            staged.replaceRequests(requests);
+            long copyNanos = System.nanoTime() - start;
+            logger.info("Copied " + copied.count + " players from " + fromType + " to " + toType + " in " + copyNanos / 1000000L + "ms (" + StorageConverter.perSecond(copied.count, copyNanos) + " records/s)");
+            staged.close();
+            PlayerStore verify = PlayerStores.createStaging(toType, stagingFolder, storage, logger);
+            long verifyStart = System.nanoTime();
+            Totals written = new Totals();
+            Map<UUID, Map<UUID, Long>> writtenRequests;
+            try {
+                verify.open();
+                verify.iterate(written::add);
+                writtenRequests = verify.loadRequests();
+            }
+            finally {
+                verify.close();
+            }
+            long verifyNanos = System.nanoTime() - verifyStart;
+            if (written.count != expected || written.checksum != copied.checksum) {
+                throw new IOException("Verification failed: read " + copied.count + " players (checksum " + Long.toHexString(copied.checksum) + ") but the " + toType + " storage holds " + written.count + " (checksum " + Long.toHexString(written.checksum) + ")");
+            }
+            if (!writtenRequests.equals(requests)) {
+                throw new IOException("Verification failed: the friend requests in the " + toType + " storage differ from the " + fromType + " storage's");
+            }
+            logger.info("Verified " + written.count + " players (checksum " + Long.toHexString(written.checksum) + ") in " + verifyNanos / 1000000L + "ms (" + StorageConverter.perSecond(written.count, verifyNanos) + " records/s)");
+            if (target instanceof MySqlPlayerStore) {
+                staged = PlayerStores.createStaging(toType, stagingFolder, storage, logger);
+                staged.open();
+                ((MySqlPlayerStore)target).replaceTablesWith((MySqlPlayerStore)staged);
+            } else {
+                target.close();
+                StorageConverter.moveInto(stagingFolder, dataFolder);
+            }
+            swapped = true;
+            logger.info("Set storage.type to \"" + toType.toUpperCase() + "\" in config.yml to use the converted data.");
+        }
+        finally {
+            source.close();
+            target.close();
+            if (staged != null) {
+                staged.close();
+                if (!swapped && staged instanceof MySqlPlayerStore) {
+                    StorageConverter.dropStagedTables(toType, storage, logger);
+                }
+            }
+            FileUtil.deleteRecursively(stagingFolder);
+        }
+    }
+
+    private static void dropStagedTables(String toType, ConfigurationSection storage, Logger logger) {
+        MySqlPlayerStore staged = (MySqlPlayerStore)PlayerStores.createStaging(toType, null, storage, logger);
+        try {
+            staged.dropTables();
+        }
+        catch (IOException e) {
+            logger.warning("Could not drop the staged " + toType + " tables: " + e.getMessage());
+        }
+        finally {
+            staged.close();
+        }
+    }
+
+    /**
+     * Moves everything the staged store wrote over its counterpart in the data folder. The files
+     * being replaced are set aside first and deleted once all staged files are in place.
+     */
+    private static void moveInto(File stagingFolder, File dataFolder) throws IOException {
+        File[] staged = stagingFolder.listFiles();
+        if (staged == null) {
+            throw new IOException("Could not list " + stagingFolder);
+        }
+        ArrayList<File> retired = new ArrayList<File>();
+        for (File file : staged) {
+            File current = new File(dataFolder, file.getName());
+            if (current.exists()) {
+                File old = new File(dataFolder, file.getName() + ".old");
+                FileUtil.deleteRecursively(old);
+                FileUtil.move(current, old);
+                retired.add(old);
+            }
+            FileUtil.move(file, current);
+        }
+        for (File old : retired) {
+            FileUtil.deleteRecursively(old);
+        }
+    }
+
+    private static void flush(PlayerStore target, List<PlayerData> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            target.saveBatch(batch);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        batch.clear();
+    }
+
+    private static long perSecond(int count, long nanos) {
+        return (long)count * 1000000000L / Math.max(1L, nanos);
+    }
+
+    /**
+     * CRC32 over the record's fields in a canonical order: sets sorted, blocks in block order,
+     * empty nicknames left out (YAML drops them).
+     */
+    static long fingerprint(PlayerData data) {
+        StringBuilder canonical = new StringBuilder(256);
+        canonical.append(data.getPlayerUUID()).append('|').append(data.getPlayerName()).append('|').append(data.getLastLogoutTime()).append('|');
+        PlayerSettings settings = data.getSettings();
+        canonical.append(settings.isAllowRequests()).append(settings.isAppearOffline()).append(settings.isNotifyOnline()).append(settings.isAllowJoin()).append(settings.isNotifyJoin()).append(settings.getMessagePrivacy()).append('|');
+        canonical.append(new TreeSet<UUID>(data.getFriendsView())).append('|');
+        canonical.append(data.getBlockedPlayersView()).append('|');
+        canonical.append(new TreeSet<UUID>(data.getBestFriendsView())).append('|');
+        TreeMap<UUID, String> nicknames = new TreeMap<UUID, String>();
+        for (Map.Entry<UUID, String> entry : data.getNicknamesView().entrySet()) {
+            if (entry.getValue() == null || entry.getValue().isEmpty()) continue;
+            nicknames.put(entry.getKey(), entry.getValue());
+        }
+        canonical.append(nicknames);
+        CRC32 crc = new CRC32();
+        crc.update(canonical.toString().getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static class Totals {
+        private int count;
+        private long checksum;
+
+        private void add(PlayerData data) {
+            ++this.count;
+            this.checksum += StorageConverter.fingerprint(data);
+        }
+    }
+}
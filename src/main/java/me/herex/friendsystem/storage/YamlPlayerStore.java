@@ -0,0 +1,264 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.util.FileUtil;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * The original layout: every player under {@code players.<uuid>} in a single data.yml.
+ * <p>
+ * The file is never parsed as one tree. On open it is streamed line by line and cut into one
+ * chunk of YAML text per player (the lines under that player's key), which is kept as UTF-8
+ * bytes. Chunks are parsed only when a record is read, in parallel when all of them are
+ * (see {@link ParallelRecordLoader}). A save re-serializes just the changed players and
+ * writes the chunks back out in order. Anything outside the {@code players} section, such as
+ * the header comment, is carried over verbatim. Requests are kept in a {@link RequestFile}
+ * next to data.yml.
+ * <p>
+ * This is the legacy single-file format: YAML has no record boundaries to patch in place, so
+ * every save still writes the whole file, and every chunk stays in memory (about the size of
+ * data.yml) so the file can be written back without reading it again. It suits small servers; larger ones should use
+ * {@link ShardedYamlPlayerStore} or {@link KeyValuePlayerStore}, and are warned at startup
+ * (see {@link PlayerStores#warnIfLarge}).
+ */
+public class YamlPlayerStore implements PlayerStore {
+    private static final String SECTION = "players:";
+    private final File dataFile;
+    private final Logger logger;
+    private final RequestFile requests;
+    private final Map<UUID, byte[]> chunks = new ConcurrentHashMap<UUID, byte[]>();
+    private volatile String preamble = "";
+    private volatile String trailer = "";
+
+    public YamlPlayerStore(File dataFile, Logger logger) {
+        this.dataFile = dataFile;
+        this.logger = logger;
+        this.requests = new RequestFile(dataFile);
+    }
+
+    public File getDataFile() {
+        return this.dataFile;
+    }
+
+    @Override
+    public void open() throws IOException {
+        this.chunks.clear();
+        this.preamble = "";
+        this.trailer = "";
+        if (!this.dataFile.isFile()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(this.dataFile.toPath(), StandardCharsets.UTF_8);){
+            this.split(reader);
+        }
+        long bytes = 0L;
+        for (byte[] chunk : this.chunks.values()) {
+            bytes += (long)chunk.length;
+        }
+        this.logger.info("Read " + this.chunks.size() + " players from " + this.dataFile.getName() + " in " + (System.nanoTime() - start) / 1000000L + "ms, holding " + bytes / 1024L + " KB of records in memory");
+        PlayerStores.warnIfLarge(this.dataFile, this.chunks.size(), this.logger);
+    }
+
+    private void split(BufferedReader reader) throws IOException {
+        StringBuilder preamble = new StringBuilder();
+        StringBuilder trailer = new StringBuilder();
+        StringBuilder chunk = null;
+        String key = null;
+        boolean inSection = false;
+        boolean pastSection = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (pastSection) {
+                trailer.append(line).append('\n');
+                continue;
+            }
+            if (!inSection) {
+                if (line.startsWith(SECTION)) {
+                    inSection = true;
+                    continue;
+                }
+                preamble.append(line).append('\n');
+                continue;
+            }
+            if (!line.isEmpty() && line.charAt(0) != ' ' && line.charAt(0) != '#') {
+                this.addChunk(key, chunk);
+                chunk = null;
+                pastSection = true;
+                trailer.append(line).append('\n');
+                continue;
+            }
+            if (line.length() > 2 && line.startsWith("  ") && line.charAt(2) != ' ' && line.charAt(2) != '#') {
+                this.addChunk(key, chunk);
+                key = YamlPlayerStore.keyOf(line);
+                chunk = new StringBuilder(256);
+            }
+            if (chunk == null) continue;
+            chunk.append(line.startsWith("  ") ? line.substring(2) : line).append('\n');
+        }
+        this.addChunk(key, chunk);
+        this.preamble = preamble.toString();
+        this.trailer = trailer.toString();
+    }
+
+    private void addChunk(String key, StringBuilder chunk) {
+        if (chunk == null) {
+            return;
+        }
+        try {
+            this.chunks.put(UUID.fromString(key), chunk.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IllegalArgumentException e) {
+            this.logger.warning("Invalid UUID in data file: " + key);
+        }
+    }
+
+    private static String keyOf(String line) {
+        int colon = line.indexOf(':', 2);
+        String key = (colon < 0 ? line.substring(2) : line.substring(2, colon)).trim();
+        if (key.length() >= 2 && (key.charAt(0) == '\'' || key.charAt(0) == '"') && key.charAt(key.length() - 1) == key.charAt(0)) {
+            key = key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private PlayerData parse(UUID playerUUID, byte[] chunk) throws IOException {
+        return YamlRecordCodec.read(playerUUID, this.section(playerUUID, chunk), this.logger);
+    }
+
+    private ConfigurationSection section(UUID playerUUID, byte[] chunk) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.loadFromString(new String(chunk, StandardCharsets.UTF_8));
+        }
+        catch (InvalidConfigurationException e) {
+            throw new IOException("Unreadable data for player " + playerUUID + ": " + e.getMessage(), e);
+        }
+        ConfigurationSection playerSection = null;
+        for (String key : config.getKeys(false)) {
+            playerSection = config.getConfigurationSection(key);
+        }
+        return playerSection != null ? playerSection : config;
+    }
+
+    @Override
+    public PlayerData load(UUID playerUUID) throws IOException {
+        byte[] chunk = this.chunks.get(playerUUID);
+        return chunk == null ? null : this.parse(playerUUID, chunk);
+    }
+
+    @Override
+    public Map<UUID, PlayerData> loadAll() {
+        HashMap<UUID, PlayerData> records = new HashMap<UUID, PlayerData>();
+        this.iterate(record -> records.put(record.getPlayerUUID(), record));
+        return records;
+    }
+
+    @Override
+    public void iterate(Consumer<PlayerData> visitor) {
+        ParallelRecordLoader.load(this.chunks.entrySet().iterator(), entry -> this.parse(entry.getKey(), entry.getValue()), visitor, this.logger, this.dataFile.getName());
+    }
+
+    @Override
+    public void saveBatch(Collection<PlayerData> records) throws IOException {
+        for (PlayerData record : records) {
+            YamlConfiguration config = new YamlConfiguration();
+            YamlRecordCodec.write(config.createSection(record.getPlayerUUID().toString()), record);
+            this.chunks.put(record.getPlayerUUID(), config.saveToString().getBytes(StandardCharsets.UTF_8));
+        }
+        // Copy the values first so a concurrent delete cannot change what is being written.
+        List<byte[]> snapshot = new ArrayList<byte[]>(this.chunks.values());
+        String preamble = this.preamble;
+        String trailer = this.trailer;
+        FileUtil.writeAtomically(this.dataFile, out -> {
+            out.write(preamble.getBytes(StandardCharsets.UTF_8));
+            out.write((SECTION + "\n").getBytes(StandardCharsets.UTF_8));
+            for (byte[] chunk : snapshot) {
+                YamlPlayerStore.writeIndented(out, chunk);
+            }
+            out.write(trailer.getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    private static void writeIndented(OutputStream out, byte[] chunk) throws IOException {
+        int lineStart = 0;
+        for (int i = 0; i < chunk.length; ++i) {
+            if (chunk[i] != 10) continue;
+            out.write(32);
+            out.write(32);
+            out.write(chunk, lineStart, i + 1 - lineStart);
+            lineStart = i + 1;
+        }
+        if (lineStart < chunk.length) {
+            out.write(32);
+            out.write(32);
+            out.write(chunk, lineStart, chunk.length - lineStart);
+            out.write(10);
+        }
+    }
+
+    @Override
+    public void delete(UUID playerUUID) {
+        this.chunks.remove(playerUUID);
+    }
+
+    @Override
+    public void deleteAll() {
+        this.chunks.clear();
+    }
+
+    @Override
+    public Map<UUID, Map<UUID, Long>> loadRequests() throws IOException {
+        if (!this.requests.exists()) {
+            LegacyRequests legacy = new LegacyRequests();
+            for (Map.Entry<UUID, byte[]> entry : this.chunks.entrySet()) {
+                YamlRecordCodec.readLegacyRequests(entry.getKey(), this.section(entry.getKey(), entry.getValue()), legacy, this.logger);
+            }
+            this.requests.write(legacy.agreed());
+        }
+        return this.requests.read();
+    }
+
+    @Override
+    public void saveRequests(Map<UUID, Map<UUID, Long>> outgoing) throws IOException {
+        this.requests.update(outgoing);
+    }
+
+    @Override
+    public void replaceRequests(Map<UUID, Map<UUID, Long>> requests) throws IOException {
+        this.requests.write(requests);
+    }
+
+    @Override
+    public boolean contains(UUID playerUUID) {
+        return this.chunks.containsKey(playerUUID);
+    }
+
+    @Override
+    public Set<UUID> keys() {
+        return new HashSet<UUID>(this.chunks.keySet());
+    }
+
+    @Override
+    public void close() {
+    }
+}
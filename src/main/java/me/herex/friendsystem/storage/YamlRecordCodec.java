@@ -0,0 +1,159 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * The YAML layout of a single player record, shared by the monolithic and sharded YAML stores.
+ * Requests are no longer part of it; see {@link #readLegacyRequests} for the ones older
+ * versions wrote.
+ */
+public final class YamlRecordCodec {
+
+    private YamlRecordCodec() {
+    }
+
+    /**
+     * Writes the record into an empty section; callers pass a freshly created one.
+     */
+    public static void write(ConfigurationSection playerSection, PlayerData playerData) {
+        playerSection.set("name", (Object)playerData.getPlayerName());
+        if (playerData.getLastLogoutTime() > 0L) {
+            playerSection.set("last_logout", (Object)playerData.getLastLogoutTime());
+        }
+        playerSection.set("friends",
+                playerData.getFriendsView().stream()
+                        .map(UUID::toString)
+                        .collect(java.util.stream.Collectors.toList()));
+
+        playerSection.set("blocked",
+                playerData.getBlockedPlayersView().stream()
+                        .map(UUID::toString)
+                        .collect(java.util.stream.Collectors.toList()));
+
+        playerSection.set("best_friends",
+                playerData.getBestFriendsView().stream()
+                        .map(UUID::toString)
+                        .collect(java.util.stream.Collectors.toList()));
+        HashMap<String, String> nickMap = new HashMap<String, String>();
+        for (Map.Entry<UUID, String> entry : playerData.getNicknamesView().entrySet()) {
+            nickMap.put(entry.getKey().toString(), entry.getValue());
+        }
+        playerSection.createSection("nicknames", nickMap);
+        PlayerSettings playerSettings = playerData.getSettings();
+        ConfigurationSection configurationSection2 = playerSection.createSection("settings");
+        configurationSection2.set("allow_requests", (Object)playerSettings.isAllowRequests());
+        configurationSection2.set("appear_offline", (Object)playerSettings.isAppearOffline());
+        configurationSection2.set("notify_online", (Object)playerSettings.isNotifyOnline());
+        configurationSection2.set("allow_join", (Object)playerSettings.isAllowJoin());
+        configurationSection2.set("notify_join", (Object)playerSettings.isNotifyJoin());
+        configurationSection2.set("messagePrivacy", (Object)playerSettings.getMessagePrivacy().name());
+    }
+
+    public static PlayerData read(UUID playerUUID, ConfigurationSection playerSection, Logger logger) {
+        String playerName = playerSection.getString("name", "");
+        HashSet<UUID> friends = new HashSet<UUID>();
+        if (playerSection.contains("friends")) {
+            for (Object friendUUID : playerSection.getStringList("friends")) {
+                try {
+                    friends.add(UUID.fromString((String)friendUUID));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid friend UUID: " + (String)friendUUID);
+                }
+            }
+        }
+        LinkedHashSet<UUID> blocked = new LinkedHashSet<UUID>();
+        if (playerSection.contains("blocked")) {
+            for (Object blockedUUID : playerSection.getStringList("blocked")) {
+                try {
+                    blocked.add(UUID.fromString((String)blockedUUID));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid blocked UUID: " + (String)blockedUUID);
+                }
+            }
+        }
+        HashSet<UUID> bestFriends = new HashSet<UUID>();
+        if (playerSection.contains("best_friends")) {
+            for (String bestUUID : playerSection.getStringList("best_friends")) {
+                try {
+                    bestFriends.add(UUID.fromString(bestUUID));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid best friend UUID: " + bestUUID);
+                }
+            }
+        }
+        HashMap<UUID, String> nicknames = new HashMap<UUID, String>();
+        ConfigurationSection nickSection = playerSection.getConfigurationSection("nicknames");
+        if (nickSection != null) {
+            for (String uuidString : nickSection.getKeys(false)) {
+                try {
+                    UUID uuid = UUID.fromString(uuidString);
+                    String nick = nickSection.getString(uuidString, "");
+                    if (nick.isEmpty()) continue;
+                    nicknames.put(uuid, nick);
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid nickname UUID: " + uuidString);
+                }
+            }
+        }
+        PlayerSettings settings = new PlayerSettings();
+        ConfigurationSection settingsSection = playerSection.getConfigurationSection("settings");
+        if (settingsSection != null) {
+            settings.setAllowRequests(settingsSection.getBoolean("allow_requests", true));
+            settings.setAppearOffline(settingsSection.getBoolean("appear_offline", false));
+            settings.setNotifyOnline(settingsSection.getBoolean("notify_online", true));
+            settings.setAllowJoin(settingsSection.getBoolean("allow_join", true));
+            settings.setNotifyJoin(settingsSection.getBoolean("notify_join", true));
+            String privacy = settingsSection.getString("messagePrivacy", "HIGH");
+            try {
+                settings.setMessagePrivacy(PlayerSettings.MessagePrivacy.valueOf(privacy));
+            }
+            catch (IllegalArgumentException e) {
+                settings.setMessagePrivacy(PlayerSettings.MessagePrivacy.HIGH);
+            }
+        }
+        PlayerData playerData = new PlayerData(playerUUID, playerName, friends, settings, blocked, bestFriends, nicknames);
+        playerData.setLastLogoutTime(playerSection.getLong("last_logout", 0L));
+        return playerData;
+    }
+
+    /**
+     * Adds the {@code incoming_requests} and {@code outgoing_requests} sections that older
+     * versions wrote into a record to {@code legacy}.
+     */
+    public static void readLegacyRequests(UUID playerUUID, ConfigurationSection playerSection, LegacyRequests legacy, Logger logger) {
+        ConfigurationSection incomingSection = playerSection.getConfigurationSection("incoming_requests");
+        if (incomingSection != null) {
+            for (String uuidString : incomingSection.getKeys(false)) {
+                try {
+                    legacy.addIncoming(playerUUID, UUID.fromString(uuidString), incomingSection.getLong(uuidString));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid incoming request UUID: " + uuidString);
+                }
+            }
+        }
+        ConfigurationSection outgoingSection = playerSection.getConfigurationSection("outgoing_requests");
+        if (outgoingSection != null) {
+            for (String uuidString : outgoingSection.getKeys(false)) {
+                try {
+                    legacy.addOutgoing(playerUUID, UUID.fromString(uuidString), outgoingSection.getLong(uuidString));
+                }
+                catch (IllegalArgumentException e) {
+                    logger.warning("Invalid outgoing request UUID: " + uuidString);
+                }
+            }
+        }
+    }
+}
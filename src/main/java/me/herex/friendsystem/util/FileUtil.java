@@ -0,0 +1,72 @@
+package me.herex.friendsystem.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public class FileUtil {
+
+    public static void writeAtomically(File target, byte[] contents) throws IOException {
+        FileUtil.writeAtomically(target, out -> out.write(contents));
+    }
+
+    /**
+     * Writes to a temp file next to the target, fsyncs it and renames it over the target, so a
+     * crash mid-write leaves either the old or the new file, never a truncated one.
+     */
+    public static void writeAtomically(File target, ContentWriter writer) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        File tempFile = new File(parent, target.getName() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            BufferedOutputStream out = new BufferedOutputStream(fileOut, 65536);
+            writer.write(out);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        try {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything under it. Missing files are ignored.
+     */
+    public static void deleteRecursively(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                FileUtil.deleteRecursively(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Renames a file or directory, atomically where the file system allows it.
+     */
+    public static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath());
+        }
+    }
+
+    public interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,67 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.util.UUID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerDataCacheTest {
+
+    @Test
+    public void evictsTheLeastRecentlyUsedFirst() {
+        PlayerDataCache cache = new PlayerDataCache();
+        PlayerData[] players = new PlayerData[20];
+        for (int i = 0; i < players.length; ++i) {
+            players[i] = new PlayerData(UUID.randomUUID(), "Player" + i);
+            cache.put(players[i]);
+        }
+        cache.get(players[0].getPlayerUUID(), uuid -> null);
+        assertEquals(0, cache.evict(20L, uuid -> false));
+        // Over the bound, the weight is trimmed to 90% of it: from 20 to 19 - 19 / 10 = 18.
+        assertEquals(2, cache.evict(19L, uuid -> false));
+        assertTrue(cache.contains(players[0].getPlayerUUID()));
+        assertFalse(cache.contains(players[1].getPlayerUUID()));
+        assertFalse(cache.contains(players[2].getPlayerUUID()));
+        assertTrue(cache.contains(players[3].getPlayerUUID()));
+        assertEquals(18L, cache.getWeight());
+        assertEquals(2L, cache.getEvictions());
+    }
+
+    @Test
+    public void skipsRetainedPlayers() {
+        PlayerDataCache cache = new PlayerDataCache();
+        PlayerData retained = new PlayerData(UUID.randomUUID(), "Retained");
+        PlayerData other = new PlayerData(UUID.randomUUID(), "Other");
+        cache.put(retained);
+        cache.put(other);
+        assertEquals(1, cache.evict(1L, retained.getPlayerUUID()::equals));
+        assertTrue(cache.contains(retained.getPlayerUUID()));
+        assertFalse(cache.contains(other.getPlayerUUID()));
+    }
+
+    @Test
+    public void keepsTheCachedRecordAndTracksItsWeight() {
+        PlayerDataCache cache = new PlayerDataCache();
+        UUID uuid = UUID.randomUUID();
+        PlayerData cached = new PlayerData(uuid, "Cached");
+        cache.put(cached);
+        PlayerData stale = new PlayerData(uuid, "Stale");
+        assertSame(cached, cache.put(stale));
+        assertFalse(cache.putIfAbsent(stale));
+        assertSame(cached, cache.peek(uuid));
+        cached.addFriend(UUID.randomUUID());
+        cached.addFriend(UUID.randomUUID());
+        cache.put(cached);
+        assertEquals(3L, cache.getWeight());
+        cache.replace(stale);
+        assertSame(stale, cache.peek(uuid));
+        assertEquals(1L, cache.getWeight());
+        cache.remove(uuid);
+        assertEquals(0L, cache.getWeight());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,71 @@
+package me.herex.friendsystem.manager;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.storage.BinaryRecordCodec;
+import me.herex.friendsystem.storage.KeyValuePlayerStore;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StoreSnapshotTest {
+    private static final Logger LOGGER = Logger.getLogger("StoreSnapshotTest");
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsTheStateFromBeforeLaterWrites() throws IOException {
+        KeyValuePlayerStore store = new KeyValuePlayerStore(new File(this.folder.getRoot(), "data.kv"), LOGGER);
+        store.open();
+        try {
+            List<PlayerData> players = new ArrayList<PlayerData>();
+            for (int i = 0; i < 10; ++i) {
+                players.add(new PlayerData(new UUID(0L, i + 1), "Player" + i));
+            }
+            store.saveBatch(players);
+            store.replaceRequests(Collections.singletonMap(players.get(0).getPlayerUUID(), Collections.singletonMap(players.get(1).getPlayerUUID(), 1000L)));
+            StoreSnapshot snapshot = new StoreSnapshot(store);
+            assertFalse(snapshot.readChunk(store, 4));
+            // Between chunks the IO thread saves and deletes players, read or not.
+            ArrayList<UUID> written = new ArrayList<UUID>();
+            for (PlayerData player : players) {
+                if (player == players.get(8)) continue;
+                written.add(player.getPlayerUUID());
+            }
+            snapshot.preserve(store, written);
+            for (PlayerData player : players) {
+                player.setPlayerName(player.getPlayerName() + "Renamed");
+            }
+            store.saveBatch(players.subList(0, 8));
+            store.delete(players.get(9).getPlayerUUID());
+            store.save(new PlayerData(new UUID(0L, 99L), "Newcomer"));
+            store.replaceRequests(Collections.emptyMap());
+            assertTrue(snapshot.readChunk(store, 4));
+            Map<UUID, String> names = new HashMap<UUID, String>();
+            for (byte[] record : snapshot.getRecords()) {
+                PlayerData data = BinaryRecordCodec.decode(record);
+                names.put(data.getPlayerUUID(), data.getPlayerName());
+            }
+            assertEquals(10, names.size());
+            for (int i = 0; i < 10; ++i) {
+                assertEquals("Player" + i, names.get(new UUID(0L, i + 1)));
+            }
+            assertEquals(Collections.singletonMap(players.get(0).getPlayerUUID(), Collections.singletonMap(players.get(1).getPlayerUUID(), 1000L)), snapshot.getRequests());
+        }
+        finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package me.herex.friendsystem.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link HashSet}/{@link LinkedHashSet} collections {@link PlayerData} used to keep
+ * with its {@link EdgeRow} and the {@link UuidSet} behind {@link PlayerIds}: membership tests
+ * (half hits, half misses), iteration, and copying a row as the old getters did. Run with
+ * {@code mvn test-compile} and then {@link #main} on the test classpath; run with
+ * {@code -prof gc} to see the allocation per operation.
+ */
+@State(value=Scope.Thread)
+@BenchmarkMode(value={Mode.AverageTime})
+@OutputTimeUnit(value=TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(value=1)
+public class EdgeSetBenchmark {
+    @Param(value={"10", "200"})
+    private int friends;
+    private UUID[] probes;
+    private HashSet<UUID> hashSet;
+    private LinkedHashSet<UUID> linkedHashSet;
+    private PlayerData playerData;
+    private UuidSet uuidSet;
+
+    @Setup
+    public void setUp() {
+        ArrayList<UUID> members = new ArrayList<UUID>(this.friends);
+        this.hashSet = new HashSet<UUID>();
+        this.linkedHashSet = new LinkedHashSet<UUID>();
+        this.playerData = new PlayerData(UUID.randomUUID(), "Benchmark");
+        this.uuidSet = new UuidSet(this.friends);
+        for (int i = 0; i < this.friends; ++i) {
+            UUID uuid = UUID.randomUUID();
+            members.add(uuid);
+            this.hashSet.add(uuid);
+            this.linkedHashSet.add(uuid);
+            this.playerData.addFriend(uuid);
+            this.uuidSet.add(uuid);
+        }
+        this.probes = new UUID[this.friends * 2];
+        for (int i = 0; i < this.friends; ++i) {
+            this.probes[i * 2] = members.get(i);
+            this.probes[i * 2 + 1] = UUID.randomUUID();
+        }
+    }
+
+    @Benchmark
+    public void hashSetContains(Blackhole blackhole) {
+        for (UUID probe : this.probes) {
+            blackhole.consume(this.hashSet.contains(probe));
+        }
+    }
+
+    @Benchmark
+    public void edgeRowContains(Blackhole blackhole) {
+        for (UUID probe : this.probes) {
+            blackhole.consume(this.playerData.isFriend(probe));
+        }
+    }
+
+    @Benchmark
+    public void uuidSetContains(Blackhole blackhole) {
+        for (UUID probe : this.probes) {
+            blackhole.consume(this.uuidSet.contains(probe));
+        }
+    }
+
+    @Benchmark
+    public void linkedHashSetIterate(Blackhole blackhole) {
+        for (UUID uuid : this.linkedHashSet) {
+            blackhole.consume(uuid);
+        }
+    }
+
+    @Benchmark
+    public void edgeRowViewIterate(Blackhole blackhole) {
+        for (UUID uuid : this.playerData.getFriendsView()) {
+            blackhole.consume(uuid);
+        }
+    }
+
+    @Benchmark
+    public void edgeRowForEach(Blackhole blackhole) {
+        this.playerData.forEachFriend(blackhole::consume);
+    }
+
+    @Benchmark
+    public Set<UUID> hashSetCopy() {
+        return new HashSet<UUID>(this.hashSet);
+    }
+
+    @Benchmark
+    public Set<UUID> edgeRowCopy() {
+        return this.playerData.getFriends();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EdgeSetBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,170 @@
+package me.herex.friendsystem.model;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTableTest {
+    private final UUID alice = UUID.randomUUID();
+    private final UUID bob = UUID.randomUUID();
+    private final UUID carol = UUID.randomUUID();
+    private final UUID dave = UUID.randomUUID();
+
+    @Test
+    public void addFindAndRemove() {
+        RequestTable table = new RequestTable();
+        int row = table.add(this.alice, this.bob, 1000L);
+        assertEquals(row, table.find(this.alice, this.bob));
+        assertEquals(RequestTable.NONE, table.find(this.bob, this.alice));
+        assertEquals(RequestTable.NONE, table.add(this.alice, this.bob, 2000L));
+        assertEquals(1, table.size());
+        assertEquals(this.alice, table.getFrom(row));
+        assertEquals(this.bob, table.getTo(row));
+        assertEquals(1000L, table.getSentAt(row));
+        assertTrue(table.isPending(row));
+        table.remove(row);
+        assertFalse(table.isLive(row));
+        assertEquals(RequestTable.NONE, table.find(this.alice, this.bob));
+        assertEquals(0, table.size());
+        table.remove(row);
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void chainsListEveryRowOfAPlayer() {
+        RequestTable table = new RequestTable();
+        int toBob = table.add(this.alice, this.bob, 1L);
+        int toCarol = table.add(this.alice, this.carol, 2L);
+        int toDave = table.add(this.alice, this.dave, 3L);
+        int fromCarol = table.add(this.carol, this.bob, 4L);
+        table.remove(toCarol);
+        assertEquals(RequestTableTest.set(toBob, toDave), this.sent(table, this.alice));
+        assertEquals(RequestTableTest.set(toBob, fromCarol), this.received(table, this.bob));
+        table.remove(toDave);
+        table.remove(toBob);
+        assertEquals(RequestTable.NONE, table.firstSent(this.alice));
+        assertEquals(RequestTableTest.set(fromCarol), this.received(table, this.bob));
+        table.removeAll(this.bob);
+        assertEquals(0, table.size());
+        assertEquals(RequestTable.NONE, table.firstSent(this.carol));
+    }
+
+    @Test
+    public void freedRowsAreReusedWithANewStamp() {
+        RequestTable table = new RequestTable(8);
+        int row = table.add(this.alice, this.bob, 1L);
+        int stamp = table.getStamp(row);
+        table.remove(row);
+        int reused = table.add(this.carol, this.dave, 2L);
+        assertEquals(row, reused);
+        assertNotEquals(stamp, table.getStamp(reused));
+        assertEquals(this.carol, table.getFrom(reused));
+        assertEquals(RequestTable.NONE, table.firstSent(this.alice));
+        for (int i = 0; i < 20; ++i) {
+            table.add(UUID.randomUUID(), this.bob, i);
+        }
+        assertEquals(21, table.size());
+        assertEquals(21, table.rowLimit());
+        assertEquals(20, this.received(table, this.bob).size());
+    }
+
+    @Test
+    public void statusChangesOnlyFromTheExpectedStatus() {
+        RequestTable table = new RequestTable();
+        int row = table.add(this.alice, this.bob, 1L);
+        assertTrue(table.compareAndSetStatus(row, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.ACCEPTED));
+        assertFalse(table.compareAndSetStatus(row, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.DENIED));
+        assertEquals(FriendRequest.RequestStatus.ACCEPTED, table.getStatus(row));
+        assertFalse(table.isPending(row));
+        table.remove(row);
+        assertFalse(table.compareAndSetStatus(row, FriendRequest.RequestStatus.ACCEPTED, FriendRequest.RequestStatus.PENDING));
+        assertFalse(table.compareAndSetStatus(RequestTable.NONE, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.ACCEPTED));
+    }
+
+    @Test
+    public void pollExpiredSkipsStaleEntries() {
+        RequestTable table = new RequestTable();
+        int removed = table.add(this.alice, this.bob, 1L);
+        int moved = table.add(this.alice, this.carol, 1L);
+        int due = table.add(this.alice, this.dave, 1L);
+        int answered = table.add(this.bob, this.carol, 1L);
+        int later = table.add(this.carol, this.dave, 1L);
+        table.expireAt(removed, 100L);
+        table.expireAt(moved, 200L);
+        assertTrue(table.expireAt(moved, 150L));
+        assertFalse(table.expireAt(moved, 300L));
+        table.expireAt(due, 120L);
+        table.expireAt(answered, 130L);
+        table.expireAt(later, 900L);
+        table.remove(removed);
+        table.compareAndSetStatus(answered, FriendRequest.RequestStatus.PENDING, FriendRequest.RequestStatus.DENIED);
+        // The row of the removed request is reused and given a later deadline.
+        int reused = table.add(this.dave, this.alice, 1L);
+        assertEquals(removed, reused);
+        table.expireAt(reused, 1000L);
+        assertEquals(due, table.pollExpired(500L));
+        assertEquals(moved, table.pollExpired(500L));
+        assertEquals(RequestTable.NONE, table.pollExpired(500L));
+        assertEquals(later, table.pollExpired(2000L));
+        assertEquals(reused, table.pollExpired(2000L));
+        assertEquals(RequestTable.NONE, table.pollExpired(2000L));
+    }
+
+    @Test
+    public void activateKeepsTheEarliestTimeWithoutQueueing() {
+        RequestTable table = new RequestTable();
+        int row = table.add(this.alice, this.bob, 1L);
+        assertTrue(table.activate(row, 200L));
+        assertTrue(table.activate(row, 150L));
+        assertFalse(table.activate(row, 300L));
+        assertEquals(150L, table.getActivatedAt(row));
+        assertEquals(0L, table.getDeadline(row));
+        assertEquals(RequestTable.NONE, table.pollExpired(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void heapStaysBoundedWhileRequestsComeAndGo() {
+        RequestTable table = new RequestTable();
+        int kept = table.add(this.alice, this.bob, 1L);
+        table.expireAt(kept, 1000000L);
+        for (int i = 0; i < 10000; ++i) {
+            int row = table.add(this.carol, this.dave, i);
+            table.expireAt(row, 2000000L + i);
+            table.expireAt(row, 1000L + i);
+            table.remove(row);
+        }
+        assertTrue(table.heapSize() <= 64);
+        assertEquals(RequestTable.NONE, table.pollExpired(1000000L));
+        assertEquals(kept, table.pollExpired(1000001L));
+    }
+
+    private Set<Integer> sent(RequestTable table, UUID playerUUID) {
+        HashSet<Integer> rows = new HashSet<Integer>();
+        for (int row = table.firstSent(playerUUID); row != RequestTable.NONE; row = table.nextSent(row)) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private Set<Integer> received(RequestTable table, UUID playerUUID) {
+        HashSet<Integer> rows = new HashSet<Integer>();
+        for (int row = table.firstReceived(playerUUID); row != RequestTable.NONE; row = table.nextReceived(row)) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static Set<Integer> set(Integer ... rows) {
+        HashSet<Integer> set = new HashSet<Integer>();
+        for (Integer row : rows) {
+            set.add(row);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,75 @@
+package me.herex.friendsystem.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UuidSetTest {
+
+    @Test
+    public void indexesFollowInsertionOrder() {
+        UuidSet set = new UuidSet(4);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        assertEquals(0, set.add(first));
+        assertEquals(1, set.add(second));
+        assertEquals(0, set.add(new UUID(first.getMostSignificantBits(), first.getLeastSignificantBits())));
+        assertEquals(2, set.size());
+        assertEquals(1, set.indexOf(second));
+        assertEquals(first, set.get(0));
+        assertEquals(second.getMostSignificantBits(), set.getMostSignificantBits(1));
+        assertEquals(second.getLeastSignificantBits(), set.getLeastSignificantBits(1));
+        assertTrue(set.contains(second));
+        assertFalse(set.contains(UUID.randomUUID()));
+        assertEquals(-1, set.indexOf(UUID.randomUUID()));
+    }
+
+    @Test
+    public void keepsEveryMemberAcrossGrowth() {
+        UuidSet set = new UuidSet(1);
+        ArrayList<UUID> members = new ArrayList<UUID>();
+        for (int i = 0; i < 5000; ++i) {
+            UUID uuid = UUID.randomUUID();
+            members.add(uuid);
+            assertEquals(i, set.add(uuid));
+        }
+        assertEquals(5000, set.size());
+        for (int i = 0; i < members.size(); ++i) {
+            assertEquals(i, set.indexOf(members.get(i)));
+            assertEquals(members.get(i), set.get(i));
+        }
+    }
+
+    @Test
+    public void probesPastCollidingMembers() {
+        // Equal most ^ least bits hash to the same slot, so these all collide.
+        List<UUID> colliding = new ArrayList<UUID>();
+        for (long i = 0L; i < 40L; ++i) {
+            colliding.add(new UUID(i, i ^ 0x5DEECE66DL));
+        }
+        UuidSet set = new UuidSet(8);
+        for (UUID uuid : colliding) {
+            set.add(uuid);
+        }
+        assertEquals(colliding.size(), set.size());
+        for (int i = 0; i < colliding.size(); ++i) {
+            assertEquals(i, set.indexOf(colliding.get(i)));
+        }
+        assertFalse(set.contains(new UUID(40L, 40L ^ 0x5DEECE66DL)));
+    }
+
+    @Test
+    public void playerIdsHandOutTheInternedInstance() {
+        UUID uuid = UUID.randomUUID();
+        int id = PlayerIds.intern(uuid);
+        assertEquals(id, PlayerIds.intern(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())));
+        assertEquals(id, PlayerIds.find(uuid));
+        assertTrue(uuid == PlayerIds.uuid(id));
+        assertEquals(-1, PlayerIds.find(UUID.randomUUID()));
+    }
+}
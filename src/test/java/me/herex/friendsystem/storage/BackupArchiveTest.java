@@ -0,0 +1,64 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class BackupArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void backupsInTheSameSecondKeepSeparateFiles() throws IOException {
+        BackupArchive archive = new BackupArchive(this.folder.getRoot());
+        long created = 1790000000000L;
+        File first = archive.write(created, this.encode(1), new HashMap<UUID, Map<UUID, Long>>(), 6);
+        File second = archive.write(created + 500L, this.encode(2), new HashMap<UUID, Map<UUID, Long>>(), 6);
+        File third = archive.write(created + 900L, this.encode(3), new HashMap<UUID, Map<UUID, Long>>(), 6);
+        assertNotEquals(first, second);
+        assertEquals(1, BackupArchive.read(first).getRecords().size());
+        assertEquals(2, BackupArchive.read(second).getRecords().size());
+        assertEquals(3, BackupArchive.read(third).getRecords().size());
+        File later = archive.write(created + 1000L, this.encode(4), new HashMap<UUID, Map<UUID, Long>>(), 6);
+        List<File> generations = archive.list();
+        assertEquals(later, generations.get(0));
+        assertEquals(third, generations.get(1));
+        assertEquals(second, generations.get(2));
+        assertEquals(first, generations.get(3));
+        assertEquals(later, archive.find("latest"));
+        assertEquals(2, archive.rotate(2));
+        assertEquals(third, archive.list().get(1));
+    }
+
+    @Test
+    public void requestsRoundTrip() throws IOException {
+        BackupArchive archive = new BackupArchive(this.folder.getRoot());
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        UUID sender = UUID.randomUUID();
+        requests.computeIfAbsent(sender, uuid -> new HashMap<UUID, Long>()).put(UUID.randomUUID(), 5000L);
+        requests.get(sender).put(UUID.randomUUID(), 6000L);
+        requests.computeIfAbsent(UUID.randomUUID(), uuid -> new HashMap<UUID, Long>()).put(sender, 7000L);
+        BackupArchive.Contents contents = BackupArchive.read(archive.write(1790000000000L, this.encode(5), requests, 6));
+        assertEquals(5, contents.getRecords().size());
+        assertEquals(requests, contents.getRequests());
+    }
+
+    private List<byte[]> encode(int count) {
+        ArrayList<byte[]> records = new ArrayList<byte[]>();
+        for (PlayerData data : BinaryPlayerStoreTest.players(count)) {
+            records.add(BinaryRecordCodec.encode(data));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,124 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import me.herex.friendsystem.model.PlayerSettings;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryPlayerStoreTest {
+    private static final Logger LOGGER = Logger.getLogger("BinaryPlayerStoreTest");
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsEveryField() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.dat");
+        List<PlayerData> players = players(3);
+        BinaryPlayerStore store = new BinaryPlayerStore(dataFile, LOGGER);
+        store.open();
+        store.saveBatch(players);
+        BinaryPlayerStore reopened = new BinaryPlayerStore(dataFile, LOGGER);
+        reopened.open();
+        assertEquals(3, reopened.keys().size());
+        for (PlayerData expected : players) {
+            PlayerData actual = reopened.load(expected.getPlayerUUID());
+            assertNotNull(actual);
+            assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(actual));
+            assertEquals(expected.getLastLogoutTime(), actual.getLastLogoutTime());
+        }
+        assertNull(reopened.load(UUID.randomUUID()));
+    }
+
+    @Test
+    public void truncatedFileKeepsIntactRecordsAndACopy() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.dat");
+        List<PlayerData> players = players(3);
+        BinaryPlayerStore store = new BinaryPlayerStore(dataFile, LOGGER);
+        store.open();
+        store.saveBatch(players);
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(file.length() - 10L);
+        }
+        byte[] damaged = Files.readAllBytes(dataFile.toPath());
+        BinaryPlayerStore reopened = new BinaryPlayerStore(dataFile, LOGGER);
+        reopened.open();
+        assertEquals(2, reopened.keys().size());
+        File copy = this.corruptCopy();
+        assertArrayEquals(damaged, Files.readAllBytes(copy.toPath()));
+        reopened.saveBatch(new ArrayList<PlayerData>());
+        assertArrayEquals(damaged, Files.readAllBytes(copy.toPath()));
+    }
+
+    @Test
+    public void corruptRecordIsSkippedAndTheFileCopied() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.dat");
+        BinaryPlayerStore store = new BinaryPlayerStore(dataFile, LOGGER);
+        store.open();
+        store.saveBatch(players(3));
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            // Inside the first record, past the header and its length prefix.
+            file.seek(12L + 4L + 30L);
+            int value = file.read();
+            file.seek(12L + 4L + 30L);
+            file.write(value ^ 0xFF);
+        }
+        BinaryPlayerStore reopened = new BinaryPlayerStore(dataFile, LOGGER);
+        reopened.open();
+        assertEquals(2, reopened.keys().size());
+        assertNotNull(this.corruptCopy());
+        assertTrue(dataFile.isFile());
+    }
+
+    @Test
+    public void unrecognizedFileIsMovedAside() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.dat");
+        Files.write(dataFile.toPath(), "not a data file".getBytes("UTF-8"));
+        BinaryPlayerStore store = new BinaryPlayerStore(dataFile, LOGGER);
+        store.open();
+        assertTrue(store.keys().isEmpty());
+        assertFalse(dataFile.exists());
+        assertNotNull(this.corruptCopy());
+    }
+
+    private File corruptCopy() {
+        File[] copies = this.folder.getRoot().listFiles((dir, name) -> name.startsWith("data.dat.corrupt-"));
+        assertNotNull(copies);
+        assertEquals(Arrays.toString(copies), 1, copies.length);
+        return copies[0];
+    }
+
+    static List<PlayerData> players(int count) {
+        ArrayList<PlayerData> players = new ArrayList<PlayerData>();
+        for (int i = 0; i < count; ++i) {
+            PlayerData data = new PlayerData(new UUID(0L, i + 1L), "Player" + i);
+            PlayerSettings settings = new PlayerSettings();
+            settings.setNotifyJoin(i % 2 == 0);
+            data.setSettings(settings);
+            data.setLastLogoutTime(1000L * i);
+            UUID friend = UUID.randomUUID();
+            data.addFriend(friend);
+            data.addBestFriend(friend);
+            data.setNickname(friend, "Buddy" + i);
+            data.blockPlayer(UUID.randomUUID());
+            players.add(data);
+        }
+        return players;
+    }
+}
@@ -0,0 +1,256 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeyValuePlayerStoreTest {
+    private static final Logger LOGGER = Logger.getLogger("KeyValuePlayerStoreTest");
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaceAllKeepsOnlyTheNewRecords() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(6);
+        KeyValuePlayerStore store = new KeyValuePlayerStore(dataFile, LOGGER);
+        store.open();
+        store.saveBatch(players.subList(0, 4));
+        List<PlayerData> restored = new ArrayList<PlayerData>(players.subList(2, 6));
+        store.replaceAll(restored);
+        this.assertHolds(store, players.get(0), restored);
+        store.save(players.get(1));
+        store.close();
+        KeyValuePlayerStore reopened = new KeyValuePlayerStore(dataFile, LOGGER);
+        reopened.open();
+        try {
+            assertEquals(5, reopened.keys().size());
+            assertNotNull(reopened.load(players.get(1).getPlayerUUID()));
+            this.assertHolds(reopened, players.get(0), restored);
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void replaceAllWithNothingEmptiesTheStore() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        KeyValuePlayerStore store = new KeyValuePlayerStore(dataFile, LOGGER);
+        store.open();
+        store.saveBatch(BinaryPlayerStoreTest.players(3));
+        store.replaceAll(Collections.<PlayerData>emptyList());
+        store.close();
+        KeyValuePlayerStore reopened = new KeyValuePlayerStore(dataFile, LOGGER);
+        reopened.open();
+        try {
+            assertEquals(0, reopened.keys().size());
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void findsEveryPlayerAgainAfterReopening() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(20);
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(players);
+        assertNull(store.load(UUID.randomUUID()));
+        store.close();
+        KeyValuePlayerStore reopened = this.open(dataFile);
+        try {
+            assertEquals(20, reopened.keys().size());
+            for (PlayerData expected : players) {
+                this.assertStored(reopened, expected);
+            }
+            Map<UUID, PlayerData> batch = reopened.loadBatch(Arrays.asList(players.get(3).getPlayerUUID(), UUID.randomUUID(), players.get(17).getPlayerUUID()));
+            assertEquals(2, batch.size());
+            assertEquals(StorageConverter.fingerprint(players.get(17)), StorageConverter.fingerprint(batch.get(players.get(17).getPlayerUUID())));
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void probesPastCollidingPlayers() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        // Equal most ^ least bits start probing at the same bucket.
+        ArrayList<PlayerData> colliding = new ArrayList<PlayerData>();
+        for (long i = 0L; i < 30L; ++i) {
+            colliding.add(new PlayerData(new UUID(i, i ^ 0x5DEECE66DL), "Colliding" + i));
+        }
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(colliding);
+        store.delete(colliding.get(10).getPlayerUUID());
+        try {
+            assertFalse(store.contains(colliding.get(10).getPlayerUUID()));
+            for (PlayerData expected : colliding) {
+                if (expected == colliding.get(10)) continue;
+                this.assertStored(store, expected);
+            }
+            assertFalse(store.contains(new UUID(30L, 30L ^ 0x5DEECE66DL)));
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void reinsertsOverTombstones() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(5);
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(players);
+        store.delete(players.get(1).getPlayerUUID());
+        store.delete(players.get(2).getPlayerUUID());
+        store.delete(players.get(2).getPlayerUUID());
+        assertNull(store.load(players.get(1).getPlayerUUID()));
+        assertEquals(3, store.keys().size());
+        PlayerData renamed = players.get(1);
+        renamed.setPlayerName("Returned");
+        store.save(renamed);
+        store.close();
+        KeyValuePlayerStore reopened = this.open(dataFile);
+        try {
+            assertEquals(4, reopened.keys().size());
+            assertEquals("Returned", reopened.load(renamed.getPlayerUUID()).getPlayerName());
+            assertFalse(reopened.contains(players.get(2).getPlayerUUID()));
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void growsTheIndexWhenItFillsUp() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(1500);
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(players.subList(0, 700));
+        store.saveBatch(players.subList(700, 1500));
+        store.close();
+        KeyValuePlayerStore reopened = this.open(dataFile);
+        try {
+            assertEquals(1500, reopened.keys().size());
+            this.assertStored(reopened, players.get(0));
+            this.assertStored(reopened, players.get(1499));
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void rebuildsOnceMostOfTheFileIsDead() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(100);
+        KeyValuePlayerStore store = this.open(dataFile);
+        long largest = 0L;
+        try {
+            // Every save appends a new version of each player; the old ones become dead space.
+            for (int round = 0; round < 100; ++round) {
+                store.saveBatch(players);
+                largest = Math.max(largest, dataFile.length());
+            }
+            for (PlayerData expected : players) {
+                this.assertStored(store, expected);
+            }
+        }
+        finally {
+            store.close();
+        }
+        assertTrue(largest > 0x400000L);
+        assertTrue(dataFile.length() < largest / 2L);
+    }
+
+    @Test
+    public void ignoresAnInterruptedAppend() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(players);
+        store.close();
+        // A save that died after writing record bytes but before repointing any bucket.
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.seek(file.length());
+            file.write(new byte[700]);
+        }
+        KeyValuePlayerStore reopened = this.open(dataFile);
+        try {
+            for (PlayerData expected : players) {
+                this.assertStored(reopened, expected);
+            }
+            PlayerData later = BinaryPlayerStoreTest.players(4).get(3);
+            reopened.save(later);
+            this.assertStored(reopened, later);
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void dropsRecordsCutOffByATruncatedFile() throws IOException {
+        File dataFile = new File(this.folder.getRoot(), "data.kv");
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        KeyValuePlayerStore store = this.open(dataFile);
+        store.saveBatch(players.subList(0, 2));
+        long intact = dataFile.length();
+        store.save(players.get(2));
+        store.close();
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.setLength(intact + 10L);
+        }
+        KeyValuePlayerStore reopened = this.open(dataFile);
+        try {
+            assertFalse(reopened.contains(players.get(2).getPlayerUUID()));
+            this.assertStored(reopened, players.get(0));
+            this.assertStored(reopened, players.get(1));
+            assertEquals(2, reopened.keys().size());
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    private KeyValuePlayerStore open(File dataFile) throws IOException {
+        KeyValuePlayerStore store = new KeyValuePlayerStore(dataFile, LOGGER);
+        store.open();
+        return store;
+    }
+
+    private void assertStored(KeyValuePlayerStore store, PlayerData expected) throws IOException {
+        PlayerData actual = store.load(expected.getPlayerUUID());
+        assertNotNull(actual);
+        assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(actual));
+    }
+
+    private void assertHolds(KeyValuePlayerStore store, PlayerData removed, List<PlayerData> expected) throws IOException {
+        assertFalse(store.contains(removed.getPlayerUUID()));
+        for (PlayerData record : expected) {
+            PlayerData actual = store.load(record.getPlayerUUID());
+            assertNotNull(actual);
+            assertEquals(StorageConverter.fingerprint(record), StorageConverter.fingerprint(actual));
+        }
+    }
+}
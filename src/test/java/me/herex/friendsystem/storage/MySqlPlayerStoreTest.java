@@ -0,0 +1,201 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the MySQL store against H2 in MySQL mode.
+ */
+public class MySqlPlayerStoreTest {
+    private static final Logger LOGGER = Logger.getLogger("MySqlPlayerStoreTest");
+    private String url;
+    private MySqlPlayerStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        this.url = "jdbc:h2:mem:friends-" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1";
+        this.store = this.openStore();
+    }
+
+    @After
+    public void tearDown() {
+        this.store.close();
+    }
+
+    private MySqlPlayerStore openStore() throws IOException {
+        MySqlPlayerStore opened = new MySqlPlayerStore(new ConnectionPool(this.url, "sa", "", 2), "fs_", LOGGER);
+        opened.open();
+        return opened;
+    }
+
+    @Test
+    public void roundTripsEveryField() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        this.store.saveBatch(players);
+        MySqlPlayerStore reopened = this.openStore();
+        try {
+            assertEquals(3, reopened.keys().size());
+            Map<UUID, PlayerData> loaded = reopened.loadAll();
+            for (PlayerData expected : players) {
+                PlayerData actual = reopened.load(expected.getPlayerUUID());
+                assertNotNull(actual);
+                assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(actual));
+                assertEquals(expected.getLastLogoutTime(), actual.getLastLogoutTime());
+                assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(loaded.get(expected.getPlayerUUID())));
+            }
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void savingAgainReplacesThePlayersRows() throws IOException {
+        PlayerData data = BinaryPlayerStoreTest.players(1).get(0);
+        this.store.saveBatch(Collections.singletonList(data));
+        UUID friend = data.getFriendsView().iterator().next();
+        data.removeFriend(friend);
+        data.removeBestFriend(friend);
+        data.removeNickname(friend);
+        data.setPlayerName("Renamed");
+        this.store.saveBatch(Collections.singletonList(data));
+        PlayerData loaded = this.store.load(data.getPlayerUUID());
+        assertEquals("Renamed", loaded.getPlayerName());
+        assertFalse(loaded.isFriend(friend));
+        assertFalse(loaded.isBestFriend(friend));
+        assertEquals(StorageConverter.fingerprint(data), StorageConverter.fingerprint(loaded));
+    }
+
+    @Test
+    public void deletesOneOrAllPlayers() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        this.store.saveBatch(players);
+        UUID deleted = players.get(0).getPlayerUUID();
+        this.store.delete(deleted);
+        assertFalse(this.store.contains(deleted));
+        assertNull(this.store.load(deleted));
+        assertEquals(2, this.store.loadAll().size());
+        this.store.deleteAll();
+        assertTrue(this.store.keys().isEmpty());
+        assertTrue(this.store.loadAll().isEmpty());
+    }
+
+    @Test
+    public void replaceAllSwapsEveryPlayer() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(4);
+        this.store.saveBatch(players.subList(0, 2));
+        this.store.replaceAll(players.subList(1, 4));
+        assertFalse(this.store.contains(players.get(0).getPlayerUUID()));
+        MySqlPlayerStore reopened = this.openStore();
+        try {
+            assertEquals(3, reopened.keys().size());
+            assertNull(reopened.load(players.get(0).getPlayerUUID()));
+            for (PlayerData expected : players.subList(1, 4)) {
+                assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(reopened.load(expected.getPlayerUUID())));
+            }
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void seesPlayersAnotherServerStoresLater() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        MySqlPlayerStore other = this.openStore();
+        try {
+            other.saveBatch(players);
+        }
+        finally {
+            other.close();
+        }
+        UUID first = players.get(0).getPlayerUUID();
+        assertTrue(this.store.contains(first));
+        assertEquals(StorageConverter.fingerprint(players.get(0)), StorageConverter.fingerprint(this.store.load(first)));
+        assertEquals(3, this.store.keys().size());
+        assertFalse(this.store.contains(UUID.randomUUID()));
+    }
+
+    @Test
+    public void loadBatchReadsOnlyTheStoredPlayersAsked() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(4);
+        this.store.saveBatch(players);
+        UUID unknown = UUID.randomUUID();
+        Map<UUID, PlayerData> loaded = this.store.loadBatch(Arrays.asList(players.get(1).getPlayerUUID(), players.get(3).getPlayerUUID(), unknown));
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.containsKey(unknown));
+        for (PlayerData expected : Arrays.asList(players.get(1), players.get(3))) {
+            assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(loaded.get(expected.getPlayerUUID())));
+        }
+    }
+
+    @Test
+    public void replaceTablesWithSwapsInTheStagedTables() throws IOException {
+        List<PlayerData> players = BinaryPlayerStoreTest.players(3);
+        this.store.saveBatch(players.subList(0, 1));
+        MySqlPlayerStore staged = new MySqlPlayerStore(new ConnectionPool(this.url, "sa", "", 1), "fs_convert_", LOGGER);
+        staged.open();
+        try {
+            staged.saveBatch(players.subList(1, 3));
+            staged.replaceRequests(Collections.singletonMap(players.get(1).getPlayerUUID(), Collections.singletonMap(players.get(2).getPlayerUUID(), 7000L)));
+            this.store.replaceTablesWith(staged);
+        }
+        finally {
+            staged.close();
+        }
+        MySqlPlayerStore reopened = this.openStore();
+        try {
+            assertEquals(new HashSet<UUID>(Arrays.asList(players.get(1).getPlayerUUID(), players.get(2).getPlayerUUID())), reopened.keys());
+            assertEquals(Collections.singletonMap(players.get(1).getPlayerUUID(), Collections.singletonMap(players.get(2).getPlayerUUID(), 7000L)), reopened.loadRequests());
+        }
+        finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void requestsArePerSenderAndCarriedOverFromTheOldTable() throws IOException, SQLException {
+        UUID alice = new UUID(0L, 1L);
+        UUID bob = new UUID(0L, 2L);
+        UUID carol = new UUID(0L, 3L);
+        try (Connection connection = DriverManager.getConnection(this.url, "sa", "");
+             Statement statement = connection.createStatement();){
+            statement.executeUpdate("CREATE TABLE fs_requests (player CHAR(36) NOT NULL, other CHAR(36) NOT NULL, outgoing BOOLEAN NOT NULL, created BIGINT NOT NULL, PRIMARY KEY (player, other, outgoing))");
+            // Alice to Bob on both sides, Alice to Carol only on Alice's.
+            statement.executeUpdate("INSERT INTO fs_requests VALUES ('" + alice + "', '" + bob + "', TRUE, 1000), ('" + bob + "', '" + alice + "', FALSE, 1500), ('" + alice + "', '" + carol + "', TRUE, 2000)");
+        }
+        HashMap<UUID, Map<UUID, Long>> expected = new HashMap<UUID, Map<UUID, Long>>();
+        expected.computeIfAbsent(alice, uuid -> new HashMap<UUID, Long>()).put(bob, 1500L);
+        assertEquals(expected, this.store.loadRequests());
+        HashMap<UUID, Map<UUID, Long>> changed = new HashMap<UUID, Map<UUID, Long>>();
+        changed.put(alice, Collections.singletonMap(carol, 3000L));
+        changed.put(bob, Collections.singletonMap(carol, 4000L));
+        this.store.saveRequests(changed);
+        assertEquals(changed, this.store.loadRequests());
+        this.store.saveRequests(Collections.singletonMap(alice, Collections.emptyMap()));
+        assertEquals(Collections.singletonMap(bob, Collections.singletonMap(carol, 4000L)), this.store.loadRequests());
+        this.store.replaceRequests(Collections.singletonMap(carol, Collections.singletonMap(alice, 5000L)));
+        assertEquals(Collections.singletonMap(carol, Collections.singletonMap(alice, 5000L)), this.store.loadRequests());
+    }
+}
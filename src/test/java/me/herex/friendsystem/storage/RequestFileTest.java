@@ -0,0 +1,117 @@
+package me.herex.friendsystem.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestFileTest {
+    private static final UUID ALICE = new UUID(0L, 1L);
+    private static final UUID BOB = new UUID(0L, 2L);
+    private static final UUID CAROL = new UUID(0L, 3L);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void updateReplacesOnlyTheListedSenders() throws IOException {
+        RequestFile file = new RequestFile(new File(this.folder.getRoot(), "data.dat"));
+        assertTrue(file.read().isEmpty());
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        requests.put(ALICE, RequestFileTest.requests(BOB, 1000L, CAROL, 2000L));
+        requests.put(BOB, RequestFileTest.requests(CAROL, 3000L));
+        file.write(requests);
+        assertEquals(requests, file.read());
+        HashMap<UUID, Map<UUID, Long>> changed = new HashMap<UUID, Map<UUID, Long>>();
+        changed.put(ALICE, RequestFileTest.requests(CAROL, 4000L));
+        changed.put(BOB, Collections.emptyMap());
+        file.update(changed);
+        HashMap<UUID, Map<UUID, Long>> expected = new HashMap<UUID, Map<UUID, Long>>();
+        expected.put(ALICE, RequestFileTest.requests(CAROL, 4000L));
+        assertEquals(expected, file.read());
+    }
+
+    @Test
+    public void damagedFileIsRejected() throws IOException {
+        RequestFile file = new RequestFile(new File(this.folder.getRoot(), "data.dat"));
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        requests.put(ALICE, RequestFileTest.requests(BOB, 1000L));
+        file.write(requests);
+        try (RandomAccessFile raw = new RandomAccessFile(file.getFile(), "rw")) {
+            raw.seek(20L);
+            int value = raw.read();
+            raw.seek(20L);
+            raw.write(value ^ 0xFF);
+        }
+        try {
+            file.read();
+            fail("A damaged request file must not be read");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test
+    public void legacyRequestsNeedBothSides() throws IOException {
+        LegacyRequests legacy = new LegacyRequests();
+        // Alice sent to Bob and Carol, but only Bob's record lists hers.
+        BinaryRecordCodec.readLegacyRequests(RequestFileTest.legacyRecord(ALICE, RequestFileTest.requests(), RequestFileTest.requests(BOB, 1000L, CAROL, 1000L)), legacy);
+        BinaryRecordCodec.readLegacyRequests(RequestFileTest.legacyRecord(BOB, RequestFileTest.requests(ALICE, 1500L), RequestFileTest.requests()), legacy);
+        BinaryRecordCodec.readLegacyRequests(RequestFileTest.legacyRecord(CAROL, RequestFileTest.requests(), RequestFileTest.requests()), legacy);
+        HashMap<UUID, Map<UUID, Long>> expected = new HashMap<UUID, Map<UUID, Long>>();
+        expected.put(ALICE, RequestFileTest.requests(BOB, 1500L));
+        assertEquals(expected, legacy.agreed());
+        assertEquals(0, BinaryRecordCodec.decode(RequestFileTest.legacyRecord(ALICE, RequestFileTest.requests(BOB, 1L), RequestFileTest.requests(CAROL, 2L))).getFriendCount());
+    }
+
+    private static Map<UUID, Long> requests(Object ... pairs) {
+        HashMap<UUID, Long> requests = new HashMap<UUID, Long>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            requests.put((UUID)pairs[i], (Long)pairs[i + 1]);
+        }
+        return requests;
+    }
+
+    /**
+     * A record as versions that kept requests in the records wrote it.
+     */
+    private static byte[] legacyRecord(UUID playerUUID, Map<UUID, Long> incoming, Map<UUID, Long> outgoing) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(BinaryRecordCodec.FORMAT_VERSION);
+        out.writeLong(playerUUID.getMostSignificantBits());
+        out.writeLong(playerUUID.getLeastSignificantBits());
+        out.writeUTF("Player");
+        out.writeInt(0);
+        out.writeLong(0L);
+        for (int i = 0; i < 4; ++i) {
+            out.writeInt(0);
+        }
+        for (Map<UUID, Long> requests : Arrays.asList(incoming, outgoing)) {
+            out.writeInt(requests.size());
+            for (Map.Entry<UUID, Long> entry : requests.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int)crc.getValue());
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,149 @@
+package me.herex.friendsystem.storage;
+
+import me.herex.friendsystem.model.PlayerData;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StorageConverterTest {
+    private static final Logger LOGGER = Logger.getLogger("StorageConverterTest");
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertsEveryPlayer() throws IOException {
+        File dataFolder = this.folder.getRoot();
+        List<PlayerData> players = BinaryPlayerStoreTest.players(5);
+        HashMap<UUID, Map<UUID, Long>> requests = new HashMap<UUID, Map<UUID, Long>>();
+        requests.computeIfAbsent(players.get(0).getPlayerUUID(), uuid -> new HashMap<UUID, Long>()).put(players.get(1).getPlayerUUID(), 5000L);
+        BinaryPlayerStore source = new BinaryPlayerStore(new File(dataFolder, "data.dat"), LOGGER);
+        source.open();
+        try {
+            source.saveBatch(players);
+            source.replaceRequests(requests);
+        }
+        finally {
+            source.close();
+        }
+        StorageConverter.convert(dataFolder, "BINARY", "KV", false, LOGGER);
+        KeyValuePlayerStore converted = new KeyValuePlayerStore(new File(dataFolder, "data.kv"), LOGGER);
+        converted.open();
+        try {
+            Map<UUID, PlayerData> loaded = converted.loadAll();
+            assertEquals(players.size(), loaded.size());
+            for (PlayerData expected : players) {
+                assertEquals(StorageConverter.fingerprint(expected), StorageConverter.fingerprint(loaded.get(expected.getPlayerUUID())));
+            }
+            assertEquals(requests, converted.loadRequests());
+        }
+        finally {
+            converted.close();
+        }
+    }
+
+    @Test
+    public void failsWhenTheSourceSkipsARecord() throws IOException {
+        File dataFolder = this.folder.getRoot();
+        File dataFile = new File(dataFolder, "data.kv");
+        this.save(new KeyValuePlayerStore(dataFile, LOGGER), BinaryPlayerStoreTest.players(3));
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            // Records start on 512 byte pages and are smaller than one, so this is inside the last.
+            long position = (file.length() - 1L) / 512L * 512L + 30L;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+        try {
+            StorageConverter.convert(dataFolder, "KV", "BINARY", false, LOGGER);
+            fail("A skipped record must fail the conversion");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("2 of the 3"));
+        }
+    }
+
+    @Test
+    public void overwriteReplacesTheTargetOnlyAfterVerifying() throws IOException {
+        File dataFolder = this.folder.getRoot();
+        List<PlayerData> players = BinaryPlayerStoreTest.players(4);
+        this.save(new BinaryPlayerStore(new File(dataFolder, "data.dat"), LOGGER), players.subList(0, 3));
+        this.save(new KeyValuePlayerStore(new File(dataFolder, "data.kv"), LOGGER), players.subList(3, 4));
+        StorageConverter.convert(dataFolder, "BINARY", "KV", true, LOGGER);
+        KeyValuePlayerStore converted = new KeyValuePlayerStore(new File(dataFolder, "data.kv"), LOGGER);
+        converted.open();
+        try {
+            assertEquals(new HashSet<UUID>(Arrays.asList(players.get(0).getPlayerUUID(), players.get(1).getPlayerUUID(), players.get(2).getPlayerUUID())), converted.keys());
+        }
+        finally {
+            converted.close();
+        }
+        assertFalse(new File(dataFolder, "convert.tmp").exists());
+        assertFalse(new File(dataFolder, "data.kv.old").exists());
+    }
+
+    @Test
+    public void failedOverwriteLeavesTheTargetAlone() throws IOException {
+        File dataFolder = this.folder.getRoot();
+        List<PlayerData> players = BinaryPlayerStoreTest.players(5);
+        this.save(new BinaryPlayerStore(new File(dataFolder, "data.dat"), LOGGER), players.subList(0, 2));
+        File dataFile = new File(dataFolder, "data.kv");
+        this.save(new KeyValuePlayerStore(dataFile, LOGGER), players.subList(2, 5));
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            long position = (file.length() - 1L) / 512L * 512L + 30L;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+        try {
+            StorageConverter.convert(dataFolder, "KV", "BINARY", true, LOGGER);
+            fail("A skipped record must fail the conversion");
+        }
+        catch (IOException expected) {
+        }
+        BinaryPlayerStore target = new BinaryPlayerStore(new File(dataFolder, "data.dat"), LOGGER);
+        target.open();
+        try {
+            assertEquals(2, target.keys().size());
+        }
+        finally {
+            target.close();
+        }
+        assertFalse(new File(dataFolder, "convert.tmp").exists());
+    }
+
+    @Test
+    public void fingerprintCoversTheLastLogout() {
+        PlayerData data = BinaryPlayerStoreTest.players(1).get(0);
+        long before = StorageConverter.fingerprint(data);
+        data.setLastLogoutTime(data.getLastLogoutTime() + 1L);
+        assertNotEquals(before, StorageConverter.fingerprint(data));
+    }
+
+    private void save(PlayerStore store, List<PlayerData> players) throws IOException {
+        store.open();
+        try {
+            store.saveBatch(players);
+        }
+        finally {
+            store.close();
+        }
+    }
+}